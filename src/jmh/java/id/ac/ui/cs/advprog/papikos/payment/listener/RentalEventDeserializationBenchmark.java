@@ -0,0 +1,46 @@
+package id.ac.ui.cs.advprog.papikos.payment.listener;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of a {@code rental.created} message into a {@link RentalEvent}, with the argument type inferred as the
+ * rental event listeners do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RentalEventDeserializationBenchmark {
+
+    private Jackson2JsonMessageConverter messageConverter;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        messageConverter = new Jackson2JsonMessageConverter();
+        RentalEvent event = new RentalEvent(UUID.randomUUID().toString(), UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), UUID.randomUUID().toString(), LocalDate.of(2025, 5, 1),
+                new BigDecimal("1250000.00"), "BOOKING_INITIATED");
+        message = messageConverter.toMessage(event, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object fromMessage() {
+        message.getMessageProperties().setInferredArgumentType(RentalEvent.class);
+        return messageConverter.fromMessage(message);
+    }
+}
@@ -0,0 +1,69 @@
+package id.ac.ui.cs.advprog.papikos.payment.response;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON body of the transaction history endpoint: an {@link ApiResponse} wrapping a page of transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApiResponseSerializationBenchmark {
+
+    @Param({"20", "100"})
+    private int pageSize;
+
+    private ObjectMapper objectMapper;
+    private ApiResponse<Page<TransactionDto>> response;
+
+    @Setup
+    public void setUp() {
+        // Configured like Spring Boot's default ObjectMapper
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        List<TransactionDto> transactions = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            UUID payer = UUID.randomUUID();
+            LocalDateTime createdAt = LocalDateTime.of(2025, 5, 1, 9, 30).plusMinutes(i);
+            transactions.add(new TransactionDto(UUID.randomUUID(), payer, TransactionType.PAYMENT,
+                    new BigDecimal("1250000.00"), TransactionStatus.COMPLETED, UUID.randomUUID(), payer,
+                    UUID.randomUUID(), "Rental payment " + i, createdAt, createdAt));
+        }
+        response = ApiResponse.<Page<TransactionDto>>builder()
+                .status(HttpStatus.OK)
+                .message("Transaction history retrieved successfully")
+                .data(new PageImpl<>(transactions, PageRequest.of(0, pageSize), 10_000))
+                .build();
+    }
+
+    @Benchmark
+    public byte[] serializeHistoryPage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+}
@@ -0,0 +1,89 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to DTO mapping of {@link PaymentServiceImpl}, for one transaction and for a page of transaction history
+ * as {@link PaymentServiceImpl#getTransactionHistory} maps it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransactionDtoMappingBenchmark {
+
+    private PaymentServiceImpl paymentService;
+    private Transaction transaction;
+
+    @State(Scope.Benchmark)
+    public static class HistoryPage {
+
+        @Param({"20", "100"})
+        private int pageSize;
+
+        private Page<Transaction> page;
+
+        @Setup
+        public void setUp() {
+            List<Transaction> transactions = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                transactions.add(transaction(i));
+            }
+            page = new PageImpl<>(transactions, PageRequest.of(0, pageSize), 10_000);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // The mapping touches none of the collaborators
+        paymentService = new PaymentServiceImpl(null, null, null, null, null, null, null, null, null, null);
+        transaction = transaction(0);
+    }
+
+    private static Transaction transaction(int i) {
+        UUID payer = UUID.randomUUID();
+        Transaction transaction = new Transaction();
+        transaction.setTransactionId(UUID.randomUUID());
+        transaction.setUserId(payer);
+        transaction.setTransactionType(i % 2 == 0 ? TransactionType.PAYMENT : TransactionType.TOPUP);
+        transaction.setAmount(new BigDecimal("1250000.00").add(BigDecimal.valueOf(i)));
+        transaction.setStatus(TransactionStatus.COMPLETED);
+        transaction.setRelatedRentalId(UUID.randomUUID());
+        transaction.setPayerUserId(payer);
+        transaction.setPayeeUserId(UUID.randomUUID());
+        transaction.setNotes("Rental payment " + i);
+        transaction.setCreatedAt(LocalDateTime.of(2025, 5, 1, 9, 30).plusMinutes(i));
+        transaction.setUpdatedAt(LocalDateTime.of(2025, 5, 1, 9, 30).plusMinutes(i));
+        return transaction;
+    }
+
+    @Benchmark
+    public TransactionDto mapTransaction() {
+        return paymentService.mapToTransactionDto(transaction);
+    }
+
+    @Benchmark
+    public Page<TransactionDto> mapHistoryPage(HistoryPage history) {
+        return history.page.map(paymentService::mapToTransactionDto);
+    }
+}
@@ -0,0 +1,82 @@
+package id.ac.ui.cs.advprog.papikos.payment.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalDetailsDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalResponseWrapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Short-lived read-through cache in front of {@link RentalServiceClient#getRentalDetailsForPayment}.
+ * Absorbs retries and double submits for the same rental; entries are dropped as soon as a
+ * rental event for the rental arrives on {@code rental.topic}.
+ * Hit and miss counts are published as {@code cache.*} meters tagged {@code cache=rental.details}.
+ */
+@Component
+@Slf4j
+public class RentalDetailsCache {
+
+    public static final String CACHE_NAME = "rental.details";
+
+    private final RentalServiceClient rentalServiceClient;
+
+    private final Cache<UUID, RentalDetailsDto> cache;
+
+    // Invalidations seen while a load may have been in flight, so a stale load is never stored
+    private final Cache<UUID, Long> recentInvalidations;
+
+    public RentalDetailsCache(RentalServiceClient rentalServiceClient,
+                              @Value("${rental.cache.ttl:PT30S}") Duration ttl,
+                              @Value("${rental.cache.max-size:10000}") long maxSize,
+                              MeterRegistry meterRegistry) {
+        this.rentalServiceClient = rentalServiceClient;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        this.recentInvalidations = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Returns the rental details, fetching them from the rental service on a miss.
+     * Returns {@code null} when the rental service answers without data; such answers are not cached.
+     * Exceptions from the rental service propagate unchanged.
+     */
+    public RentalDetailsDto getRentalDetails(UUID rentalId) {
+        RentalDetailsDto cached = cache.getIfPresent(rentalId);
+        if (cached != null) {
+            log.debug("Rental details for rentalId: {} served from cache", rentalId);
+            return cached;
+        }
+
+        // Loaded outside the cache's own locking so a slow rental service never blocks other keys
+        long loadStartedAt = System.nanoTime();
+        RentalResponseWrapper<RentalDetailsDto> response = rentalServiceClient.getRentalDetailsForPayment(String.valueOf(rentalId));
+        RentalDetailsDto details = response != null ? response.getData() : null;
+        if (details != null) {
+            cache.put(rentalId, details);
+            Long invalidatedAt = recentInvalidations.getIfPresent(rentalId);
+            if (invalidatedAt != null && invalidatedAt - loadStartedAt >= 0) {
+                cache.invalidate(rentalId);
+            }
+        }
+        return details;
+    }
+
+    public void invalidate(UUID rentalId) {
+        recentInvalidations.put(rentalId, System.nanoTime());
+        cache.invalidate(rentalId);
+    }
+}
@@ -1,14 +1,129 @@
 package id.ac.ui.cs.advprog.papikos.payment.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+/**
+ * Outbound HTTP for {@link RestTemplate} users (token verification, JWK set refresh).
+ * By default requests go through a pooled Apache HttpClient with keep-alive, per-route limits,
+ * timeouts and idle eviction; pool usage is exported as {@code http.client.pool.*} gauges.
+ * With {@code http.client.http2-enabled=true} the JDK client is used instead so connections can negotiate HTTP/2;
+ * with {@code spring.threads.virtual.enabled=true} it runs its work on virtual threads.
+ */
 @Configuration
 public class AppConfig {
 
+    public static final String HTTP2_ENABLED_PROPERTY = "http.client.http2-enabled";
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${http.client.connect-timeout:PT2S}")
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    @Value("${http.client.read-timeout:PT5S}")
+    private Duration readTimeout = Duration.ofSeconds(5);
+
+    @Bean
+    public RestTemplate restTemplate(ClientHttpRequestFactory clientHttpRequestFactory) {
+        return new RestTemplate(clientHttpRequestFactory);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = HTTP2_ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(
+            @Value("${http.client.max-connections:200}") int maxConnections,
+            @Value("${http.client.max-connections-per-route:50}") int maxConnectionsPerRoute,
+            @Value("${http.client.connection-time-to-live:PT5M}") Duration timeToLive) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        // Re-check connections that sat idle for a while before reusing them
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = HTTP2_ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
+    public CloseableHttpClient pooledHttpClient(PoolingHttpClientConnectionManager httpClientConnectionManager,
+                                                @Value("${http.client.idle-timeout:PT30S}") Duration idleTimeout,
+                                                @Value("${http.client.pool-acquire-timeout:PT1S}") Duration poolAcquireTimeout) {
+        return HttpClients.custom()
+                .setConnectionManager(httpClientConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(poolAcquireTimeout))
+                        .setResponseTimeout(Timeout.of(readTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = HTTP2_ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
+    public ClientHttpRequestFactory pooledClientHttpRequestFactory(CloseableHttpClient pooledHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(pooledHttpClient);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = HTTP2_ENABLED_PROPERTY, havingValue = "true")
+    public ClientHttpRequestFactory http2ClientHttpRequestFactory() {
+        // The JDK client keeps its own connection pool and multiplexes HTTP/2 streams per connection
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout);
+        if (virtualThreads) {
+            builder.executor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+        HttpClient httpClient = builder.build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout);
+        return requestFactory;
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    @ConditionalOnProperty(name = HTTP2_ENABLED_PROPERTY, havingValue = "false", matchIfMissing = true)
+    public MeterBinder httpClientPoolMetrics(PoolingHttpClientConnectionManager httpClientConnectionManager) {
+        return registry -> {
+            Gauge.builder("http.client.pool.leased", httpClientConnectionManager, cm -> cm.getTotalStats().getLeased())
+                    .description("Connections currently leased from the outbound HTTP pool")
+                    .register(registry);
+            Gauge.builder("http.client.pool.pending", httpClientConnectionManager, cm -> cm.getTotalStats().getPending())
+                    .description("Requests waiting for a connection from the outbound HTTP pool")
+                    .register(registry);
+            Gauge.builder("http.client.pool.available", httpClientConnectionManager, cm -> cm.getTotalStats().getAvailable())
+                    .description("Idle connections kept alive in the outbound HTTP pool")
+                    .register(registry);
+            Gauge.builder("http.client.pool.max", httpClientConnectionManager, cm -> cm.getTotalStats().getMax())
+                    .description("Maximum size of the outbound HTTP pool")
+                    .register(registry);
+        };
     }
 }
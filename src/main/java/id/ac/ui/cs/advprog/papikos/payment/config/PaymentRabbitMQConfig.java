@@ -1,36 +1,136 @@
 package id.ac.ui.cs.advprog.papikos.payment.config;
 
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Configuration
 public class PaymentRabbitMQConfig {
 
     public static final String TOPIC_EXCHANGE_NAME = "rental.topic";
     public static final String ROUTING_KEY_RENTAL_CREATED = "rental.created";
     public static final String PAYMENT_QUEUE_NAME = "payment.rental.created.queue";
+    public static final String ROUTING_KEY_RENTAL_ALL = "rental.#";
+    // Payment events from the outbox, routed by event type (payment.succeeded, payment.failed)
+    public static final String PAYMENT_EVENTS_EXCHANGE_NAME = "payment.topic";
+    // rental.created messages the listener rejects (malformed or failing on redelivery) end up in the dead-letter queue
+    public static final String PAYMENT_DEAD_LETTER_EXCHANGE_NAME = "payment.rental.dlx";
+    public static final String PAYMENT_DEAD_LETTER_QUEUE_NAME = "payment.rental.created.dlq";
+    public static final String RENTAL_EVENTS_CONTAINER_FACTORY = "rentalEventsContainerFactory";
+    public static final String RENTAL_EVENTS_BATCH_CONTAINER_FACTORY = "rentalEventsBatchContainerFactory";
 
     @Bean
     public TopicExchange rentalTopicExchange() {
         return new TopicExchange(TOPIC_EXCHANGE_NAME);
     }
 
+    @Bean
+    public TopicExchange paymentEventsExchange() {
+        return new TopicExchange(PAYMENT_EVENTS_EXCHANGE_NAME);
+    }
+
+    // A queue declared before dead-lettering was added has to be deleted once: RabbitMQ refuses to redeclare
+    // an existing queue with different arguments
     @Bean
     public Queue paymentQueue() {
-        return new Queue(PAYMENT_QUEUE_NAME, true); // durable = true
+        return QueueBuilder.durable(PAYMENT_QUEUE_NAME)
+                .deadLetterExchange(PAYMENT_DEAD_LETTER_EXCHANGE_NAME)
+                .deadLetterRoutingKey(PAYMENT_DEAD_LETTER_QUEUE_NAME)
+                .build();
+    }
+
+    @Bean
+    public DirectExchange paymentDeadLetterExchange() {
+        return new DirectExchange(PAYMENT_DEAD_LETTER_EXCHANGE_NAME);
+    }
+
+    @Bean
+    public Queue paymentDeadLetterQueue() {
+        return QueueBuilder.durable(PAYMENT_DEAD_LETTER_QUEUE_NAME).build();
+    }
+
+    @Bean
+    public Binding paymentDeadLetterBinding(Queue paymentDeadLetterQueue, DirectExchange paymentDeadLetterExchange) {
+        return BindingBuilder.bind(paymentDeadLetterQueue).to(paymentDeadLetterExchange).with(PAYMENT_DEAD_LETTER_QUEUE_NAME);
+    }
+
+    // Consumers of payment.rental.created.queue: several concurrent consumers, each with a bounded number of
+    // unacknowledged messages, acking only after the charge has committed
+    @Bean(name = RENTAL_EVENTS_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory rentalEventsContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${rental.events.listener.concurrency:4}") int concurrency,
+            @Value("${rental.events.listener.max-concurrency:8}") int maxConcurrency,
+            @Value("${rental.events.listener.prefetch:10}") int prefetch) {
+        return newRentalEventsContainerFactory(configurer, connectionFactory, concurrency, maxConcurrency, prefetch);
+    }
+
+    // The same consumers in batch mode: each one collects up to batchSize messages, or whatever arrived before
+    // receiveTimeout passed without another one, and hands them to the listener as one list. The prefetch
+    // covers a whole batch.
+    @Bean(name = RENTAL_EVENTS_BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory rentalEventsBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${rental.events.listener.concurrency:4}") int concurrency,
+            @Value("${rental.events.listener.max-concurrency:8}") int maxConcurrency,
+            @Value("${rental.events.listener.batch.size:100}") int batchSize,
+            @Value("${rental.events.listener.batch.receive-timeout:PT0.5S}") Duration receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = newRentalEventsContainerFactory(configurer, connectionFactory,
+                concurrency, maxConcurrency, batchSize);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout.toMillis());
+        return factory;
+    }
+
+    private SimpleRabbitListenerContainerFactory newRentalEventsContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            int concurrency, int maxConcurrency, int prefetch) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(jsonMessageConverter());
+        factory.setConcurrentConsumers(concurrency);
+        factory.setMaxConcurrentConsumers(Math.max(concurrency, maxConcurrency));
+        factory.setPrefetchCount(prefetch);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        // Messages that cannot be converted are rejected without requeue, i.e. dead-lettered
+        factory.setDefaultRequeueRejected(false);
+        return factory;
+    }
+
+    @Bean
+    public Binding paymentBinding(Queue paymentQueue, TopicExchange rentalTopicExchange) {
+        return BindingBuilder.bind(paymentQueue).to(rentalTopicExchange).with(ROUTING_KEY_RENTAL_CREATED);
+    }
+
+    // Every instance keeps its own rental details cache, so each one needs its own copy of rental events
+    @Bean
+    public Queue rentalCacheInvalidationQueue() {
+        return new AnonymousQueue(); // non-durable, exclusive, auto-delete
     }
 
     @Bean
-    public Binding paymentBinding(Queue paymentQueue, TopicExchange exchange) {
-        return BindingBuilder.bind(paymentQueue).to(exchange).with(ROUTING_KEY_RENTAL_CREATED);
+    public Binding rentalCacheInvalidationBinding(Queue rentalCacheInvalidationQueue, TopicExchange rentalTopicExchange) {
+        return BindingBuilder.bind(rentalCacheInvalidationQueue).to(rentalTopicExchange).with(ROUTING_KEY_RENTAL_ALL);
     }
 
     @Bean
@@ -0,0 +1,70 @@
+package id.ac.ui.cs.advprog.papikos.payment.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReadReplicaRoutingDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Primary/replica routing, enabled by setting {@code datasource.replica.urls}.
+ * Writes and read-write transactions use the {@code spring.datasource.*} pool; read-only transactions
+ * use the replica pools unless {@link id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard} pins them.
+ */
+@Configuration
+@ConditionalOnExpression("'${datasource.replica.urls:}' != ''")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public ReadReplicaRoutingDataSource readReplicaRoutingDataSource(
+            HikariDataSource primaryDataSource,
+            DataSourceProperties dataSourceProperties,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${datasource.replica.urls}") String replicaUrls,
+            @Value("${datasource.replica.username:}") String username,
+            @Value("${datasource.replica.password:}") String password,
+            @Value("${datasource.replica.maximum-pool-size:10}") int maximumPoolSize) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : StringUtils.commaDelimitedListToStringArray(replicaUrls)) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + replicas.size());
+            replica.setJdbcUrl(url.trim());
+            replica.setDriverClassName(dataSourceProperties.determineDriverClassName());
+            replica.setUsername(StringUtils.hasText(username) ? username : dataSourceProperties.determineUsername());
+            replica.setPassword(StringUtils.hasText(password) ? password : dataSourceProperties.determinePassword());
+            replica.setMaximumPoolSize(maximumPoolSize);
+            replica.setReadOnly(true);
+            // Replica pools are not beans, so Boot does not instrument them; publish hikaricp.* meters directly
+            meterRegistry.ifAvailable(registry -> replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry)));
+            replicas.add(replica);
+        }
+        return new ReadReplicaRoutingDataSource(primaryDataSource, replicas);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadReplicaRoutingDataSource readReplicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(readReplicaRoutingDataSource);
+    }
+}
@@ -0,0 +1,87 @@
+package id.ac.ui.cs.advprog.papikos.payment.config;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import id.ac.ui.cs.advprog.papikos.payment.security.CoalescingTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.JwkSetProvider;
+import id.ac.ui.cs.advprog.papikos.payment.security.JwtTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.RemoteTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.TokenVerifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestTemplate;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Selects how bearer tokens are verified.
+ * {@code auth.token.verification-mode=remote} (default) calls the auth service for every cache miss;
+ * {@code auth.token.verification-mode=jwt} checks signature and expiry locally against
+ * {@code auth.token.jwt.secret} (HS256) or the key set at {@code auth.token.jwt.jwk-set-uri},
+ * and only calls the auth service for tokens it cannot judge.
+ */
+@Configuration
+public class TokenVerificationConfig {
+
+    public static final String VERIFICATION_MODE_PROPERTY = "auth.token.verification-mode";
+
+    @Bean
+    @ConditionalOnExpression("'${auth.token.verification-mode:remote}' == 'jwt' and '${auth.token.jwt.jwk-set-uri:}' != ''")
+    public JwkSetProvider jwkSetProvider(RestTemplate restTemplate,
+                                         @Value("${auth.token.jwt.jwk-set-uri}") String jwkSetUri) {
+        return new JwkSetProvider(restTemplate, jwkSetUri);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = VERIFICATION_MODE_PROPERTY, havingValue = "jwt")
+    public JwtDecoder authTokenJwtDecoder(@Value("${auth.token.jwt.secret:}") String secret,
+                                          ObjectProvider<JwkSetProvider> jwkSetProvider) {
+        if (!secret.isBlank()) {
+            SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+            return NimbusJwtDecoder.withSecretKey(key).macAlgorithm(MacAlgorithm.HS256).build();
+        }
+
+        JwkSetProvider keySource = jwkSetProvider.getIfAvailable();
+        if (keySource == null) {
+            throw new IllegalStateException(VERIFICATION_MODE_PROPERTY
+                    + "=jwt requires auth.token.jwt.secret or auth.token.jwt.jwk-set-uri to be set");
+        }
+
+        Set<JWSAlgorithm> algorithms = new HashSet<>(JWSAlgorithm.Family.RSA);
+        algorithms.addAll(JWSAlgorithm.Family.EC);
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(algorithms, keySource));
+        // Expiry and not-before are checked by Spring's validators so they surface as JwtValidationException
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        return new NimbusJwtDecoder(jwtProcessor);
+    }
+
+    @Bean
+    @Primary
+    public TokenVerifier tokenVerifier(RemoteTokenVerifier remoteTokenVerifier,
+                                       ObjectProvider<JwtDecoder> authTokenJwtDecoder,
+                                       MeterRegistry meterRegistry) {
+        // Parallel requests carrying the same token share one round-trip to the auth service
+        TokenVerifier remote = new CoalescingTokenVerifier(remoteTokenVerifier, meterRegistry);
+        JwtDecoder jwtDecoder = authTokenJwtDecoder.getIfAvailable();
+        if (jwtDecoder == null) {
+            return remote;
+        }
+        return new JwtTokenVerifier(jwtDecoder, remote);
+    }
+}
@@ -4,12 +4,15 @@ import id.ac.ui.cs.advprog.papikos.payment.dto.*;
 import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
 import id.ac.ui.cs.advprog.papikos.payment.response.ApiResponse;
 import id.ac.ui.cs.advprog.papikos.payment.service.PaymentService;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication; // Import Authentication
@@ -18,7 +21,11 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
 import java.util.UUID;
 
 @RestController
@@ -26,6 +33,9 @@ import java.util.UUID;
 @Slf4j
 public class PaymentController {
 
+    // Retries of POST /topup and /pay carrying the same key are applied once
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final PaymentService paymentService;
 
     // Constructor injection for PaymentService
@@ -52,12 +62,13 @@ public class PaymentController {
     @PostMapping("/topup")
     public ApiResponse<TransactionDto> topUp(
             @RequestBody TopUpRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
             Authentication authentication // Changed from Jwt to Authentication
     ) {
         UUID userId = getUserIdFromAuthentication(authentication); // Use the new method
         //UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000001"); // For testing
         log.info("API: Received top-up initiation request for userId: {} with amount {}", userId, request.amount());
-        TransactionDto completedTransaction = paymentService.topUp(userId, request);
+        TransactionDto completedTransaction = paymentService.topUp(userId, request, idempotencyKey);
         log.info("API: Top-Up successful for userId: {} TransactionId {}", userId, completedTransaction.transactionId());
         return ApiResponse.<TransactionDto>builder()
                 .status(HttpStatus.OK)
@@ -69,11 +80,12 @@ public class PaymentController {
     @PostMapping("/pay")
     public ApiResponse<TransactionDto> payForRental(
             @RequestBody PaymentRequest request,
+            @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
            Authentication authentication // Changed from Jwt to Authentication
     ) {
         UUID userId = getUserIdFromAuthentication(authentication); // Use the new method
         log.info("API: Received payment request for rentalId: {} from userId: {}", request.rentalId(), userId);
-        TransactionDto transactionDto = paymentService.payForRental(userId, request);
+        TransactionDto transactionDto = paymentService.payForRental(userId, request, idempotencyKey);
         log.info("API: Payment successful for rentalId: {}. TransactionId: {}", request.rentalId(), transactionDto.transactionId());
         return ApiResponse.<TransactionDto>builder()
                 .status(HttpStatus.OK)
@@ -115,4 +127,66 @@ public class PaymentController {
                 .data(historyPage)
                 .build();
     }
-}
\ No newline at end of file
+
+    @GetMapping("/transactions/cursor")
+    public ApiResponse<CursorPage<TransactionDto>> getMyTransactionHistoryByCursor(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) TransactionType type,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            Authentication authentication
+    ) {
+        UUID userId = getUserIdFromAuthentication(authentication);
+        log.info("API: Received cursor transaction history request for userId: {} with params - Start: {}, End: {}, Type: {}, Size: {}",
+                userId, startDate, endDate, type, size);
+        CursorPage<TransactionDto> historyPage = paymentService.getTransactionHistory(userId, startDate, endDate, type, cursor, size);
+        return ApiResponse.<CursorPage<TransactionDto>>builder()
+                .status(HttpStatus.OK)
+                .message("Transaction history retrieved successfully")
+                .data(historyPage)
+                .build();
+    }
+
+    @GetMapping("/transactions/summary")
+    public ApiResponse<List<TransactionSummaryDto>> getMyTransactionSummary(
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth fromMonth,
+            @RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth toMonth,
+            Authentication authentication
+    ) {
+        UUID userId = getUserIdFromAuthentication(authentication);
+        log.info("API: Received transaction summary request for userId: {} with params - From: {}, To: {}",
+                userId, fromMonth, toMonth);
+        List<TransactionSummaryDto> summary = paymentService.getTransactionSummary(userId, fromMonth, toMonth);
+        return ApiResponse.<List<TransactionSummaryDto>>builder()
+                .status(HttpStatus.OK)
+                .message("Transaction summary retrieved successfully")
+                .data(summary)
+                .build();
+    }
+
+    /**
+     * Streams the transactions of a date range as a file download. Rows are written to the response as they are
+     * read, so the export is not wrapped in {@link ApiResponse}.
+     */
+    @GetMapping("/transactions/export")
+    public void exportMyTransactionHistory(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(defaultValue = "CSV") TransactionExportFormat format,
+            Authentication authentication,
+            HttpServletResponse response
+    ) throws IOException {
+        UUID userId = getUserIdFromAuthentication(authentication);
+        log.info("API: Received transaction export request for userId: {} with params - Start: {}, End: {}, Format: {}",
+                userId, startDate, endDate, format);
+        response.setContentType(format.getContentType());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("transactions-" + startDate + "-" + endDate + "." + format.getFileExtension())
+                .build()
+                .toString());
+        long rows = paymentService.exportTransactionHistory(userId, startDate, endDate, format, response.getOutputStream());
+        log.info("API: Exported {} transactions for userId: {}", rows, userId);
+    }
+}
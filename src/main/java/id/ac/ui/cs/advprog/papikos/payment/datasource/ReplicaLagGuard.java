@@ -0,0 +1,69 @@
+package id.ac.ui.cs.advprog.papikos.payment.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Read-your-writes guard for replica routing. Users whose balance or history changed within the configured
+ * window have their reads served by the primary, so they never see a replica that has not caught up yet.
+ */
+@Component
+public class ReplicaLagGuard {
+
+    private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+
+    private final Cache<UUID, Boolean> recentWriters;
+
+    public ReplicaLagGuard(@Value("${datasource.replica.read-your-writes-window:PT5S}") Duration readYourWritesWindow,
+                           @Value("${datasource.replica.read-your-writes-max-users:100000}") long maxUsers) {
+        this.recentWriters = Caffeine.newBuilder()
+                .expireAfterWrite(readYourWritesWindow)
+                .maximumSize(maxUsers)
+                .build();
+    }
+
+    /**
+     * Records that the user's data changed. Inside a transaction the window starts once it commits;
+     * a rolled back transaction records nothing.
+     */
+    public void recordWrite(UUID userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            recentWriters.put(userId, Boolean.TRUE);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                recentWriters.put(userId, Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Routes the current read-only transaction to the primary if the user wrote within the window.
+     * Must be called before the transaction's first query; outside a transaction it does nothing.
+     */
+    public void routeReadsFor(UUID userId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive() || recentWriters.getIfPresent(userId) == null) {
+            return;
+        }
+        PINNED_TO_PRIMARY.set(Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                PINNED_TO_PRIMARY.remove();
+            }
+        });
+    }
+
+    static boolean isPinnedToPrimary() {
+        return PINNED_TO_PRIMARY.get() != null;
+    }
+}
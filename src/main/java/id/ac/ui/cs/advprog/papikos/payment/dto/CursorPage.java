@@ -0,0 +1,13 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing. {@code nextCursor} is opaque to clients and is
+ * {@code null} on the last page; no total count is computed.
+ */
+public record CursorPage<T>(
+        List<T> content,
+        String nextCursor,
+        boolean hasNext
+) {}
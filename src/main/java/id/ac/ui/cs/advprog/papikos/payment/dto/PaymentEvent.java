@@ -0,0 +1,24 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Body of the messages published on {@code payment.topic}. {@code transactionId} is the payer's transaction of a
+ * succeeded payment and {@code null} for a failed one, which carries a {@code reason} instead.
+ */
+public record PaymentEvent(
+        UUID eventId,
+        String type,
+        UUID transactionId,
+        UUID rentalId,
+        UUID payerUserId,
+        UUID payeeUserId,
+        BigDecimal amount,
+        String reason,
+        LocalDateTime occurredAt
+) {
+    public static final String PAYMENT_SUCCEEDED = "payment.succeeded";
+    public static final String PAYMENT_FAILED = "payment.failed";
+}
@@ -0,0 +1,12 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/** The tenant paying the owner {@code amount} for a rental announced by a {@code rental.created} event. */
+public record RentalCharge(
+        UUID rentalId,
+        UUID tenantUserId,
+        UUID ownerUserId,
+        BigDecimal amount
+) {}
@@ -0,0 +1,22 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+/**
+ * Outcome of one {@link RentalCharge} of a batch: the tenant's transaction, or the exception the charge failed
+ * with on its own (the same one a single charge would have thrown).
+ */
+public record RentalChargeResult(
+        TransactionDto transaction,
+        RuntimeException failure
+) {
+    public static RentalChargeResult charged(TransactionDto transaction) {
+        return new RentalChargeResult(transaction, null);
+    }
+
+    public static RentalChargeResult failed(RuntimeException failure) {
+        return new RentalChargeResult(null, failure);
+    }
+
+    public boolean isCharged() {
+        return failure == null;
+    }
+}
@@ -0,0 +1,45 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position in a transaction history ordered by {@code (createdAt DESC, transactionId DESC)}: the last row
+ * of the previous page. Clients only ever see the URL-safe Base64 form produced by {@link #encode()}.
+ */
+public record TransactionCursor(
+        LocalDateTime createdAt,
+        UUID transactionId
+) {
+
+    private static final char SEPARATOR = '|';
+
+    public String encode() {
+        String raw = createdAt.toString() + SEPARATOR + transactionId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns {@code null} for a missing cursor (first page); rejects anything not produced by {@link #encode()}. */
+    public static TransactionCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new InvalidOperationException("Invalid pagination cursor.");
+            }
+            return new TransactionCursor(
+                    LocalDateTime.parse(raw.substring(0, separator)),
+                    UUID.fromString(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidOperationException("Invalid pagination cursor.");
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+
+public record TransactionSummaryDto(
+        YearMonth month,
+        TransactionType transactionType,
+        BigDecimal totalAmount,
+        long transactionCount
+) {}
@@ -0,0 +1,54 @@
+package id.ac.ui.cs.advprog.papikos.payment.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * A month whose transactions were moved to the archive files and removed from {@code transactions}.
+ */
+@Entity
+@Table(name = "transaction_archived_months")
+@Getter
+@Setter
+@NoArgsConstructor
+public class ArchivedTransactionMonth {
+
+    // First day of the month
+    @Id
+    @Column(name = "archived_month", nullable = false, updatable = false)
+    private LocalDate month;
+
+    @Column(name = "row_count", nullable = false)
+    private long rowCount;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ArchivedTransactionMonth that = (ArchivedTransactionMonth) o;
+        return Objects.equals(month, that.month);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(month);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedTransactionMonth{" +
+                "month=" + month +
+                ", rowCount=" + rowCount +
+                ", archivedAt=" + archivedAt +
+                '}';
+    }
+}
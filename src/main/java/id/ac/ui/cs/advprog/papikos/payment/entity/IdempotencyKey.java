@@ -0,0 +1,60 @@
+package id.ac.ui.cs.advprog.papikos.payment.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A client-supplied {@code Idempotency-Key} and the transaction it produced. Written only through
+ * {@link id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepositoryCustom}.
+ */
+@Entity
+@Table(name = "idempotency_keys", indexes = {
+        @Index(name = "idx_idempotency_keys_created", columnList = "created_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class IdempotencyKey {
+
+    @EmbeddedId
+    private IdempotencyKeyId id;
+
+    // Operation and parameters of the first request, so a key reused for a different request is rejected
+    @Column(name = "request_fingerprint", nullable = false, length = 255)
+    private String requestFingerprint;
+
+    // Null until the claiming transaction has saved its transaction; both are committed together
+    @Column(name = "transaction_id", columnDefinition = "uuid")
+    private UUID transactionId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IdempotencyKey that = (IdempotencyKey) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyKey{" +
+                "id=" + id +
+                ", requestFingerprint='" + requestFingerprint + '\'' +
+                ", transactionId=" + transactionId +
+                '}';
+    }
+}
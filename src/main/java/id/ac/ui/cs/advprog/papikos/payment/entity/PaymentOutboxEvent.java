@@ -0,0 +1,75 @@
+package id.ac.ui.cs.advprog.papikos.payment.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A payment event waiting to be published. The id comes from a sequence so the relay can publish in insertion
+ * order and Hibernate can still batch the inserts.
+ */
+@Entity
+@Table(name = "payment_outbox")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PaymentOutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_outbox_seq")
+    @SequenceGenerator(name = "payment_outbox_seq", sequenceName = "payment_outbox_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, updatable = false)
+    private Long id;
+
+    // Sent as the AMQP message id so consumers can drop redeliveries
+    @Column(name = "event_id", columnDefinition = "uuid", nullable = false, updatable = false)
+    private UUID eventId;
+
+    // Also the routing key on the payment exchange, e.g. payment.succeeded
+    @Column(name = "event_type", nullable = false, length = 64, updatable = false)
+    private String eventType;
+
+    // The transaction (or rental, for failures) the event is about
+    @Column(name = "aggregate_id", columnDefinition = "uuid", nullable = false, updatable = false)
+    private UUID aggregateId;
+
+    // JSON body of the message
+    @Column(name = "payload", columnDefinition = "TEXT", nullable = false, updatable = false)
+    private String payload;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    // Set while a relay is publishing the event; other relays skip it until then
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PaymentOutboxEvent that = (PaymentOutboxEvent) o;
+        return id != null && Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentOutboxEvent{" +
+                "id=" + id +
+                ", eventId=" + eventId +
+                ", eventType='" + eventType + '\'' +
+                ", aggregateId=" + aggregateId +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
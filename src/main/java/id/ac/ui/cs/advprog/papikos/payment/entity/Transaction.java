@@ -14,7 +14,12 @@ import java.util.Objects;
 import java.util.UUID; // Import UUID
 
 @Entity
-@Table(name = "transactions")
+@Table(name = "transactions", indexes = {
+        // Kept in sync with db/migration/common/V2__add_transaction_history_indexes.sql
+        @Index(name = "idx_transactions_user_created", columnList = "user_id, created_at DESC, transaction_id DESC"),
+        @Index(name = "idx_transactions_user_type_created", columnList = "user_id, transaction_type, created_at DESC"),
+        @Index(name = "idx_transactions_related_rental", columnList = "related_rental_id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,56 @@
+package id.ac.ui.cs.advprog.papikos.payment.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Sum and count of a user's completed transactions of one type in one month. Written only through
+ * {@link id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepositoryCustom}.
+ */
+@Entity
+@Table(name = "transaction_monthly_summaries")
+@Getter
+@Setter
+@NoArgsConstructor
+public class TransactionMonthlySummary {
+
+    @EmbeddedId
+    private TransactionMonthlySummaryId id;
+
+    @Column(name = "total_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal totalAmount = BigDecimal.ZERO;
+
+    @Column(name = "transaction_count", nullable = false)
+    private long transactionCount;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TransactionMonthlySummary that = (TransactionMonthlySummary) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id);
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionMonthlySummary{" +
+                "id=" + id +
+                ", totalAmount=" + totalAmount +
+                ", transactionCount=" + transactionCount +
+                '}';
+    }
+}
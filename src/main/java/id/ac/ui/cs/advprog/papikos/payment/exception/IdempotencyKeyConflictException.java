@@ -0,0 +1,12 @@
+package id.ac.ui.cs.advprog.papikos.payment.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// An Idempotency-Key reused for a request with different parameters
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyKeyConflictException extends RuntimeException {
+    public IdempotencyKeyConflictException(String message) {
+        super(message);
+    }
+}
@@ -1,37 +1,203 @@
 package id.ac.ui.cs.advprog.papikos.payment.listener;
 
+import com.rabbitmq.client.Channel;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
 import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
 import id.ac.ui.cs.advprog.papikos.payment.config.PaymentRabbitMQConfig;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Charges the tenant for every {@code rental.created} event. Messages are acknowledged manually once the charge
+ * (or the {@code payment.failed} event of a declined one) has committed; messages that can never succeed are
+ * rejected and dead-lettered, other failures are retried once.
+ * <p>
+ * With {@code rental.events.listener.batch.enabled=true} the events are consumed in batches instead: each batch
+ * is charged in one transaction and acknowledged with a single ack, while every message is still settled on
+ * its own outcome.
+ */
 @Component
 public class PaymentEventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PaymentEventListener.class);
 
-    @RabbitListener(queues = PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME)
-    public void handleRentalCreatedEvent(RentalEvent event) {
-        LOGGER.info("PaymentService: Received rental.created event: {}", event);
-        // Simulate payment deduction and transaction logging
-        LOGGER.info("PaymentService: Processing payment for rentalId: {} amount: {} from userId: {}",
-                event.getRentalId(), event.getPrice(), event.getUserId());
+    private final PaymentService paymentService;
+    private final MessageConverter messageConverter;
+
+    public PaymentEventListener(PaymentService paymentService, MessageConverter messageConverter) {
+        this.paymentService = paymentService;
+        this.messageConverter = messageConverter;
+    }
+
+    enum Settlement { ACK, REQUEUE, DEAD_LETTER }
 
-        boolean paymentSuccessful = true; // Simulate success
+    @RabbitListener(queues = PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME,
+            containerFactory = PaymentRabbitMQConfig.RENTAL_EVENTS_CONTAINER_FACTORY,
+            autoStartup = "#{!${rental.events.listener.batch.enabled:false}}")
+    public void handleRentalCreatedEvent(RentalEvent event, Channel channel,
+                                         @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                                         @Header(name = AmqpHeaders.REDELIVERED, defaultValue = "false") boolean redelivered)
+            throws IOException {
+        LOGGER.info("PaymentService: Received rental.created event: {}", event);
+        RuntimeException failure = null;
         try {
-            Thread.sleep(200); // Simulate payment processing
-            if (paymentSuccessful) {
-                LOGGER.info("PaymentService: Payment successful for rentalId: {}. Transaction logged.", event.getRentalId());
-                // Potentially publish a "payment.succeeded" event
+            RentalCharge charge = toCharge(event);
+            TransactionDto transaction = paymentService.chargeForRental(charge.rentalId(), charge.tenantUserId(),
+                    charge.ownerUserId(), charge.amount());
+            LOGGER.info("PaymentService: Payment successful for rentalId: {}. Transaction: {}",
+                    event.getRentalId(), transaction.transactionId());
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        settle(channel, deliveryTag, settlementOf(event, failure, redelivered));
+    }
+
+    @RabbitListener(queues = PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME,
+            containerFactory = PaymentRabbitMQConfig.RENTAL_EVENTS_BATCH_CONTAINER_FACTORY,
+            autoStartup = "${rental.events.listener.batch.enabled:false}")
+    public void handleRentalCreatedEvents(List<Message> messages, Channel channel) throws IOException {
+        LOGGER.info("PaymentService: Received a batch of {} rental.created events", messages.size());
+        List<RentalEvent> events = new ArrayList<>(messages.size());
+        List<RuntimeException> failures = new ArrayList<>(messages.size());
+        List<RentalCharge> charges = new ArrayList<>();
+        List<Integer> charged = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            RentalEvent event = null;
+            RuntimeException failure = null;
+            try {
+                event = toEvent(messages.get(i));
+                charges.add(toCharge(event));
+                charged.add(i);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            events.add(event);
+            failures.add(failure);
+        }
+
+        List<RentalChargeResult> results = chargeAll(charges);
+        for (int k = 0; k < charged.size(); k++) {
+            failures.set(charged.get(k), results.get(k).failure());
+        }
+
+        // Requeues and rejects go out one by one; everything else is acked at once, up to the highest tag acked
+        long lastAcked = -1;
+        for (int i = 0; i < messages.size(); i++) {
+            long deliveryTag = messages.get(i).getMessageProperties().getDeliveryTag();
+            Boolean redelivered = messages.get(i).getMessageProperties().isRedelivered();
+            Settlement settlement = settlementOf(events.get(i), failures.get(i), Boolean.TRUE.equals(redelivered));
+            if (settlement == Settlement.ACK) {
+                lastAcked = Math.max(lastAcked, deliveryTag);
             } else {
-                LOGGER.warn("PaymentService: Payment failed for rentalId: {}.", event.getRentalId());
-                // Potentially publish a "payment.failed" event
+                settle(channel, deliveryTag, settlement);
+            }
+        }
+        if (lastAcked >= 0) {
+            channel.basicAck(lastAcked, true);
+        }
+    }
+
+    // If the batch transaction itself fails (a deadlock, a lost connection) the charges are retried one at a
+    // time, so one bad charge does not send the whole batch back to the queue
+    private List<RentalChargeResult> chargeAll(List<RentalCharge> charges) {
+        if (charges.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return paymentService.chargeForRentals(charges);
+        } catch (RuntimeException e) {
+            LOGGER.warn("PaymentService: Batch of {} charges failed, charging them one by one: {}", charges.size(), e.getMessage());
+        }
+        List<RentalChargeResult> results = new ArrayList<>(charges.size());
+        for (RentalCharge charge : charges) {
+            try {
+                results.add(RentalChargeResult.charged(paymentService.chargeForRental(charge.rentalId(),
+                        charge.tenantUserId(), charge.ownerUserId(), charge.amount())));
+            } catch (RuntimeException e) {
+                results.add(RentalChargeResult.failed(e));
             }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            LOGGER.error("PaymentService: Payment processing simulation interrupted", e);
+        }
+        return results;
+    }
+
+    private static Settlement settlementOf(RentalEvent event, RuntimeException failure, boolean redelivered) {
+        if (failure == null) {
+            return Settlement.ACK;
+        }
+        if (failure instanceof InsufficientBalanceException) {
+            // A declined charge is a handled outcome: payment.failed has been recorded for the rental service
+            LOGGER.warn("PaymentService: Payment failed for rentalId: {}. {}", event.getRentalId(), failure.getMessage());
+            return Settlement.ACK;
+        }
+        if (failure instanceof InvalidOperationException || failure instanceof IdempotencyKeyConflictException) {
+            LOGGER.error("PaymentService: Dead-lettering invalid rental.created event {}: {}", event, failure.getMessage());
+            return Settlement.DEAD_LETTER;
+        }
+        // Probably transient (database unavailable, lock timeout): requeue once, then give up
+        if (redelivered) {
+            LOGGER.error("PaymentService: Dead-lettering rental.created event {} after a failed redelivery", event, failure);
+            return Settlement.DEAD_LETTER;
+        }
+        LOGGER.warn("PaymentService: Requeueing rental.created event {}: {}", event, failure.getMessage());
+        return Settlement.REQUEUE;
+    }
+
+    private static void settle(Channel channel, long deliveryTag, Settlement settlement) throws IOException {
+        switch (settlement) {
+            case ACK -> channel.basicAck(deliveryTag, false);
+            case REQUEUE -> channel.basicNack(deliveryTag, false, true);
+            case DEAD_LETTER -> channel.basicReject(deliveryTag, false);
+        }
+    }
+
+    private RentalEvent toEvent(Message message) {
+        message.getMessageProperties().setInferredArgumentType(RentalEvent.class);
+        Object converted;
+        try {
+            converted = messageConverter.fromMessage(message);
+        } catch (RuntimeException e) {
+            throw new InvalidOperationException("Unreadable rental.created event: " + e.getMessage());
+        }
+        if (!(converted instanceof RentalEvent event)) {
+            throw new InvalidOperationException("Unreadable rental.created event with content type "
+                    + message.getMessageProperties().getContentType());
+        }
+        return event;
+    }
+
+    private static RentalCharge toCharge(RentalEvent event) {
+        if (event == null) {
+            throw new InvalidOperationException("Empty rental.created event.");
+        }
+        return new RentalCharge(parseId(event.getRentalId(), "rentalId"), parseId(event.getUserId(), "userId"),
+                parseId(event.getKosOwnerId(), "kosOwnerId"), event.getPrice());
+    }
+
+    private static UUID parseId(String value, String field) {
+        if (value == null) {
+            throw new InvalidOperationException("Missing " + field + " in rental.created event.");
+        }
+        try {
+            return UUID.fromString(value);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidOperationException("Invalid " + field + " in rental.created event: " + value);
         }
     }
 }
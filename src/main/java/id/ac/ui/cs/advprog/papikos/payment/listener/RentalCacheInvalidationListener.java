@@ -0,0 +1,40 @@
+package id.ac.ui.cs.advprog.papikos.payment.listener;
+
+import id.ac.ui.cs.advprog.papikos.payment.client.RentalDetailsCache;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Drops cached rental details whenever the rental service announces a change to the rental,
+ * so a cancelled or otherwise updated rental is never served from cache.
+ */
+@Component
+public class RentalCacheInvalidationListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RentalCacheInvalidationListener.class);
+
+    private final RentalDetailsCache rentalDetailsCache;
+
+    public RentalCacheInvalidationListener(RentalDetailsCache rentalDetailsCache) {
+        this.rentalDetailsCache = rentalDetailsCache;
+    }
+
+    @RabbitListener(queues = "#{rentalCacheInvalidationQueue.name}")
+    public void handleRentalEvent(RentalEvent event) {
+        if (event == null || event.getRentalId() == null) {
+            return;
+        }
+        try {
+            rentalDetailsCache.invalidate(UUID.fromString(event.getRentalId()));
+            LOGGER.debug("PaymentService: Invalidated cached rental details for rentalId: {} (status: {})",
+                    event.getRentalId(), event.getStatus());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("PaymentService: Ignoring rental event with non-UUID rentalId: {}", event.getRentalId());
+        }
+    }
+}
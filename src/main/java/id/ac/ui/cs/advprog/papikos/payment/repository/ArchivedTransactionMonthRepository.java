@@ -0,0 +1,11 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.ArchivedTransactionMonth;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+
+@Repository
+public interface ArchivedTransactionMonthRepository extends JpaRepository<ArchivedTransactionMonth, LocalDate> {
+}
@@ -0,0 +1,35 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.IdempotencyKey;
+import id.ac.ui.cs.advprog.papikos.payment.entity.IdempotencyKeyId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, IdempotencyKeyId>, IdempotencyKeyRepositoryCustom {
+
+    // Key columns are matched one by one: H2 does not use the primary key for a row-value comparison (k.id = :id)
+
+    /** Records the transaction produced by a claimed key; must run in the transaction that claimed it. */
+    @Modifying
+    @Query("UPDATE IdempotencyKey k SET k.transactionId = :transactionId WHERE k.id.userId = :userId AND k.id.key = :key")
+    int complete(@Param("userId") UUID userId, @Param("key") String key, @Param("transactionId") UUID transactionId);
+
+    /** Deletes a claimed key whose request was declined; must run in the transaction that claimed it. */
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.id.userId = :userId AND k.id.key = :key AND k.transactionId IS NULL")
+    int release(@Param("userId") UUID userId, @Param("key") String key);
+
+    /** Deletes keys created before the cutoff, except those starting with keptPrefix. */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyKey k WHERE k.createdAt < :cutoff AND k.id.key NOT LIKE CONCAT(:keptPrefix, '%')")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff, @Param("keptPrefix") String keptPrefix);
+}
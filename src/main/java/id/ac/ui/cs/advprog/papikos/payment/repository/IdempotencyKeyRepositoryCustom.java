@@ -0,0 +1,13 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import java.util.UUID;
+
+public interface IdempotencyKeyRepositoryCustom {
+
+    /**
+     * Inserts the key unless the user already has it, in a single statement that never fails on a concurrent
+     * insert of the same key. On PostgreSQL a concurrent claimer waits until the first one commits or rolls back.
+     * Returns the number of rows inserted (0 or 1).
+     */
+    int claim(UUID userId, String key, String requestFingerprint);
+}
@@ -0,0 +1,55 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.util.UUID;
+
+/**
+ * Dialect-specific claim for {@link IdempotencyKeyRepositoryCustom}: {@code INSERT ... ON CONFLICT DO NOTHING}
+ * on PostgreSQL, a standard {@code MERGE ... WHEN NOT MATCHED} elsewhere (H2 in tests and local runs).
+ */
+class IdempotencyKeyRepositoryImpl implements IdempotencyKeyRepositoryCustom {
+
+    private static final String POSTGRES_CLAIM =
+            "INSERT INTO idempotency_keys (user_id, idempotency_key, request_fingerprint, created_at) " +
+            "VALUES (:userId, :key, :fingerprint, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (user_id, idempotency_key) DO NOTHING";
+
+    private static final String MERGE_CLAIM =
+            "MERGE INTO idempotency_keys k USING (VALUES (CAST(:userId AS UUID), CAST(:key AS VARCHAR(255)), " +
+            "CAST(:fingerprint AS VARCHAR(255)))) src (user_id, idempotency_key, request_fingerprint) " +
+            "ON k.user_id = src.user_id AND k.idempotency_key = src.idempotency_key " +
+            "WHEN NOT MATCHED THEN INSERT (user_id, idempotency_key, request_fingerprint, created_at) " +
+            "VALUES (src.user_id, src.idempotency_key, src.request_fingerprint, CURRENT_TIMESTAMP)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile String claimSql;
+
+    @Override
+    public int claim(UUID userId, String key, String requestFingerprint) {
+        return entityManager.createNativeQuery(claimSql())
+                .setParameter("userId", userId)
+                .setParameter("key", key)
+                .setParameter("fingerprint", requestFingerprint)
+                .executeUpdate();
+    }
+
+    private String claimSql() {
+        String sql = claimSql;
+        if (sql == null) {
+            Dialect dialect = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices()
+                    .getDialect();
+            sql = dialect instanceof PostgreSQLDialect ? POSTGRES_CLAIM : MERGE_CLAIM;
+            claimSql = sql;
+        }
+        return sql;
+    }
+}
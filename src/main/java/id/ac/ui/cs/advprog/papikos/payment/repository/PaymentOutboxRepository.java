@@ -0,0 +1,42 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface PaymentOutboxRepository extends JpaRepository<PaymentOutboxEvent, Long> {
+
+    /**
+     * Locks the oldest events that no relay has claimed (or whose claim ran out before {@code now}), skipping rows
+     * another relay instance is claiming at the same moment. Must run inside a transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    // -2 is LockOptions.SKIP_LOCKED: FOR UPDATE SKIP LOCKED where the dialect supports it
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM PaymentOutboxEvent e WHERE e.claimedUntil IS NULL OR e.claimedUntil < :now ORDER BY e.id")
+    List<PaymentOutboxEvent> lockOldestUnclaimed(@Param("now") LocalDateTime now, Limit limit);
+
+    @Modifying
+    @Query("UPDATE PaymentOutboxEvent e SET e.claimedUntil = :until WHERE e.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids, @Param("until") LocalDateTime until);
+
+    @Modifying
+    @Query("UPDATE PaymentOutboxEvent e SET e.claimedUntil = NULL WHERE e.id IN :ids")
+    int releaseClaims(@Param("ids") Collection<Long> ids);
+
+    @Query("SELECT MIN(e.createdAt) FROM PaymentOutboxEvent e")
+    LocalDateTime findOldestCreatedAt();
+}
@@ -0,0 +1,25 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummary;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummaryId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface TransactionMonthlySummaryRepository
+        extends JpaRepository<TransactionMonthlySummary, TransactionMonthlySummaryId>, TransactionMonthlySummaryRepositoryCustom {
+
+    /** A user's summaries for months {@code fromMonth} to {@code toMonth} (first days, inclusive), newest first. */
+    @Query("SELECT s FROM TransactionMonthlySummary s WHERE s.id.userId = :userId " +
+            "AND s.id.month >= :fromMonth AND s.id.month <= :toMonth " +
+            "ORDER BY s.id.month DESC, s.id.transactionType")
+    List<TransactionMonthlySummary> findUserSummaries(@Param("userId") UUID userId,
+                                                      @Param("fromMonth") LocalDate fromMonth,
+                                                      @Param("toMonth") LocalDate toMonth);
+}
@@ -0,0 +1,34 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+public interface TransactionMonthlySummaryRepositoryCustom {
+
+    /**
+     * Adds one transaction of {@code amount} to the user's summary for {@code month} (first day of the month)
+     * and {@code type}, creating the row if needed, in a single statement.
+     */
+    void addToMonthlySummary(UUID userId, LocalDate month, TransactionType type, BigDecimal amount);
+
+    /** Adds {@code count} transactions totalling {@code amount} at once, as for {@link #addToMonthlySummary}. */
+    void addToMonthlySummary(UUID userId, LocalDate month, TransactionType type, BigDecimal amount, int count);
+
+    /**
+     * Up to {@code limit} distinct ids of users with transactions, in ascending order, starting after
+     * {@code afterUserId} ({@code null} for the first batch).
+     */
+    List<UUID> findTransactionUserIds(UUID afterUserId, int limit);
+
+    /**
+     * Replaces the summaries of {@code userIds} from {@code fromMonth} (first day of the month) onwards with totals
+     * recomputed from their completed transactions; earlier months, e.g. archived ones, are kept. Locks the users'
+     * balance rows first, so no top-up or transfer for them can commit in between. Returns the number of summary
+     * rows written.
+     */
+    int rebuildMonthlySummaries(List<UUID> userIds, LocalDate fromMonth);
+}
@@ -0,0 +1,115 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Dialect-specific increment for {@link TransactionMonthlySummaryRepositoryCustom}: {@code INSERT ... ON CONFLICT
+ * DO UPDATE} on PostgreSQL, a standard {@code MERGE} elsewhere (H2 in tests and local runs). The rebuild
+ * statements are portable.
+ */
+class TransactionMonthlySummaryRepositoryImpl implements TransactionMonthlySummaryRepositoryCustom {
+
+    private static final String POSTGRES_ADD =
+            "INSERT INTO transaction_monthly_summaries AS s " +
+            "(user_id, summary_month, transaction_type, total_amount, transaction_count, updated_at) " +
+            "VALUES (:userId, :month, :type, :amount, :count, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (user_id, summary_month, transaction_type) DO UPDATE SET " +
+            "total_amount = s.total_amount + EXCLUDED.total_amount, " +
+            "transaction_count = s.transaction_count + EXCLUDED.transaction_count, updated_at = EXCLUDED.updated_at";
+
+    private static final String MERGE_ADD =
+            "MERGE INTO transaction_monthly_summaries s USING (VALUES (CAST(:userId AS UUID), CAST(:month AS DATE), " +
+            "CAST(:type AS VARCHAR(20)), CAST(:amount AS NUMERIC(19, 2)), CAST(:count AS BIGINT))) " +
+            "src (user_id, summary_month, transaction_type, amount, transaction_count) " +
+            "ON s.user_id = src.user_id AND s.summary_month = src.summary_month AND s.transaction_type = src.transaction_type " +
+            "WHEN MATCHED THEN UPDATE SET total_amount = s.total_amount + src.amount, " +
+            "transaction_count = s.transaction_count + src.transaction_count, updated_at = CURRENT_TIMESTAMP " +
+            "WHEN NOT MATCHED THEN INSERT (user_id, summary_month, transaction_type, total_amount, transaction_count, updated_at) " +
+            "VALUES (src.user_id, src.summary_month, src.transaction_type, src.amount, src.transaction_count, CURRENT_TIMESTAMP)";
+
+    // Top-ups and transfers update these rows before touching the summaries, so holding them keeps the users' totals still.
+    // ORDER BY user_id is UserBalanceRepository.LOCK_ORDER, the order transfers and batch charges lock balances in.
+    private static final String LOCK_BALANCES =
+            "SELECT user_id FROM user_balances WHERE user_id IN (:userIds) ORDER BY user_id FOR UPDATE";
+
+    private static final String DELETE_SUMMARIES =
+            "DELETE FROM transaction_monthly_summaries WHERE user_id IN (:userIds) AND summary_month >= :fromMonth";
+
+    private static final String INSERT_RECOMPUTED_SUMMARIES =
+            "INSERT INTO transaction_monthly_summaries " +
+            "(user_id, summary_month, transaction_type, total_amount, transaction_count, updated_at) " +
+            "SELECT user_id, CAST(DATE_TRUNC('MONTH', created_at) AS DATE), transaction_type, SUM(amount), COUNT(*), CURRENT_TIMESTAMP " +
+            "FROM transactions WHERE user_id IN (:userIds) AND status = 'COMPLETED' AND created_at >= :fromMonth " +
+            "GROUP BY user_id, CAST(DATE_TRUNC('MONTH', created_at) AS DATE), transaction_type";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile String addSql;
+
+    @Override
+    public void addToMonthlySummary(UUID userId, LocalDate month, TransactionType type, BigDecimal amount) {
+        addToMonthlySummary(userId, month, type, amount, 1);
+    }
+
+    @Override
+    public void addToMonthlySummary(UUID userId, LocalDate month, TransactionType type, BigDecimal amount, int count) {
+        entityManager.createNativeQuery(addSql())
+                .setParameter("userId", userId)
+                .setParameter("month", month)
+                .setParameter("type", type.name())
+                .setParameter("amount", amount)
+                .setParameter("count", count)
+                .executeUpdate();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<UUID> findTransactionUserIds(UUID afterUserId, int limit) {
+        Query query = afterUserId == null
+                ? entityManager.createNativeQuery("SELECT DISTINCT user_id FROM transactions ORDER BY user_id", UUID.class)
+                : entityManager.createNativeQuery("SELECT DISTINCT user_id FROM transactions WHERE user_id > :after ORDER BY user_id", UUID.class)
+                        .setParameter("after", afterUserId);
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    @Override
+    public int rebuildMonthlySummaries(List<UUID> userIds, LocalDate fromMonth) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        entityManager.createNativeQuery(LOCK_BALANCES).setParameter("userIds", userIds).getResultList();
+        entityManager.createNativeQuery(DELETE_SUMMARIES)
+                .setParameter("userIds", userIds)
+                .setParameter("fromMonth", fromMonth)
+                .executeUpdate();
+        return entityManager.createNativeQuery(INSERT_RECOMPUTED_SUMMARIES)
+                .setParameter("userIds", userIds)
+                .setParameter("fromMonth", fromMonth.atStartOfDay())
+                .executeUpdate();
+    }
+
+    private String addSql() {
+        String sql = addSql;
+        if (sql == null) {
+            Dialect dialect = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices()
+                    .getDialect();
+            sql = dialect instanceof PostgreSQLDialect ? POSTGRES_ADD : MERGE_ADD;
+            addSql = sql;
+        }
+        return sql;
+    }
+}
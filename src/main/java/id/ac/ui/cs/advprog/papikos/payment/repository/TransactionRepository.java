@@ -1,29 +1,71 @@
 package id.ac.ui.cs.advprog.papikos.payment.repository;
 
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
 import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
-import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
-public interface TransactionRepository extends JpaRepository<Transaction, UUID> {
+public interface TransactionRepository extends JpaRepository<Transaction, UUID>, JpaSpecificationExecutor<Transaction>,
+        TransactionRepositoryCustom {
+
+    /** History order used by keyset pagination: newest first, transaction id as tie-breaker. */
+    Sort NEWEST_FIRST = Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("transactionId"));
 
     Page<Transaction> findByUserIdOrderByCreatedAtDesc(UUID userId, Pageable pageable);
 
-    @Query("SELECT t FROM Transaction t WHERE t.userId = :userId " +
-            "AND (:startDate IS NULL OR t.createdAt >= :startDate) " +
-            "AND (:endDate IS NULL OR t.createdAt < :endDate) " +
-            "AND (:transactionType IS NULL OR t.transactionType = :transactionType) " +
-            "ORDER BY t.createdAt DESC")
-    Page<Transaction> findUserTransactionsByFilter(
-            @Param("userId") UUID userId,
-            @Param("startDate") LocalDateTime startDate,
-            @Param("endDate") LocalDateTime endDate,
-            @Param("transactionType") TransactionType transactionType,
-            Pageable pageable);
-}
\ No newline at end of file
+    /**
+     * First {@code limit} rows matching {@code spec} in {@link #NEWEST_FIRST} order. Runs no count query;
+     * combine with {@link TransactionSpecifications#olderThan} to seek to the next page.
+     */
+    default List<Transaction> findNewestFirst(Specification<Transaction> spec, int limit) {
+        return findBy(spec, query -> query.sortBy(NEWEST_FIRST).limit(limit).all());
+    }
+
+    /**
+     * Streams a user's transactions in {@code [start, end)} oldest first through a forward-only cursor.
+     * Rows are projected straight into DTOs, so nothing accumulates in the persistence context.
+     * Must be consumed and closed inside a transaction.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto(t.transactionId, t.userId, " +
+            "t.transactionType, t.amount, t.status, t.relatedRentalId, t.payerUserId, t.payeeUserId, t.notes, " +
+            "t.createdAt, t.updatedAt) FROM Transaction t " +
+            "WHERE t.userId = :userId AND t.createdAt >= :start AND t.createdAt < :end " +
+            "ORDER BY t.createdAt, t.transactionId")
+    Stream<TransactionDto> streamUserTransactions(@Param("userId") UUID userId,
+                                                  @Param("start") LocalDateTime start,
+                                                  @Param("end") LocalDateTime end);
+
+    /** Every user's transactions in {@code [start, end)}, oldest first, streamed like {@link #streamUserTransactions}. */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT new id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto(t.transactionId, t.userId, " +
+            "t.transactionType, t.amount, t.status, t.relatedRentalId, t.payerUserId, t.payeeUserId, t.notes, " +
+            "t.createdAt, t.updatedAt) FROM Transaction t " +
+            "WHERE t.createdAt >= :start AND t.createdAt < :end " +
+            "ORDER BY t.createdAt, t.transactionId")
+    Stream<TransactionDto> streamTransactionsCreatedBetween(@Param("start") LocalDateTime start,
+                                                            @Param("end") LocalDateTime end);
+
+    @Query("SELECT MIN(t.createdAt) FROM Transaction t")
+    LocalDateTime findOldestCreatedAt();
+}
@@ -0,0 +1,19 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import java.time.YearMonth;
+
+public interface TransactionRepositoryCustom {
+
+    /**
+     * Creates the monthly partition for {@code month} if it does not exist yet. Returns {@code false} when
+     * {@code transactions} is not partitioned (anything but PostgreSQL), {@code true} otherwise.
+     */
+    boolean createMonthlyPartition(YearMonth month);
+
+    /**
+     * Removes every transaction created in {@code month}: detaches and drops the month's partition where there is
+     * one, then deletes any remaining rows of the month (from the default partition or an unpartitioned table).
+     * Returns the number of rows deleted by that last step.
+     */
+    int removeMonth(YearMonth month);
+}
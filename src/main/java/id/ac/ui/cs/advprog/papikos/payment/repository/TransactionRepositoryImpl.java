@@ -0,0 +1,74 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Partition management for {@link TransactionRepositoryCustom}. Only PostgreSQL has the monthly partitions
+ * (db/migration/postgresql/V4); elsewhere months are removed with a plain range delete.
+ */
+class TransactionRepositoryImpl implements TransactionRepositoryCustom {
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile Boolean partitioned;
+
+    @Override
+    public boolean createMonthlyPartition(YearMonth month) {
+        if (!isPartitioned()) {
+            return false;
+        }
+        // Partition names and bounds are derived from the YearMonth only, never from user input
+        entityManager.createNativeQuery("CREATE TABLE IF NOT EXISTS " + partitionName(month) +
+                        " PARTITION OF transactions FOR VALUES FROM ('" + month.atDay(1).atStartOfDay() +
+                        "') TO ('" + month.plusMonths(1).atDay(1).atStartOfDay() + "')")
+                .executeUpdate();
+        return true;
+    }
+
+    @Override
+    public int removeMonth(YearMonth month) {
+        if (isPartitioned() && partitionExists(month)) {
+            entityManager.createNativeQuery("ALTER TABLE transactions DETACH PARTITION " + partitionName(month)).executeUpdate();
+            entityManager.createNativeQuery("DROP TABLE " + partitionName(month)).executeUpdate();
+        }
+        return entityManager.createNativeQuery("DELETE FROM transactions WHERE created_at >= :start AND created_at < :end")
+                .setParameter("start", month.atDay(1).atStartOfDay())
+                .setParameter("end", month.plusMonths(1).atDay(1).atStartOfDay())
+                .executeUpdate();
+    }
+
+    static String partitionName(YearMonth month) {
+        return "transactions_" + month.format(PARTITION_SUFFIX);
+    }
+
+    private boolean partitionExists(YearMonth month) {
+        return (Boolean) entityManager.createNativeQuery("SELECT to_regclass(:name) IS NOT NULL", Boolean.class)
+                .setParameter("name", partitionName(month))
+                .getSingleResult();
+    }
+
+    private boolean isPartitioned() {
+        Boolean result = partitioned;
+        if (result == null) {
+            Dialect dialect = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices()
+                    .getDialect();
+            result = dialect instanceof PostgreSQLDialect && (Long) entityManager.createNativeQuery(
+                            "SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid = to_regclass('transactions')", Long.class)
+                    .getSingleResult() > 0;
+            partitioned = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,65 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Building blocks for transaction history queries. Unlike a single query with {@code (:param IS NULL OR ...)}
+ * guards, {@link #history} only emits the predicates that were actually supplied, so every filter combination
+ * is planned on its own and can use the {@code created_at} range of the history indexes.
+ */
+public final class TransactionSpecifications {
+
+    private TransactionSpecifications() {
+    }
+
+    /** A user's history with optional filters; {@code null} arguments add no predicate. */
+    public static Specification<Transaction> history(UUID userId, LocalDateTime createdFrom, LocalDateTime createdBefore,
+                                                     TransactionType type) {
+        Specification<Transaction> spec = belongsTo(userId);
+        if (type != null) {
+            spec = spec.and(hasType(type));
+        }
+        if (createdFrom != null) {
+            spec = spec.and(createdAtOrAfter(createdFrom));
+        }
+        if (createdBefore != null) {
+            spec = spec.and(createdBefore(createdBefore));
+        }
+        return spec;
+    }
+
+    public static Specification<Transaction> belongsTo(UUID userId) {
+        return (root, query, cb) -> cb.equal(root.get("userId"), userId);
+    }
+
+    public static Specification<Transaction> hasType(TransactionType type) {
+        return (root, query, cb) -> cb.equal(root.get("transactionType"), type);
+    }
+
+    public static Specification<Transaction> createdAtOrAfter(LocalDateTime from) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("createdAt"), from);
+    }
+
+    public static Specification<Transaction> createdBefore(LocalDateTime before) {
+        return (root, query, cb) -> cb.lessThan(root.get("createdAt"), before);
+    }
+
+    /**
+     * Keyset seek: rows after {@code (createdAt, transactionId)} in {@link TransactionRepository#NEWEST_FIRST} order.
+     * The redundant {@code createdAt <= :createdAt} bound gives the planner a plain range on the index.
+     */
+    public static Specification<Transaction> olderThan(LocalDateTime createdAt, UUID transactionId) {
+        return (root, query, cb) -> cb.and(
+                cb.lessThanOrEqualTo(root.get("createdAt"), createdAt),
+                cb.or(
+                        cb.lessThan(root.get("createdAt"), createdAt),
+                        cb.and(
+                                cb.equal(root.get("createdAt"), createdAt),
+                                cb.lessThan(root.<UUID>get("transactionId"), transactionId))));
+    }
+}
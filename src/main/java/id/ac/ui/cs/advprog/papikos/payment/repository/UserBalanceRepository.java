@@ -1,27 +1,38 @@
 package id.ac.ui.cs.advprog.papikos.payment.repository;
 
-import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
-import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
 import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
-import jakarta.persistence.LockModeType;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
+import java.math.BigDecimal;
+import java.util.Comparator;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
-public interface UserBalanceRepository extends JpaRepository<UserBalance, UUID> {
+public interface UserBalanceRepository extends JpaRepository<UserBalance, UUID>, UserBalanceRepositoryCustom {
+
+    /**
+     * The one order in which a transaction locks several balance rows. It compares user ids as unsigned 128-bit
+     * numbers, which is how PostgreSQL and H2 sort UUIDs, so SQL that locks with {@code ORDER BY user_id} agrees with
+     * it; {@link UUID#compareTo} does not, as it compares signed halves.
+     */
+    Comparator<UUID> LOCK_ORDER = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
 
     Optional<UserBalance> findByUserId(UUID userId);
 
-    @Lock(LockModeType.PESSIMISTIC_WRITE)
-    @Query("SELECT ub FROM UserBalance ub WHERE ub.userId = :userId") // Explicit query optional but clear
-    Optional<UserBalance> findByUserIdWithLock(@Param("userId") UUID userId);
+    /**
+     * Adds {@code delta} (negative for a debit) to the balance in one conditional {@code UPDATE}.
+     * Returns the number of rows changed: 0 when the row does not exist or the balance would go below zero.
+     * The managed {@link UserBalance} instance, if any, is not refreshed.
+     */
+    @Modifying
+    @Query("UPDATE UserBalance ub SET ub.balance = ub.balance + :delta, ub.updatedAt = LOCAL DATETIME " +
+            "WHERE ub.userId = :userId AND ub.balance + :delta >= 0")
+    int applyBalanceDelta(@Param("userId") UUID userId, @Param("delta") BigDecimal delta);
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import java.util.UUID;
+
+public interface UserBalanceRepositoryCustom {
+
+    /**
+     * Creates a zero balance for the user unless one already exists, in a single statement that never
+     * fails on a concurrent insert of the same user. Returns the number of rows inserted (0 or 1).
+     */
+    int insertIfAbsent(UUID userId);
+}
@@ -0,0 +1,50 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.util.UUID;
+
+/**
+ * Dialect-specific upsert for {@link UserBalanceRepositoryCustom}: {@code INSERT ... ON CONFLICT DO NOTHING}
+ * on PostgreSQL, a standard {@code MERGE ... WHEN NOT MATCHED} elsewhere (H2 in tests and local runs).
+ */
+class UserBalanceRepositoryImpl implements UserBalanceRepositoryCustom {
+
+    private static final String POSTGRES_INSERT_IF_ABSENT =
+            "INSERT INTO user_balances (user_id, balance, updated_at) VALUES (:userId, 0, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (user_id) DO NOTHING";
+
+    private static final String MERGE_INSERT_IF_ABSENT =
+            "MERGE INTO user_balances ub USING (VALUES (CAST(:userId AS UUID))) src (user_id) " +
+            "ON ub.user_id = src.user_id " +
+            "WHEN NOT MATCHED THEN INSERT (user_id, balance, updated_at) VALUES (src.user_id, 0, CURRENT_TIMESTAMP)";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile String insertIfAbsentSql;
+
+    @Override
+    public int insertIfAbsent(UUID userId) {
+        return entityManager.createNativeQuery(insertIfAbsentSql())
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    private String insertIfAbsentSql() {
+        String sql = insertIfAbsentSql;
+        if (sql == null) {
+            Dialect dialect = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getJdbcServices()
+                    .getDialect();
+            sql = dialect instanceof PostgreSQLDialect ? POSTGRES_INSERT_IF_ABSENT : MERGE_INSERT_IF_ABSENT;
+            insertIfAbsentSql = sql;
+        }
+        return sql;
+    }
+}
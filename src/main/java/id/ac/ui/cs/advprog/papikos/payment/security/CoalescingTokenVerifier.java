@@ -0,0 +1,84 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single-flight wrapper: concurrent verifications of the same token share one call to the delegate.
+ * The first caller performs the verification; callers arriving while it is in flight wait for and
+ * receive the same result (or exception). Coalesced calls are counted in {@code auth.token.verify.coalesced}.
+ */
+public class CoalescingTokenVerifier implements TokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingTokenVerifier.class);
+
+    public static final String COALESCED_METRIC = "auth.token.verify.coalesced";
+
+    private final TokenVerifier delegate;
+
+    private final ConcurrentMap<String, CompletableFuture<VerifyTokenResponse.Data>> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter coalescedCounter;
+
+    public CoalescingTokenVerifier(TokenVerifier delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.coalescedCounter = Counter.builder(COALESCED_METRIC)
+                .description("Token verifications that joined an identical in-flight call")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public VerifyTokenResponse.Data verify(String token) throws IOException {
+        String key = TokenVerificationCache.keyFor(token);
+        CompletableFuture<VerifyTokenResponse.Data> call = new CompletableFuture<>();
+        CompletableFuture<VerifyTokenResponse.Data> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalescedCounter.increment();
+            logger.debug("Joining in-flight verification for the same token");
+            return await(existing);
+        }
+
+        try {
+            VerifyTokenResponse.Data data = delegate.verify(token);
+            call.complete(data);
+            return data;
+        } catch (Throwable e) {
+            // Errors too: callers that joined would otherwise wait on the call forever
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static VerifyTokenResponse.Data await(CompletableFuture<VerifyTokenResponse.Data> call) throws IOException {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.text.ParseException;
+import java.util.List;
+
+/**
+ * Holds the auth service's JSON Web Key Set in memory.
+ * The set is fetched when the scheduler starts and refreshed on a fixed delay afterwards,
+ * so key lookups during verification never block on the network.
+ */
+public class JwkSetProvider implements JWKSource<SecurityContext> {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwkSetProvider.class);
+
+    private final RestTemplate restTemplate;
+
+    private final String jwkSetUri;
+
+    private volatile JWKSet jwkSet = new JWKSet();
+
+    public JwkSetProvider(RestTemplate restTemplate, String jwkSetUri) {
+        this.restTemplate = restTemplate;
+        this.jwkSetUri = jwkSetUri;
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) {
+        return jwkSelector.select(jwkSet);
+    }
+
+    @Scheduled(fixedDelayString = "${auth.token.jwt.jwk-set-refresh:PT5M}")
+    public void refresh() {
+        try {
+            String body = restTemplate.getForObject(jwkSetUri, String.class);
+            if (body == null) {
+                logger.warn("Empty JWK set response from {}", jwkSetUri);
+                return;
+            }
+            JWKSet fetched = JWKSet.parse(body);
+            jwkSet = fetched;
+            logger.info("Loaded {} signing key(s) from {}", fetched.getKeys().size(), jwkSetUri);
+        } catch (RestClientException | ParseException e) {
+            // Keep serving the last known keys; unknown keys fall back to the auth service
+            logger.warn("Failed to refresh JWK set from {}: {}", jwkSetUri, e.getMessage());
+        }
+    }
+
+    public JWKSet current() {
+        return jwkSet;
+    }
+}
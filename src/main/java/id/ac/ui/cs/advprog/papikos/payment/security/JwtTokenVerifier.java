@@ -0,0 +1,67 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+
+import java.io.IOException;
+
+/**
+ * Verifies signature and expiry locally and builds the identity from the token's claims.
+ * Tokens that cannot be judged locally (unknown key, unsupported algorithm, missing claims)
+ * are handed to the fallback verifier; tokens that fail claim validation (e.g. expired) are rejected outright.
+ */
+public class JwtTokenVerifier implements TokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtTokenVerifier.class);
+
+    static final String USER_ID_CLAIM = "userId";
+    static final String EMAIL_CLAIM = "email";
+    static final String ROLE_CLAIM = "role";
+    static final String STATUS_CLAIM = "status";
+
+    private final JwtDecoder jwtDecoder;
+
+    private final TokenVerifier fallback;
+
+    public JwtTokenVerifier(JwtDecoder jwtDecoder, TokenVerifier fallback) {
+        this.jwtDecoder = jwtDecoder;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public VerifyTokenResponse.Data verify(String token) throws IOException {
+        Jwt jwt;
+        try {
+            jwt = jwtDecoder.decode(token);
+        } catch (JwtValidationException e) {
+            logger.warn("Token rejected by local validation: {}", e.getMessage());
+            throw new BadCredentialsException("Token verification unsuccessful", e);
+        } catch (JwtException e) {
+            logger.debug("Token could not be verified locally, falling back to auth service: {}", e.getMessage());
+            return fallback.verify(token);
+        }
+
+        VerifyTokenResponse.Data data = toData(jwt);
+        if (data.userId == null || data.role == null) {
+            logger.debug("Token is missing identity claims, falling back to auth service");
+            return fallback.verify(token);
+        }
+        return data;
+    }
+
+    private VerifyTokenResponse.Data toData(Jwt jwt) {
+        String userId = jwt.getClaimAsString(USER_ID_CLAIM);
+        return VerifyTokenResponse.Data.builder()
+                .userId(userId != null ? userId : jwt.getSubject())
+                .email(jwt.getClaimAsString(EMAIL_CLAIM))
+                .role(jwt.getClaimAsString(ROLE_CLAIM))
+                .status(jwt.getClaimAsString(STATUS_CLAIM))
+                .build();
+    }
+}
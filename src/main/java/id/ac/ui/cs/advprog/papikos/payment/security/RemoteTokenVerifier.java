@@ -0,0 +1,65 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+
+/**
+ * Verifies tokens with a round-trip to the auth service's {@code /api/v1/verify} endpoint.
+ */
+@Component
+public class RemoteTokenVerifier implements TokenVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteTokenVerifier.class);
+
+    private final RestTemplate restTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final String authVerifyUrl;
+
+    public RemoteTokenVerifier(RestTemplate restTemplate, ObjectMapper objectMapper,
+                               @Value("${auth.service.url}") String authVerifyUrl) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.authVerifyUrl = authVerifyUrl;
+    }
+
+    @Override
+    public VerifyTokenResponse.Data verify(String token) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        HttpEntity<Void> entity = new HttpEntity<>(headers);
+
+        logger.info("Verifying token with auth server at URL: {}", authVerifyUrl);
+
+        ResponseEntity<String> verificationResponse = restTemplate.exchange(
+                authVerifyUrl + "/api/v1/verify",
+                HttpMethod.POST,
+                entity,
+                String.class
+        );
+
+        if (!verificationResponse.getStatusCode().is2xxSuccessful()) {
+            logger.warn("Token verification failed with status: {}. Response: {}", verificationResponse.getStatusCode(), verificationResponse.getBody());
+            throw new BadCredentialsException("Token verification unsuccessful");
+        }
+
+        VerifyTokenResponse verifyTokenResponse = objectMapper.readValue(
+                verificationResponse.getBody(),
+                VerifyTokenResponse.class
+        );
+        return verifyTokenResponse.data;
+    }
+}
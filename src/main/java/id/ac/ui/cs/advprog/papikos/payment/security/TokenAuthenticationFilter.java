@@ -1,6 +1,5 @@
 package id.ac.ui.cs.advprog.papikos.payment.security;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -9,17 +8,13 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
@@ -30,19 +25,16 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenAuthenticationFilter.class);
 
-    private final RestTemplate restTemplate;
-
-    @Value("${auth.service.url}")
-    private String authVerifyUrl;
+    private final TokenVerifier tokenVerifier;
 
     @Value("${internal.token.secret}")
     private String internalTokenSecret;
 
-    private final ObjectMapper objectMapper;
+    private final TokenVerificationCache tokenVerificationCache;
 
-    public TokenAuthenticationFilter(RestTemplate restTemplate, ObjectMapper objectMapper) {
-        this.restTemplate = restTemplate;
-        this.objectMapper = objectMapper;
+    public TokenAuthenticationFilter(TokenVerifier tokenVerifier, TokenVerificationCache tokenVerificationCache) {
+        this.tokenVerifier = tokenVerifier;
+        this.tokenVerificationCache = tokenVerificationCache;
     }
 
     @Override
@@ -74,53 +66,41 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
             if (authorizationHeader != null && authorizationHeader.startsWith("Bearer ")) {
                 String token = authorizationHeader.substring(7); // Remove "Bearer " prefix
 
-                HttpHeaders headers = new HttpHeaders();
-                headers.setBearerAuth(token);
-                HttpEntity<Void> entity = new HttpEntity<>(headers);
-
-                try {
-                    logger.info("Verifying token with auth server at URL: {}", authVerifyUrl);
-
-                    ResponseEntity<String> verificationResponse = restTemplate.exchange(
-                            authVerifyUrl + "/api/v1/verify",
-                            HttpMethod.POST,
-                            entity,
-                            String.class
-                    );
-
-                    VerifyTokenResponse verifyTokenResponse = objectMapper.readValue(
-                            verificationResponse.getBody(),
-                            VerifyTokenResponse.class
-                    );
-
-                    if (verificationResponse.getStatusCode().is2xxSuccessful()) {
+                VerifyTokenResponse.Data data = tokenVerificationCache.get(token);
+                if (data != null) {
+                    logger.debug("Token verification served from cache for request URI: {}", request.getRequestURI());
+                } else {
+                    try {
+                        data = tokenVerifier.verify(token);
                         logger.info("Token verified successfully for request URI: {}", request.getRequestURI());
-                        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                verifyTokenResponse.data.userId,
-                                "",                // Credentials
-                                Collections.singletonList(new SimpleGrantedAuthority(verifyTokenResponse.data.role)) // Authorities
-                        );
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                    } else {
-                        logger.warn("Token verification failed with status: {}. Response: {}", verificationResponse.getStatusCode(), verificationResponse.getBody());
+                        tokenVerificationCache.put(token, data);
+                    } catch (AuthenticationException e) {
+                        logger.warn("Token verification failed: {}", e.getMessage());
                         SecurityContextHolder.clearContext();
                         response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                         response.getWriter().write("Authentication Failed: Token verification unsuccessful");
                         return; // Stop filter chain
+                    } catch (HttpClientErrorException e) {
+                        logger.warn("Client error during token verification: Status {}, Body {}", e.getStatusCode(), e.getResponseBodyAsString());
+                        if (e.getStatusCode().value() == HttpServletResponse.SC_UNAUTHORIZED) {
+                            tokenVerificationCache.invalidate(token);
+                        }
+                        SecurityContextHolder.clearContext();
+                        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                        response.getWriter().write("Authentication Failed: Invalid token or authentication service error.");
+                        return;
+                    } catch (RestClientException e) {
+                        logger.error("Error connecting to authentication service: {}", e.getMessage(), e);
+                        SecurityContextHolder.clearContext();
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        response.getWriter().write("Authentication Failed: Could not connect to authentication service.");
+                        return;
                     }
-                } catch (HttpClientErrorException e) {
-                    logger.warn("Client error during token verification: Status {}, Body {}", e.getStatusCode(), e.getResponseBodyAsString());
-                    SecurityContextHolder.clearContext();
-                    response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
-                    response.getWriter().write("Authentication Failed: Invalid token or authentication service error.");
-                    return;
-                } catch (RestClientException e) {
-                    logger.error("Error connecting to authentication service: {}", e.getMessage(), e);
-                    SecurityContextHolder.clearContext();
-                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                    response.getWriter().write("Authentication Failed: Could not connect to authentication service.");
-                    return;
                 }
+
+                authenticate(data);
+                continueAndEvictOnUnauthorized(token, request, response, filterChain);
+                return;
             } else {
                 logger.debug("No Bearer token found in Authorization header for request URI: {}", request.getRequestURI());
             }
@@ -128,4 +108,25 @@ public class TokenAuthenticationFilter extends OncePerRequestFilter {
 
         filterChain.doFilter(request, response); // Continue filter chain
     }
-}
\ No newline at end of file
+
+    private void authenticate(VerifyTokenResponse.Data data) {
+        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                data.userId,
+                "",                // Credentials
+                Collections.singletonList(new SimpleGrantedAuthority(data.role)) // Authorities
+        );
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+
+    private void continueAndEvictOnUnauthorized(String token,
+                                                HttpServletRequest request,
+                                                HttpServletResponse response,
+                                                FilterChain filterChain) throws ServletException, IOException {
+        filterChain.doFilter(request, response);
+        // A 401 further down the chain means the cached identity is no longer trusted
+        if (response.getStatus() == HttpServletResponse.SC_UNAUTHORIZED) {
+            logger.debug("Request ended with 401, evicting cached token verification for request URI: {}", request.getRequestURI());
+            tokenVerificationCache.invalidate(token);
+        }
+    }
+}
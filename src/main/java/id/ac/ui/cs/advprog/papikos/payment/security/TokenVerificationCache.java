@@ -0,0 +1,63 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Bounded, short-lived cache of successful token verifications.
+ * Entries are keyed by the SHA-256 of the raw token so bearer tokens are never held in memory as map keys.
+ * Hit, miss and eviction counts are published as {@code cache.*} meters tagged {@code cache=auth.token.verification}.
+ */
+@Component
+public class TokenVerificationCache {
+
+    public static final String CACHE_NAME = "auth.token.verification";
+
+    private final Cache<String, VerifyTokenResponse.Data> cache;
+
+    public TokenVerificationCache(@Value("${auth.token.cache.ttl:PT60S}") Duration ttl,
+                                  @Value("${auth.token.cache.max-size:10000}") long maxSize,
+                                  MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    }
+
+    public VerifyTokenResponse.Data get(String token) {
+        return cache.getIfPresent(keyFor(token));
+    }
+
+    public void put(String token, VerifyTokenResponse.Data data) {
+        if (data != null) {
+            cache.put(keyFor(token), data);
+        }
+    }
+
+    public void invalidate(String token) {
+        cache.invalidate(keyFor(token));
+    }
+
+    static String keyFor(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to ship SHA-256
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
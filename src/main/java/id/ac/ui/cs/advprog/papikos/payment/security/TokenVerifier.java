@@ -0,0 +1,16 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+
+import java.io.IOException;
+
+/**
+ * Resolves a bearer token to the identity it was issued for.
+ * Implementations signal a rejected token with an {@link org.springframework.security.core.AuthenticationException}
+ * or an {@link org.springframework.web.client.HttpClientErrorException}, and an unreachable
+ * verifier with a {@link org.springframework.web.client.RestClientException}.
+ */
+public interface TokenVerifier {
+
+    VerifyTokenResponse.Data verify(String token) throws IOException;
+}
@@ -0,0 +1,97 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a scheduled job to one instance at a time. On PostgreSQL the job holds a transaction-level advisory lock
+ * on a connection of its own for as long as it runs, so the lock goes away with the transaction even if the
+ * instance dies. Other databases (H2 in tests and local runs) are not shared between instances, so a lock in this
+ * JVM is enough there.
+ */
+@Component
+@Slf4j
+public class ClusterJobLock {
+
+    // First half of the advisory lock key, so the service's locks do not collide with other users of the database
+    static final int LOCK_NAMESPACE = 0x7061796d;
+
+    private final DataSource dataSource;
+    private final Map<String, AtomicBoolean> runningLocally = new ConcurrentHashMap<>();
+    private volatile Boolean postgreSQL;
+
+    public ClusterJobLock(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** Runs {@code job} unless it is already running somewhere; returns whether it ran. */
+    public boolean runExclusively(String jobName, Runnable job) {
+        return isPostgreSQL() ? runUnderAdvisoryLock(jobName, job) : runLocally(jobName, job);
+    }
+
+    private boolean runUnderAdvisoryLock(String jobName, Runnable job) {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                if (!tryLock(connection, jobName)) {
+                    log.info("Skipping {}: another instance is running it", jobName);
+                    return false;
+                }
+                job.run();
+                return true;
+            } finally {
+                // Ends the lock's transaction, which releases the lock
+                connection.rollback();
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Could not take the cluster lock of " + jobName, e);
+        }
+    }
+
+    private static boolean tryLock(Connection connection, String jobName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_xact_lock(?, ?)")) {
+            statement.setInt(1, LOCK_NAMESPACE);
+            statement.setInt(2, jobName.hashCode());
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() && result.getBoolean(1);
+            }
+        }
+    }
+
+    private boolean runLocally(String jobName, Runnable job) {
+        AtomicBoolean running = runningLocally.computeIfAbsent(jobName, name -> new AtomicBoolean());
+        if (!running.compareAndSet(false, true)) {
+            log.info("Skipping {}: it is already running", jobName);
+            return false;
+        }
+        try {
+            job.run();
+            return true;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private boolean isPostgreSQL() {
+        if (postgreSQL == null) {
+            try (Connection connection = dataSource.getConnection()) {
+                postgreSQL = "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName());
+            } catch (SQLException e) {
+                throw new DataAccessResourceFailureException("Could not determine the database", e);
+            }
+        }
+        return postgreSQL;
+    }
+}
@@ -0,0 +1,145 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.IdempotencyKey;
+import id.ac.ui.cs.advprog.papikos.payment.entity.IdempotencyKeyId;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.PaymentProcessingException;
+import id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * {@code Idempotency-Key} bookkeeping for top-ups and payments. The {@code idempotency_keys} table decides which
+ * request wins across instances: {@link #claim} runs in the same transaction as the balance change, so a retry
+ * either waits for the first attempt and gets its transaction, or finds nothing if it rolled back.
+ * Completed results are also kept in an in-memory cache ({@code cache=idempotency.keys}) that answers duplicates
+ * without opening a transaction; results never change once committed, so the cache cannot go stale.
+ * Client keys are purged after {@code idempotency.key.retention}; rental charge keys are never purged, since they
+ * are what stops a redelivered or replayed {@code rental.created} event from charging the rental again.
+ */
+@Component
+@Slf4j
+public class IdempotencyKeyStore {
+
+    public static final String CACHE_NAME = "idempotency.keys";
+    // Keys of the charges made for rental.created events, one per rental; clients may not use the prefix
+    public static final String RENTAL_CHARGE_KEY_PREFIX = "rental:";
+    static final int MAX_KEY_LENGTH = 255;
+
+    private record CacheKey(UUID userId, String key) {
+    }
+
+    private record CompletedRequest(String requestFingerprint, TransactionDto transaction) {
+    }
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final TransactionRepository transactionRepository;
+    private final Duration retention;
+    private final Cache<CacheKey, CompletedRequest> completed;
+
+    public IdempotencyKeyStore(IdempotencyKeyRepository idempotencyKeyRepository,
+                               TransactionRepository transactionRepository,
+                               @Value("${idempotency.key.retention:P7D}") Duration retention,
+                               @Value("${idempotency.cache.ttl:PT10M}") Duration cacheTtl,
+                               @Value("${idempotency.cache.max-size:100000}") long cacheMaxSize,
+                               MeterRegistry meterRegistry) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.transactionRepository = transactionRepository;
+        this.retention = retention;
+        this.completed = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtl)
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, completed, CACHE_NAME);
+    }
+
+    /**
+     * Rejects client keys the table cannot hold or that could claim a rental charge's key; {@code null} means the
+     * request is not idempotent.
+     */
+    public static void validate(String key) {
+        if (key != null && (key.isBlank() || key.length() > MAX_KEY_LENGTH)) {
+            throw new InvalidOperationException("Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        if (key != null && key.startsWith(RENTAL_CHARGE_KEY_PREFIX)) {
+            throw new InvalidOperationException("Idempotency-Key must not start with \"" + RENTAL_CHARGE_KEY_PREFIX + "\".");
+        }
+    }
+
+    /**
+     * The cached result of an earlier request with this key, without touching the database.
+     * Throws {@link IdempotencyKeyConflictException} when the key was used for a different request.
+     */
+    public Optional<TransactionDto> findCompleted(UUID userId, String key, String requestFingerprint) {
+        CompletedRequest hit = completed.getIfPresent(new CacheKey(userId, key));
+        if (hit == null) {
+            return Optional.empty();
+        }
+        checkFingerprint(key, hit.requestFingerprint(), requestFingerprint);
+        log.debug("Idempotency-Key {} of userId: {} answered from cache", key, userId);
+        return Optional.of(hit.transaction());
+    }
+
+    /**
+     * Claims the key in the caller's transaction. Returns empty when this request owns the key and must go ahead,
+     * or the transaction an earlier request with the same key already committed.
+     */
+    public Optional<Transaction> claim(UUID userId, String key, String requestFingerprint) {
+        if (idempotencyKeyRepository.claim(userId, key, requestFingerprint) == 1) {
+            return Optional.empty();
+        }
+        IdempotencyKey existing = idempotencyKeyRepository.findById(new IdempotencyKeyId(userId, key))
+                .orElseThrow(() -> new PaymentProcessingException("Idempotency-Key " + key + " is being processed by another request."));
+        checkFingerprint(key, existing.getRequestFingerprint(), requestFingerprint);
+        if (existing.getTransactionId() == null) {
+            throw new PaymentProcessingException("Idempotency-Key " + key + " is being processed by another request.");
+        }
+        log.info("Idempotency-Key {} of userId: {} already produced transactionId: {}", key, userId, existing.getTransactionId());
+        return Optional.of(transactionRepository.findById(existing.getTransactionId())
+                .orElseThrow(() -> new PaymentProcessingException("Transaction of Idempotency-Key " + key + " is no longer available.")));
+    }
+
+    /** Links a key claimed by {@link #claim} to the transaction it produced, in the same transaction. */
+    public void complete(UUID userId, String key, Transaction transaction) {
+        idempotencyKeyRepository.complete(userId, key, transaction.getTransactionId());
+    }
+
+    /** Gives back a key claimed by {@link #claim} whose request was declined, in the same transaction. */
+    public void release(UUID userId, String key) {
+        idempotencyKeyRepository.release(userId, key);
+    }
+
+    /** Caches a committed result; call only after the transaction that completed the key has committed. */
+    public void remember(UUID userId, String key, String requestFingerprint, TransactionDto transaction) {
+        completed.put(new CacheKey(userId, key), new CompletedRequest(requestFingerprint, transaction));
+    }
+
+    @Scheduled(cron = "${idempotency.key.purge-cron:0 45 3 * * *}")
+    public int purgeExpired() {
+        int deleted = idempotencyKeyRepository.deleteCreatedBefore(LocalDateTime.now().minus(retention), RENTAL_CHARGE_KEY_PREFIX);
+        log.info("Purged {} idempotency keys older than {}", deleted, retention);
+        return deleted;
+    }
+
+    private static void checkFingerprint(String key, String stored, String requested) {
+        if (!stored.equals(requested)) {
+            throw new IdempotencyKeyConflictException("Idempotency-Key " + key + " was already used for a different request.");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import id.ac.ui.cs.advprog.papikos.payment.dto.PaymentEvent;
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.exception.PaymentProcessingException;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Records payment events in {@code payment_outbox} in the caller's transaction, so an event exists exactly when
+ * the balance change it describes was committed. {@link PaymentOutboxRelay} publishes them afterwards.
+ */
+@Component
+@RequiredArgsConstructor
+public class PaymentOutbox {
+
+    static final ObjectMapper EVENT_MAPPER = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private final PaymentOutboxRepository paymentOutboxRepository;
+
+    /** Records a {@code payment.succeeded} event for the payer's side of a completed transfer. */
+    public void paymentSucceeded(Transaction payerTransaction) {
+        append(new PaymentEvent(UUID.randomUUID(), PaymentEvent.PAYMENT_SUCCEEDED, payerTransaction.getTransactionId(),
+                payerTransaction.getRelatedRentalId(), payerTransaction.getPayerUserId(), payerTransaction.getPayeeUserId(),
+                payerTransaction.getAmount(), null, LocalDateTime.now()), payerTransaction.getTransactionId());
+    }
+
+    /** Records a {@code payment.failed} event for a payment of {@code rentalId} that was not applied. */
+    public void paymentFailed(UUID rentalId, UUID payerUserId, UUID payeeUserId, BigDecimal amount, String reason) {
+        append(new PaymentEvent(UUID.randomUUID(), PaymentEvent.PAYMENT_FAILED, null, rentalId, payerUserId, payeeUserId,
+                amount, reason, LocalDateTime.now()), rentalId);
+    }
+
+    private void append(PaymentEvent event, UUID aggregateId) {
+        PaymentOutboxEvent row = new PaymentOutboxEvent();
+        row.setEventId(event.eventId());
+        row.setEventType(event.type());
+        row.setAggregateId(aggregateId);
+        row.setCreatedAt(event.occurredAt());
+        try {
+            row.setPayload(EVENT_MAPPER.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new PaymentProcessingException("Failed to serialize " + event.type() + " event.", e);
+        }
+        paymentOutboxRepository.save(row);
+    }
+}
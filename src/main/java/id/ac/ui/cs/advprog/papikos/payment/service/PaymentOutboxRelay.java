@@ -0,0 +1,224 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.config.PaymentRabbitMQConfig;
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes {@code payment_outbox} rows to {@code payment.topic}, routed by event type. A short transaction locks
+ * the oldest unclaimed events with {@code SKIP LOCKED} and claims them for {@code claim-timeout}; they are then sent
+ * through the shared {@link RabbitTemplate} and their confirms awaited without holding a transaction or a database
+ * connection. A second short transaction deletes the confirmed events and releases the rest for the next poll; a
+ * claim left by a relay that died runs out on its own. Delivery is at least once, so the message id is the event id.
+ * Publishes {@code payment.outbox.published} and {@code payment.outbox.publish.failed} counters, the
+ * {@code payment.outbox.delivery} timer (commit to confirm) and the {@code payment.outbox.lag} gauge (age of the
+ * oldest unpublished event).
+ */
+@Component
+@ConditionalOnProperty(name = "payment.outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class PaymentOutboxRelay {
+
+    public static final String PUBLISHED_METRIC = "payment.outbox.published";
+    public static final String FAILED_METRIC = "payment.outbox.publish.failed";
+    public static final String DELIVERY_METRIC = "payment.outbox.delivery";
+    public static final String LAG_METRIC = "payment.outbox.lag";
+
+    private final PaymentOutboxRepository paymentOutboxRepository;
+    private final RabbitTemplate rabbitTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Duration confirmTimeout;
+    private final Duration claimTimeout;
+    private final Counter published;
+    private final Counter failed;
+    private final Timer delivery;
+    private final AtomicLong lagMillis = new AtomicLong();
+
+    public PaymentOutboxRelay(PaymentOutboxRepository paymentOutboxRepository,
+                              RabbitTemplate rabbitTemplate,
+                              TransactionTemplate transactionTemplate,
+                              MeterRegistry meterRegistry,
+                              @Value("${payment.outbox.relay.batch-size:200}") int batchSize,
+                              @Value("${payment.outbox.relay.confirm-timeout:PT5S}") Duration confirmTimeout,
+                              @Value("${payment.outbox.relay.claim-timeout:PT1M}") Duration claimTimeout) {
+        if (!rabbitTemplate.getConnectionFactory().isPublisherConfirms()) {
+            throw new IllegalStateException("The payment outbox relay needs spring.rabbitmq.publisher-confirm-type=correlated");
+        }
+        if (claimTimeout.compareTo(confirmTimeout) <= 0) {
+            throw new IllegalStateException("payment.outbox.relay.claim-timeout must be longer than the confirm-timeout");
+        }
+        this.paymentOutboxRepository = paymentOutboxRepository;
+        this.rabbitTemplate = rabbitTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.confirmTimeout = confirmTimeout;
+        this.claimTimeout = claimTimeout;
+        this.published = Counter.builder(PUBLISHED_METRIC)
+                .description("Outbox events confirmed by the broker")
+                .register(meterRegistry);
+        this.failed = Counter.builder(FAILED_METRIC)
+                .description("Outbox events that were nacked, not confirmed in time or could not be sent")
+                .register(meterRegistry);
+        this.delivery = Timer.builder(DELIVERY_METRIC)
+                .description("Time from recording an outbox event to its broker confirm")
+                .register(meterRegistry);
+        Gauge.builder(LAG_METRIC, lagMillis, millis -> millis.get() / 1000.0)
+                .description("Age of the oldest unpublished outbox event")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.relay.poll-interval:PT1S}")
+    public void scheduledRelay() {
+        try {
+            relayAll();
+        } catch (AmqpException | DataAccessException e) {
+            log.warn("Payment outbox relay stopped: {}", e.getMessage());
+        } finally {
+            updateLag();
+        }
+    }
+
+    /** Publishes batches until the outbox is empty or a batch is not fully confirmed; returns the events published. */
+    public long relayAll() {
+        long total = 0;
+        int relayed;
+        do {
+            relayed = relayBatch();
+            total += relayed;
+        } while (relayed == batchSize);
+        return total;
+    }
+
+    /** Publishes one batch of the oldest events and returns how many were confirmed and removed. */
+    public int relayBatch() {
+        List<PaymentOutboxEvent> batch = transactionTemplate.execute(status -> claimOldest());
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+        List<CorrelationData> confirms = new ArrayList<>(batch.size());
+        try {
+            for (PaymentOutboxEvent event : batch) {
+                CorrelationData correlation = new CorrelationData(event.getEventId().toString());
+                rabbitTemplate.send(PaymentRabbitMQConfig.PAYMENT_EVENTS_EXCHANGE_NAME, event.getEventType(),
+                        toMessage(event), correlation);
+                confirms.add(correlation);
+            }
+        } catch (AmqpException e) {
+            failed.increment(batch.size());
+            // Events already sent may still be confirmed; they are published again, which consumers tolerate
+            finish(batch, List.of());
+            throw e;
+        }
+        List<PaymentOutboxEvent> acked = awaitConfirms(batch, confirms);
+        finish(batch, acked);
+        return acked.size();
+    }
+
+    private List<PaymentOutboxEvent> claimOldest() {
+        LocalDateTime now = LocalDateTime.now();
+        List<PaymentOutboxEvent> batch = paymentOutboxRepository.lockOldestUnclaimed(now, Limit.of(batchSize));
+        if (!batch.isEmpty()) {
+            paymentOutboxRepository.claim(ids(batch), now.plus(claimTimeout));
+        }
+        return batch;
+    }
+
+    // Deletes the confirmed events and hands the others back to the next poll
+    private void finish(List<PaymentOutboxEvent> batch, List<PaymentOutboxEvent> acked) {
+        List<PaymentOutboxEvent> unacked = batch.stream().filter(event -> !acked.contains(event)).toList();
+        transactionTemplate.execute(status -> {
+            if (!acked.isEmpty()) {
+                paymentOutboxRepository.deleteAllByIdInBatch(ids(acked));
+            }
+            if (!unacked.isEmpty()) {
+                paymentOutboxRepository.releaseClaims(ids(unacked));
+            }
+            return null;
+        });
+    }
+
+    private static List<Long> ids(List<PaymentOutboxEvent> events) {
+        return events.stream().map(PaymentOutboxEvent::getId).toList();
+    }
+
+    // Confirms of one batch arrive in parallel, so the whole batch shares a single timeout
+    private List<PaymentOutboxEvent> awaitConfirms(List<PaymentOutboxEvent> batch, List<CorrelationData> confirms) {
+        List<PaymentOutboxEvent> acked = new ArrayList<>(batch.size());
+        long deadline = System.nanoTime() + confirmTimeout.toNanos();
+        for (int i = 0; i < batch.size(); i++) {
+            PaymentOutboxEvent event = batch.get(i);
+            try {
+                CorrelationData.Confirm confirm = confirms.get(i).getFuture()
+                        .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (confirm.isAck()) {
+                    acked.add(event);
+                    published.increment();
+                    delivery.record(Duration.between(event.getCreatedAt(), LocalDateTime.now()));
+                } else {
+                    log.warn("Broker nacked outbox event {} ({}): {}", event.getEventId(), event.getEventType(), confirm.getReason());
+                    failed.increment();
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                log.warn("No confirm for outbox event {} ({}) within {}", event.getEventId(), event.getEventType(), confirmTimeout);
+                failed.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.increment(batch.size() - i);
+                break;
+            }
+        }
+        return acked;
+    }
+
+    private static Message toMessage(PaymentOutboxEvent event) {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setMessageId(event.getEventId().toString());
+        properties.setType(event.getEventType());
+        properties.setTimestamp(Date.from(event.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant()));
+        properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        return new Message(event.getPayload().getBytes(StandardCharsets.UTF_8), properties);
+    }
+
+    private void updateLag() {
+        try {
+            LocalDateTime oldest = transactionTemplate.execute(status -> paymentOutboxRepository.findOldestCreatedAt());
+            lagMillis.set(oldest != null ? Math.max(0, Duration.between(oldest, LocalDateTime.now()).toMillis()) : 0);
+        } catch (DataAccessException e) {
+            log.debug("Could not read payment outbox lag: {}", e.getMessage());
+        }
+    }
+}
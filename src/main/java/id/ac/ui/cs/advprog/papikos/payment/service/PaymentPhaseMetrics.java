@@ -0,0 +1,170 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Times the phases of top-ups, payments and rental charges, so a slow request shows where it spent its time without
+ * SQL logging. {@link #record} runs one operation on the calling thread; {@link #time} and the commit phase add to
+ * that operation's phases and do nothing outside one (e.g. in batch charges).
+ * <p>
+ * Phases: {@code rental.fetch} (rental lookup, cache or remote), {@code balance.update} (the conditional balance
+ * UPDATEs, including waiting for the balance row locks), {@code transaction.insert} (saving the transaction rows and
+ * their monthly summaries) and {@code commit} (flushing anything left and committing).
+ * Publishes the {@code payment.operation} timer and {@code payment.amount} summary tagged by {@code operation} and
+ * {@code outcome}, and the {@code payment.phase} timer additionally tagged by {@code phase}. The outcome is that of
+ * the whole operation: {@code success}, {@code insufficient_balance}, {@code invalid_operation} (also unknown
+ * rentals and idempotency key conflicts) or {@code error}.
+ */
+@Component
+public class PaymentPhaseMetrics {
+
+    public static final String OPERATION_METRIC = "payment.operation";
+    public static final String PHASE_METRIC = "payment.phase";
+    public static final String AMOUNT_METRIC = "payment.amount";
+
+    public enum Operation {
+        TOPUP("topup"), PAY("pay"), CHARGE("charge");
+
+        private final String tag;
+
+        Operation(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Phase {
+        RENTAL_FETCH("rental.fetch"), BALANCE_UPDATE("balance.update"), TRANSACTION_INSERT("transaction.insert"), COMMIT("commit");
+
+        private final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    // Phase times of the operation running on this thread
+    private static final class Sample {
+        private final long[] nanos = new long[Phase.values().length];
+        private final boolean[] ran = new boolean[Phase.values().length];
+        private long commitStartedAt;
+
+        void add(Phase phase, long elapsed) {
+            nanos[phase.ordinal()] += elapsed;
+            ran[phase.ordinal()] = true;
+        }
+    }
+
+    private final ThreadLocal<Sample> current = new ThreadLocal<>();
+    private final MeterRegistry meterRegistry;
+
+    public PaymentPhaseMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** Runs an operation and records its phases, total time and amount under its outcome. */
+    public <T> T record(Operation operation, BigDecimal amount, Supplier<T> work) {
+        Sample outer = current.get();
+        Sample sample = new Sample();
+        current.set(sample);
+        long startedAt = System.nanoTime();
+        String outcome = "success";
+        try {
+            return work.get();
+        } catch (RuntimeException e) {
+            outcome = outcomeOf(e);
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - startedAt;
+            if (outer != null) {
+                current.set(outer);
+            } else {
+                current.remove();
+            }
+            publish(operation, outcome, amount, elapsed, sample);
+        }
+    }
+
+    /** Runs one step of the current operation as (part of) a phase. */
+    public <T> T time(Phase phase, Supplier<T> step) {
+        Sample sample = current.get();
+        if (sample == null) {
+            return step.get();
+        }
+        long startedAt = System.nanoTime();
+        try {
+            return step.get();
+        } finally {
+            sample.add(phase, System.nanoTime() - startedAt);
+        }
+    }
+
+    public void time(Phase phase, Runnable step) {
+        time(phase, () -> {
+            step.run();
+            return null;
+        });
+    }
+
+    /** Marks the end of the work in the transaction; the time until {@link #committed()} is the commit phase. */
+    public void committing() {
+        Sample sample = current.get();
+        if (sample != null) {
+            sample.commitStartedAt = System.nanoTime();
+        }
+    }
+
+    /** Ends the commit phase, if {@link #committing()} started it. Call after the transaction ends either way. */
+    public void committed() {
+        Sample sample = current.get();
+        if (sample != null && sample.commitStartedAt != 0) {
+            sample.add(Phase.COMMIT, System.nanoTime() - sample.commitStartedAt);
+            sample.commitStartedAt = 0;
+        }
+    }
+
+    static String outcomeOf(RuntimeException e) {
+        if (e instanceof InsufficientBalanceException) {
+            return "insufficient_balance";
+        }
+        if (e instanceof InvalidOperationException || e instanceof ResourceNotFoundException
+                || e instanceof IdempotencyKeyConflictException) {
+            return "invalid_operation";
+        }
+        return "error";
+    }
+
+    private void publish(Operation operation, String outcome, BigDecimal amount, long elapsed, Sample sample) {
+        Timer.builder(OPERATION_METRIC)
+                .description("Time of a top-up, payment or rental charge")
+                .tags("operation", operation.tag, "outcome", outcome)
+                .register(meterRegistry)
+                .record(elapsed, TimeUnit.NANOSECONDS);
+        for (Phase phase : Phase.values()) {
+            if (sample.ran[phase.ordinal()]) {
+                Timer.builder(PHASE_METRIC)
+                        .description("Time a top-up, payment or rental charge spent in one phase")
+                        .tags("operation", operation.tag, "phase", phase.tag, "outcome", outcome)
+                        .register(meterRegistry)
+                        .record(sample.nanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+            }
+        }
+        if (amount != null) {
+            DistributionSummary.builder(AMOUNT_METRIC)
+                    .description("Amount of a top-up, payment or rental charge")
+                    .tags("operation", operation.tag, "outcome", outcome)
+                    .register(meterRegistry)
+                    .record(amount.doubleValue());
+        }
+    }
+}
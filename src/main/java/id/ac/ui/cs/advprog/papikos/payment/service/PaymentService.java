@@ -1,14 +1,24 @@
 package id.ac.ui.cs.advprog.papikos.payment.service;
 
 import id.ac.ui.cs.advprog.papikos.payment.dto.BalanceDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.CursorPage;
 import id.ac.ui.cs.advprog.papikos.payment.dto.PaymentRequest;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
 import id.ac.ui.cs.advprog.papikos.payment.dto.TopUpRequest;
 import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionExportFormat;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionSummaryDto;
 import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
 import java.util.UUID; // Use UUID for IDs
 
 public interface PaymentService {
@@ -17,7 +27,57 @@ public interface PaymentService {
 
     TransactionDto topUp(UUID userId, TopUpRequest request);
 
+    /**
+     * Top-up applied at most once per {@code idempotencyKey} of the user: a retry with the same key returns the
+     * transaction of the first request without touching balances. Reusing a key for a different amount throws
+     * {@link id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException}. A {@code null} key
+     * behaves like {@link #topUp(UUID, TopUpRequest)}.
+     */
+    TransactionDto topUp(UUID userId, TopUpRequest request, String idempotencyKey);
+
     TransactionDto payForRental(UUID tenantUserId, PaymentRequest request);
 
+    /** Payment applied at most once per {@code idempotencyKey}, as for {@link #topUp(UUID, TopUpRequest, String)}. */
+    TransactionDto payForRental(UUID tenantUserId, PaymentRequest request, String idempotencyKey);
+
+    /**
+     * Charges the tenant for a rental announced by a {@code rental.created} event. The event carries the owner and
+     * price, so unlike {@link #payForRental} nothing is fetched from the rental service. Applied at most once per
+     * rental (idempotency key {@code rental:<rentalId>}). If the tenant's balance is insufficient, a
+     * {@code payment.failed} event is recorded and
+     * {@link id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException} is thrown.
+     */
+    TransactionDto chargeForRental(UUID rentalId, UUID tenantUserId, UUID ownerUserId, BigDecimal amount);
+
+    /**
+     * Applies {@link #chargeForRental} to every charge in one database transaction. The transaction rows are
+     * written in JDBC batches. Each charge succeeds or fails on its own; a failure is returned in its
+     * {@link RentalChargeResult} instead of being thrown. Results are in the order of {@code charges}. If the
+     * transaction fails as a whole (e.g. the database is unavailable), the exception is thrown and nothing is
+     * charged.
+     */
+    List<RentalChargeResult> chargeForRentals(List<RentalCharge> charges);
+
     Page<TransactionDto> getTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionType type, Pageable pageable);
+
+    /**
+     * Keyset-paginated variant of {@link #getTransactionHistory}: newest first, ordered by creation time then id.
+     * {@code cursor} is the {@code nextCursor} of the previous page, or {@code null} for the first page.
+     */
+    CursorPage<TransactionDto> getTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionType type, String cursor, int size);
+
+    /**
+     * Writes every transaction between {@code startDate} and {@code endDate} (inclusive), oldest first, to
+     * {@code out} as it is read from the database or, for archived months, from the transaction archive.
+     * Returns the number of rows written; {@code out} is flushed, not closed.
+     */
+    long exportTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionExportFormat format,
+                                  OutputStream out) throws IOException;
+
+    /**
+     * Totals and counts per month and type from {@code fromMonth} to {@code toMonth} (inclusive), newest month first.
+     * Reads the maintained summaries, so the cost depends on the number of months, not of transactions.
+     * {@code toMonth} defaults to the current month and {@code fromMonth} to eleven months before it.
+     */
+    List<TransactionSummaryDto> getTransactionSummary(UUID userId, YearMonth fromMonth, YearMonth toMonth);
 }
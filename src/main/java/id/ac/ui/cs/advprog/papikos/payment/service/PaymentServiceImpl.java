@@ -1,113 +1,170 @@
 package id.ac.ui.cs.advprog.papikos.payment.service;
 
-// RentalServiceClient might still be needed if rental details are not in the token
-import id.ac.ui.cs.advprog.papikos.payment.client.RentalServiceClient;
+import id.ac.ui.cs.advprog.papikos.payment.client.RentalDetailsCache;
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
 import id.ac.ui.cs.advprog.papikos.payment.dto.*;
 import id.ac.ui.cs.advprog.papikos.payment.entity.*;
 import id.ac.ui.cs.advprog.papikos.payment.exception.*;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
 import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionSpecifications;
 import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentPhaseMetrics.Operation;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentPhaseMetrics.Phase;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-// Optional is still needed
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PaymentServiceImpl implements PaymentService {
 
+    static final int MAX_CURSOR_PAGE_SIZE = 100;
+    static final int DEFAULT_SUMMARY_MONTHS = 12;
+
     private final UserBalanceRepository userBalanceRepository;
     private final TransactionRepository transactionRepository;
     // private final AuthServiceClient authServiceClient; // No longer needed
-    private final RentalServiceClient rentalServiceClient; // Keep if used
+    private final RentalDetailsCache rentalDetailsCache; // Read-through cache in front of RentalServiceClient
+    private final TransactionTemplate transactionTemplate;
+    private final ReplicaLagGuard replicaLagGuard; // Keeps reads on the primary right after a user's own writes
+    private final TransactionMonthlySummaryRepository transactionSummaryRepository;
+    private final TransactionArchive transactionArchive; // Months moved out of the database by TransactionArchivalJob
+    private final IdempotencyKeyStore idempotencyKeyStore;
+    private final PaymentOutbox paymentOutbox; // Events published by PaymentOutboxRelay once the transfer commits
+    private final PaymentPhaseMetrics paymentPhaseMetrics; // Per-phase timers of top-ups, payments and charges
 
     @Override
-    @Transactional // Ensure this is read-write for the save operation
+    @Transactional(readOnly = true)
     public BalanceDto getUserBalance(UUID userId) {
         log.info("Fetching balance for userId: {}", userId);
-        // Since the user is guaranteed to exist by the validated token,
-        // if their balance record is not found, we create it.
-        UserBalance userBalance = userBalanceRepository.findByUserId(userId)
+        replicaLagGuard.routeReadsFor(userId);
+        // Read-only: balance rows are only created by the first credit (top-up or incoming payment),
+        // so a user without one has simply never been credited and has a zero balance.
+        return userBalanceRepository.findByUserId(userId)
+                .map(this::mapToBalanceDto)
                 .orElseGet(() -> {
-                    log.warn("Balance record not found for userId: {}. Creating initial zero balance as user is authenticated.", userId);
-                    UserBalance newBalance = new UserBalance(userId, BigDecimal.ZERO);
-                    return userBalanceRepository.save(newBalance);
+                    log.debug("No balance record for userId: {}. Reporting zero balance.", userId);
+                    return new BalanceDto(userId, BigDecimal.ZERO, null);
                 });
-        return mapToBalanceDto(userBalance);
     }
 
     @Override
-    @Transactional
     public TransactionDto topUp(UUID userId, TopUpRequest request) {
+        return topUp(userId, request, null);
+    }
+
+    // Not @Transactional: a retry answered from the idempotency cache must not open a transaction.
+    // The credit itself runs in a (short) transaction through executeOnce.
+    @Override
+    public TransactionDto topUp(UUID userId, TopUpRequest request, String idempotencyKey) {
+        return paymentPhaseMetrics.record(Operation.TOPUP, request.amount(), () -> processTopUp(userId, request, idempotencyKey));
+    }
+
+    private TransactionDto processTopUp(UUID userId, TopUpRequest request, String idempotencyKey) {
         log.info("Initiating top-up for userId: {} with amount: {}", userId, request.amount());
 
         if (request.amount() == null || request.amount().compareTo(BigDecimal.ZERO) <= 0) {
             log.warn("Invalid top-up amount received: {}", request.amount());
             throw new InvalidOperationException("Top-up amount must be positive.");
         }
+        IdempotencyKeyStore.validate(idempotencyKey);
+        String fingerprint = TransactionType.TOPUP + ":" + request.amount().stripTrailingZeros().toPlainString();
+        Optional<TransactionDto> previous = findCompleted(userId, idempotencyKey, fingerprint);
+        if (previous.isPresent()) {
+            return previous.get();
+        }
 
-        // Find the user's balance record. If it doesn't exist, create it,
-        // as the user is guaranteed to exist (authenticated via token).
-        // Then lock the record for the update.
-        UserBalance userBalance = userBalanceRepository.findByUserIdWithLock(userId)
-                .orElseGet(() -> {
-                    log.warn("Balance record not found for userId: {} during top-up. Creating initial zero balance as user is authenticated.", userId);
-                    UserBalance newBalance = new UserBalance(userId, BigDecimal.ZERO);
-                    // Save the new balance first
-                    userBalanceRepository.save(newBalance);
-                    // Then re-fetch with a lock to ensure consistency for the subsequent update.
-                    // This ensures that even if created in this transaction, the lock is properly acquired.
-                    return userBalanceRepository.findByUserIdWithLock(userId)
-                            .orElseThrow(() -> {
-                                // This should ideally not happen if save was successful
-                                log.error("CRITICAL: Failed to find or lock newly created balance for userId {} during top-up.", userId);
-                                return new PaymentProcessingException("Failed to establish and lock balance for user ID: " + userId);
-                            });
-                });
-
-        log.debug("Successfully obtained and locked balance for userId: {}", userBalance.getUserId());
+        Transaction savedTransaction = executeOnce(userId, idempotencyKey, fingerprint, () -> creditTopUp(userId, request.amount()));
+        replicaLagGuard.recordWrite(userId);
+        return remember(userId, idempotencyKey, fingerprint, mapToTransactionDto(savedTransaction));
+    }
 
-        BigDecimal oldBalance = userBalance.getBalance();
-        userBalance.setBalance(oldBalance.add(request.amount()));
-        userBalanceRepository.save(userBalance);
-        log.info("Updated balance for userId: {}. Old: {}, New: {}", userBalance.getUserId(), oldBalance, userBalance.getBalance());
+    private Transaction creditTopUp(UUID userId, BigDecimal amount) {
+        // A single conditional UPDATE instead of lock, load, modify and save.
+        if (!creditBalance(userId, amount)) {
+            log.error("CRITICAL: Failed to credit balance for userId {} during top-up.", userId);
+            throw new PaymentProcessingException("Failed to establish balance for user ID: " + userId);
+        }
+        log.info("Credited {} to balance of userId: {}", amount, userId);
 
         Transaction transaction = new Transaction();
         transaction.setUserId(userId);
-        transaction.setAmount(request.amount());
+        transaction.setAmount(amount);
         transaction.setTransactionType(TransactionType.TOPUP);
         transaction.setStatus(TransactionStatus.COMPLETED);
         transaction.setNotes("Internal top-up completed automatically.");
 
-        Transaction savedTransaction = transactionRepository.save(transaction);
+        Transaction savedTransaction = saveTransaction(transaction);
         log.info("Saved COMPLETED internal top-up transactionId: {}", savedTransaction.getTransactionId());
-
-        return mapToTransactionDto(savedTransaction);
+        return savedTransaction;
     }
 
     @Override
-    @Transactional
     public TransactionDto payForRental(UUID tenantUserId, PaymentRequest request) {
+        return payForRental(tenantUserId, request, null);
+    }
+
+    // Not @Transactional: the rental lookup below is a remote call and must not hold a JDBC connection.
+    // Only the balance transfer runs inside a (short) transaction.
+    @Override
+    public TransactionDto payForRental(UUID tenantUserId, PaymentRequest request, String idempotencyKey) {
+        return paymentPhaseMetrics.record(Operation.PAY, request.amount(), () -> processPayment(tenantUserId, request, idempotencyKey));
+    }
+
+    private TransactionDto processPayment(UUID tenantUserId, PaymentRequest request, String idempotencyKey) {
         log.info("Processing payment for rentalId: {} by tenantId: {} for amount: {}",
                 request.rentalId(), tenantUserId, request.amount());
 
+        if (request.amount() == null || request.amount().signum() <= 0) {
+            log.warn("Invalid payment amount received: {}", request.amount());
+            throw new InvalidOperationException("Payment amount must be positive.");
+        }
+        // A retry of a completed payment is answered before the rental lookup and the transfer
+        IdempotencyKeyStore.validate(idempotencyKey);
+        String fingerprint = TransactionType.PAYMENT + ":" + request.rentalId() + ":"
+                + request.amount().stripTrailingZeros().toPlainString();
+        Optional<TransactionDto> previous = findCompleted(tenantUserId, idempotencyKey, fingerprint);
+        if (previous.isPresent()) {
+            return previous.get();
+        }
+
         // User existence for tenantUserId is guaranteed by the token.
         // Existence of ownerUserId will be implicitly checked when we try to get their balance.
 
         RentalDetailsDto rental;
         try {
             log.debug("Fetching rental details for rentalId: {}", request.rentalId());
-            rental = rentalServiceClient.getRentalDetailsForPayment(String.valueOf(request.rentalId())).getData();
+            rental = paymentPhaseMetrics.time(Phase.RENTAL_FETCH, () -> rentalDetailsCache.getRentalDetails(request.rentalId()));
             if (rental == null) {
                 throw new PaymentProcessingException("Received null rental details for rentalId: " + request.rentalId());
             }
@@ -136,9 +193,10 @@ public class PaymentServiceImpl implements PaymentService {
         Transaction tenantPaymentTransaction;
         try {
             // performInternalTransfer will handle creating balance for owner if needed.
-            tenantPaymentTransaction = performInternalTransfer(tenantUserId, ownerUserId, paymentAmount, request.rentalId());
+            tenantPaymentTransaction = executeOnce(tenantUserId, idempotencyKey, fingerprint, () ->
+                    performInternalTransfer(tenantUserId, ownerUserId, paymentAmount, request.rentalId()));
             log.info("Internal transfer completed for rental {}. Tenant Tx ID: {}", request.rentalId(), tenantPaymentTransaction.getTransactionId());
-        } catch (InsufficientBalanceException | ResourceNotFoundException e) {
+        } catch (InsufficientBalanceException | ResourceNotFoundException | IdempotencyKeyConflictException e) {
             log.warn("Payment failed during internal transfer: {}", e.getMessage());
             throw e;
         } catch (Exception e) {
@@ -146,7 +204,256 @@ public class PaymentServiceImpl implements PaymentService {
             throw new PaymentProcessingException("Payment failed due to an internal error during balance transfer.", e);
         }
 
-        return mapToTransactionDto(tenantPaymentTransaction);
+        return remember(tenantUserId, idempotencyKey, fingerprint, mapToTransactionDto(tenantPaymentTransaction));
+    }
+
+    // Event-driven, so no remote lookup and no open transaction while the idempotency cache is checked
+    @Override
+    public TransactionDto chargeForRental(UUID rentalId, UUID tenantUserId, UUID ownerUserId, BigDecimal amount) {
+        return paymentPhaseMetrics.record(Operation.CHARGE, amount, () -> processRentalCharge(rentalId, tenantUserId, ownerUserId, amount));
+    }
+
+    private TransactionDto processRentalCharge(UUID rentalId, UUID tenantUserId, UUID ownerUserId, BigDecimal amount) {
+        log.info("Charging tenantId: {} for rentalId: {} amount: {} (owner: {})", tenantUserId, rentalId, amount, ownerUserId);
+        RentalCharge charge = new RentalCharge(rentalId, tenantUserId, ownerUserId, amount);
+        validateRentalCharge(charge);
+
+        String idempotencyKey = rentalChargeKey(charge);
+        String fingerprint = rentalChargeFingerprint(charge);
+        Optional<TransactionDto> previous = findCompleted(tenantUserId, idempotencyKey, fingerprint);
+        if (previous.isPresent()) {
+            return previous.get();
+        }
+
+        Transaction tenantPaymentTransaction;
+        try {
+            tenantPaymentTransaction = executeOnce(tenantUserId, idempotencyKey, fingerprint, () ->
+                    performInternalTransfer(tenantUserId, ownerUserId, amount, rentalId));
+        } catch (InsufficientBalanceException e) {
+            // The transfer rolled back; the failure is recorded on its own so the rental service still hears of it
+            log.warn("Charge for rental {} failed: {}", rentalId, e.getMessage());
+            transactionTemplate.execute(status -> {
+                paymentOutbox.paymentFailed(rentalId, tenantUserId, ownerUserId, amount, e.getMessage());
+                return null;
+            });
+            throw e;
+        }
+        log.info("Charged rental {}. Tenant Tx ID: {}", rentalId, tenantPaymentTransaction.getTransactionId());
+        return remember(tenantUserId, idempotencyKey, fingerprint, mapToTransactionDto(tenantPaymentTransaction));
+    }
+
+    // One transaction for the whole batch. Claims and debits run charge by charge; a charge that fails there has
+    // kept nothing (a declined one gives its key back), so it fails alone. Owners are then credited once each, and
+    // the transactions, outbox events, key completions and summaries of the charged rentals are written grouped.
+    @Override
+    public List<RentalChargeResult> chargeForRentals(List<RentalCharge> charges) {
+        log.info("Charging a batch of {} rentals", charges.size());
+        RentalChargeResult[] results = new RentalChargeResult[charges.size()];
+        // A rental delivered twice in one batch is charged once; the copies share the first one's result
+        Map<UUID, Integer> firstOfRental = new HashMap<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < charges.size(); i++) {
+            RentalCharge charge = charges.get(i);
+            try {
+                validateRentalCharge(charge);
+                if (firstOfRental.putIfAbsent(charge.rentalId(), i) != null) {
+                    continue;
+                }
+                Optional<TransactionDto> previous = findCompleted(charge.tenantUserId(), rentalChargeKey(charge),
+                        rentalChargeFingerprint(charge));
+                if (previous.isPresent()) {
+                    results[i] = RentalChargeResult.charged(previous.get());
+                } else {
+                    pending.add(i);
+                }
+            } catch (InvalidOperationException | IdempotencyKeyConflictException e) {
+                results[i] = RentalChargeResult.failed(e);
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            Map<Integer, Transaction> charged = transactionTemplate.execute(status -> chargeInBatch(charges, pending, results));
+            charged.forEach((i, payerTransaction) -> {
+                RentalCharge charge = charges.get(i);
+                results[i] = RentalChargeResult.charged(remember(charge.tenantUserId(), rentalChargeKey(charge),
+                        rentalChargeFingerprint(charge), mapToTransactionDto(payerTransaction)));
+            });
+        }
+
+        for (int i = 0; i < charges.size(); i++) {
+            if (results[i] == null) {
+                results[i] = results[firstOfRental.get(charges.get(i).rentalId())];
+            }
+        }
+        log.info("Charged {} of {} rentals in the batch", Arrays.stream(results).filter(RentalChargeResult::isCharged).count(), charges.size());
+        return Arrays.asList(results);
+    }
+
+    // Returns the payer transactions of the charges made by this transaction, by index; fills in results of the others.
+    // Only failures raised by this class are handled per charge: a database error fails the whole batch.
+    private Map<Integer, Transaction> chargeInBatch(List<RentalCharge> charges, List<Integer> pending, RentalChargeResult[] results) {
+        List<Integer> byTenant = pending.stream()
+                .sorted(Comparator.comparing(i -> charges.get(i).tenantUserId(), UserBalanceRepository.LOCK_ORDER))
+                .toList();
+        List<Integer> claimed = new ArrayList<>();
+        for (int i : byTenant) {
+            RentalCharge charge = charges.get(i);
+            try {
+                Optional<Transaction> previous = idempotencyKeyStore.claim(charge.tenantUserId(), rentalChargeKey(charge),
+                        rentalChargeFingerprint(charge));
+                if (previous.isPresent()) {
+                    results[i] = RentalChargeResult.charged(mapToTransactionDto(previous.get()));
+                } else {
+                    claimed.add(i);
+                }
+            } catch (IdempotencyKeyConflictException | PaymentProcessingException e) {
+                log.warn("Charge for rental {} failed: {}", charge.rentalId(), e.getMessage());
+                results[i] = RentalChargeResult.failed(e);
+            }
+        }
+
+        List<Integer> declined = applyChargeBalances(charges, claimed, results);
+        List<Integer> debited = claimed.stream().filter(i -> !declined.contains(i)).toList();
+        List<UUID> creditedOwners = debited.stream().map(i -> charges.get(i).ownerUserId()).distinct().toList();
+        debited.forEach(i -> replicaLagGuard.recordWrite(charges.get(i).tenantUserId()));
+        creditedOwners.forEach(replicaLagGuard::recordWrite);
+
+        // Both legs of every charge, inserted in JDBC batches on flush
+        List<Transaction> rows = new ArrayList<>(debited.size() * 2);
+        for (int i : debited) {
+            RentalCharge charge = charges.get(i);
+            rows.add(createPaymentTransactionRecord(charge.tenantUserId(), charge.amount(), TransactionStatus.COMPLETED,
+                    charge.rentalId(), charge.tenantUserId(), charge.ownerUserId(), "Payment sent for rental " + charge.rentalId()));
+            rows.add(createPaymentTransactionRecord(charge.ownerUserId(), charge.amount(), TransactionStatus.COMPLETED,
+                    charge.rentalId(), charge.tenantUserId(), charge.ownerUserId(), "Payment received for rental " + charge.rentalId()));
+        }
+        List<Transaction> saved = transactionRepository.saveAll(rows);
+        transactionRepository.flush();
+        addToMonthlySummaries(saved);
+
+        Map<Integer, Transaction> charged = new LinkedHashMap<>();
+        for (int k = 0; k < debited.size(); k++) {
+            int i = debited.get(k);
+            Transaction payerTransaction = saved.get(2 * k);
+            idempotencyKeyStore.complete(charges.get(i).tenantUserId(), rentalChargeKey(charges.get(i)), payerTransaction);
+            paymentOutbox.paymentSucceeded(payerTransaction);
+            charged.put(i, payerTransaction);
+        }
+        for (int i : declined) {
+            RentalCharge charge = charges.get(i);
+            paymentOutbox.paymentFailed(charge.rentalId(), charge.tenantUserId(), charge.ownerUserId(), charge.amount(),
+                    results[i].failure().getMessage());
+        }
+        log.info("Batch charged {} rentals, {} declined, credited {} owners", debited.size(), declined.size(), creditedOwners.size());
+        return charged;
+    }
+
+    // Visits every tenant and owner of the batch once, in UserBalanceRepository.LOCK_ORDER as performInternalTransfer
+    // does for its two users, so a batch never takes its row locks in an order opposite to another batch or transfer.
+    // A user's own debits run before the credits they receive. An owner visited before a tenant whose debit is then
+    // declined has that amount taken back on the row it already holds. Returns the declined charges.
+    private List<Integer> applyChargeBalances(List<RentalCharge> charges, List<Integer> claimed, RentalChargeResult[] results) {
+        Map<UUID, List<Integer>> chargesByUser = new TreeMap<>(UserBalanceRepository.LOCK_ORDER);
+        for (int i : claimed) {
+            chargesByUser.computeIfAbsent(charges.get(i).tenantUserId(), userId -> new ArrayList<>()).add(i);
+            chargesByUser.computeIfAbsent(charges.get(i).ownerUserId(), userId -> new ArrayList<>()).add(i);
+        }
+        List<Integer> declined = new ArrayList<>();
+        Map<Integer, UUID> creditedOwners = new HashMap<>();
+        chargesByUser.forEach((userId, userCharges) -> {
+            for (int i : userCharges) {
+                RentalCharge charge = charges.get(i);
+                if (!charge.tenantUserId().equals(userId)) {
+                    continue;
+                }
+                try {
+                    debitPayer(userId, charge.amount());
+                } catch (InsufficientBalanceException e) {
+                    log.warn("Charge for rental {} failed: {}", charge.rentalId(), e.getMessage());
+                    idempotencyKeyStore.release(userId, rentalChargeKey(charge));
+                    results[i] = RentalChargeResult.failed(e);
+                    declined.add(i);
+                    UUID owner = creditedOwners.remove(i);
+                    if (owner != null) {
+                        takeBackCredit(owner, charge.amount());
+                    }
+                }
+            }
+            BigDecimal credit = BigDecimal.ZERO;
+            for (int i : userCharges) {
+                if (charges.get(i).ownerUserId().equals(userId) && !declined.contains(i)) {
+                    credit = credit.add(charges.get(i).amount());
+                    creditedOwners.put(i, userId);
+                }
+            }
+            if (credit.signum() > 0) {
+                creditPayee(userId, credit);
+            }
+        });
+        return declined;
+    }
+
+    // The owner's row is already locked by this transaction and holds at least the credited amount
+    private void takeBackCredit(UUID ownerUserId, BigDecimal amount) {
+        if (userBalanceRepository.applyBalanceDelta(ownerUserId, amount.negate()) != 1) {
+            throw new PaymentProcessingException("Failed to take back a credit from owner ID: " + ownerUserId);
+        }
+    }
+
+    private static void validateRentalCharge(RentalCharge charge) {
+        if (charge.amount() == null || charge.amount().signum() <= 0) {
+            throw new InvalidOperationException("Rental price must be positive.");
+        }
+        if (Objects.equals(charge.tenantUserId(), charge.ownerUserId())) {
+            throw new InvalidOperationException("Tenant and owner of a rental must differ.");
+        }
+    }
+
+    private static String rentalChargeKey(RentalCharge charge) {
+        return IdempotencyKeyStore.RENTAL_CHARGE_KEY_PREFIX + charge.rentalId();
+    }
+
+    private static String rentalChargeFingerprint(RentalCharge charge) {
+        return TransactionType.PAYMENT + ":" + charge.rentalId() + ":" + charge.amount().stripTrailingZeros().toPlainString();
+    }
+
+    private Optional<TransactionDto> findCompleted(UUID userId, String idempotencyKey, String fingerprint) {
+        return idempotencyKey != null ? idempotencyKeyStore.findCompleted(userId, idempotencyKey, fingerprint) : Optional.empty();
+    }
+
+    // Runs work in a transaction at most once per Idempotency-Key: the key is claimed before any balance row is
+    // touched, so a concurrent retry waits on the key instead of the balance locks and then gets the first result.
+    private Transaction executeOnce(UUID userId, String idempotencyKey, String fingerprint, Supplier<Transaction> work) {
+        try {
+            return transactionTemplate.execute(status -> {
+                Transaction transaction = executeClaimed(userId, idempotencyKey, fingerprint, work);
+                paymentPhaseMetrics.committing();
+                return transaction;
+            });
+        } finally {
+            paymentPhaseMetrics.committed();
+        }
+    }
+
+    private Transaction executeClaimed(UUID userId, String idempotencyKey, String fingerprint, Supplier<Transaction> work) {
+        if (idempotencyKey == null) {
+            return work.get();
+        }
+        Optional<Transaction> previous = idempotencyKeyStore.claim(userId, idempotencyKey, fingerprint);
+        if (previous.isPresent()) {
+            return previous.get();
+        }
+        Transaction transaction = work.get();
+        idempotencyKeyStore.complete(userId, idempotencyKey, transaction);
+        return transaction;
+    }
+
+    // Called once the transaction has committed
+    private TransactionDto remember(UUID userId, String idempotencyKey, String fingerprint, TransactionDto transaction) {
+        if (idempotencyKey != null) {
+            idempotencyKeyStore.remember(userId, idempotencyKey, fingerprint, transaction);
+        }
+        return transaction;
     }
 
     @Override
@@ -154,6 +461,7 @@ public class PaymentServiceImpl implements PaymentService {
     public Page<TransactionDto> getTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionType type, Pageable pageable) {
         log.info("Fetching transaction history for userId: {} with filters - Start: {}, End: {}, Type: {}, Page: {}",
                 userId, startDate, endDate, type, pageable);
+        replicaLagGuard.routeReadsFor(userId);
         // User existence guaranteed by token, so no extra check needed.
         LocalDateTime startDateTime = (startDate != null) ? startDate.atStartOfDay() : null;
         LocalDateTime endDateTime = (endDate != null) ? endDate.plusDays(1).atStartOfDay() : null;
@@ -162,8 +470,13 @@ public class PaymentServiceImpl implements PaymentService {
         boolean hasFilters = startDateTime != null || endDateTime != null || type != null;
         if (hasFilters) {
             log.debug("Using filtered transaction query for userId: {}", userId);
-            transactionPage = transactionRepository.findUserTransactionsByFilter(
-                    userId, startDateTime, endDateTime, type, pageable);
+            // Only the supplied filters become predicates; results stay newest first, then any requested sort
+            Sort sort = Sort.by(Sort.Direction.DESC, "createdAt").and(pageable.getSort());
+            Pageable sortedPageable = pageable.isPaged()
+                    ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort)
+                    : Pageable.unpaged(sort);
+            transactionPage = transactionRepository.findAll(
+                    TransactionSpecifications.history(userId, startDateTime, endDateTime, type), sortedPageable);
         } else {
             log.debug("Using default transaction query (no filters) for userId: {}", userId);
             transactionPage = transactionRepository.findByUserIdOrderByCreatedAtDesc(userId, pageable);
@@ -172,67 +485,128 @@ public class PaymentServiceImpl implements PaymentService {
         return transactionPage.map(this::mapToTransactionDto);
     }
 
-    protected Transaction performInternalTransfer(UUID payerId, UUID payeeId, BigDecimal amount, UUID rentalId) {
-        log.debug("Performing internal transfer: Payer={}, Payee={}, Amount={}, RentalId={}", payerId, payeeId, amount, rentalId);
-
-        // Get or create payer's balance (user existence guaranteed by token if payerId is from token)
-        UserBalance payerBalance = userBalanceRepository.findByUserIdWithLock(payerId)
-                .orElseGet(() -> {
-                    log.warn("Payer balance record not found for ID: {}. Creating initial zero balance as user is authenticated.", payerId);
-                    UserBalance newBalance = new UserBalance(payerId, BigDecimal.ZERO);
-                    userBalanceRepository.save(newBalance);
-                    return userBalanceRepository.findByUserIdWithLock(payerId)
-                            .orElseThrow(() -> new PaymentProcessingException("Failed to establish and lock payer balance for ID: " + payerId));
-                });
-
-        // Get or create payee's balance.
-        // We assume payeeId is also a valid user in the system,
-        // though not necessarily the one authenticated for *this* request.
-        // If a payee might not exist yet in auth service, a check might be needed here,
-        // or rely on the fact that a rental implies a valid owner.
-        // For now, let's assume payee (owner) should have a balance created if not present.
-        UserBalance payeeBalance = userBalanceRepository.findByUserIdWithLock(payeeId)
-                .orElseGet(() -> {
-                    log.warn("Payee balance record not found for ID: {}. Creating initial zero balance.", payeeId);
-                    // Potentially, if payeeId is from an external system (like rental service),
-                    // you might want to verify its existence in Auth service before creating a balance.
-                    // For simplicity now, we create it.
-                    // if (!authServiceClient.userExists(payeeId)) { // If you wanted to check payee from auth service
-                    //    throw new ResourceNotFoundException("Payee user not found with ID: " + payeeId);
-                    // }
-                    UserBalance newBalance = new UserBalance(payeeId, BigDecimal.ZERO);
-                    userBalanceRepository.save(newBalance);
-                    return userBalanceRepository.findByUserIdWithLock(payeeId)
-                            .orElseThrow(() -> new PaymentProcessingException("Failed to establish and lock payee balance for ID: " + payeeId));
-                });
-
-        log.debug("Balances locked successfully. Payer: {}, Payee: {}", payerBalance.getUserId(), payeeBalance.getUserId());
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<TransactionDto> getTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionType type, String cursor, int size) {
+        if (size < 1 || size > MAX_CURSOR_PAGE_SIZE) {
+            throw new InvalidOperationException("Page size must be between 1 and " + MAX_CURSOR_PAGE_SIZE + ".");
+        }
+        TransactionCursor after = TransactionCursor.decode(cursor);
+        log.info("Fetching transaction history for userId: {} with filters - Start: {}, End: {}, Type: {}, After: {}, Size: {}",
+                userId, startDate, endDate, type, after, size);
+        replicaLagGuard.routeReadsFor(userId);
+        LocalDateTime startDateTime = (startDate != null) ? startDate.atStartOfDay() : null;
+        LocalDateTime endDateTime = (endDate != null) ? endDate.plusDays(1).atStartOfDay() : null;
 
-        if (payerBalance.getBalance().compareTo(amount) < 0) {
-            log.warn("Insufficient balance for payer {}. Required: {}, Available: {}", payerId, amount, payerBalance.getBalance());
-            throw new InsufficientBalanceException("Insufficient balance for payment. Required: " + amount + ", Available: " + payerBalance.getBalance());
+        // One extra row tells whether another page exists, without a count query
+        Specification<Transaction> spec = TransactionSpecifications.history(userId, startDateTime, endDateTime, type);
+        if (after != null) {
+            spec = spec.and(TransactionSpecifications.olderThan(after.createdAt(), after.transactionId()));
         }
+        List<Transaction> rows = transactionRepository.findNewestFirst(spec, size + 1);
+        boolean hasNext = rows.size() > size;
+        List<Transaction> page = hasNext ? rows.subList(0, size) : rows;
+        String nextCursor = null;
+        if (hasNext) {
+            Transaction last = page.get(page.size() - 1);
+            nextCursor = new TransactionCursor(last.getCreatedAt(), last.getTransactionId()).encode();
+        }
+        log.info("Found {} transactions for userId: {} (hasNext: {})", page.size(), userId, hasNext);
+        return new CursorPage<>(page.stream().map(this::mapToTransactionDto).toList(), nextCursor, hasNext);
+    }
 
-        BigDecimal oldPayerBalance = payerBalance.getBalance();
-        BigDecimal oldPayeeBalance = payeeBalance.getBalance();
-        payerBalance.setBalance(oldPayerBalance.subtract(amount));
-        payeeBalance.setBalance(oldPayeeBalance.add(amount));
+    // Caller must provide the transaction (see payForRental); row locks taken by the updates are held until it commits.
+    protected Transaction performInternalTransfer(UUID payerId, UUID payeeId, BigDecimal amount, UUID rentalId) {
+        log.debug("Performing internal transfer: Payer={}, Payee={}, Amount={}, RentalId={}", payerId, payeeId, amount, rentalId);
+        // A non-positive amount would move money from the payee to the payer
+        if (amount == null || amount.signum() <= 0) {
+            throw new InvalidOperationException("Transfer amount must be positive.");
+        }
 
-        userBalanceRepository.save(payerBalance);
-        userBalanceRepository.save(payeeBalance);
-        log.info("Updated balances - PayerId: {} (Old: {}, New: {}), PayeeId: {} (Old: {}, New: {})",
-                payerId, oldPayerBalance, payerBalance.getBalance(), payeeId, oldPayeeBalance, payeeBalance.getBalance());
+        // Each leg is one conditional UPDATE. Legs run in LOCK_ORDER so two opposite-direction transfers
+        // between the same users take their row locks in the same order and cannot deadlock each other.
+        if (UserBalanceRepository.LOCK_ORDER.compare(payerId, payeeId) <= 0) {
+            debitPayer(payerId, amount);
+            creditPayee(payeeId, amount);
+        } else {
+            creditPayee(payeeId, amount);
+            debitPayer(payerId, amount);
+        }
+        log.info("Transferred {} from PayerId: {} to PayeeId: {}", amount, payerId, payeeId);
+        replicaLagGuard.recordWrite(payerId);
+        replicaLagGuard.recordWrite(payeeId);
 
         Transaction payerTx = createPaymentTransactionRecord(payerId, amount, TransactionStatus.COMPLETED, rentalId, payerId, payeeId, "Payment sent for rental " + rentalId);
         Transaction payeeTx = createPaymentTransactionRecord(payeeId, amount, TransactionStatus.COMPLETED, rentalId, payerId, payeeId, "Payment received for rental " + rentalId);
 
-        Transaction savedPayerTx = transactionRepository.save(payerTx);
-        Transaction savedPayeeTx = transactionRepository.save(payeeTx);
+        Transaction savedPayerTx = saveTransaction(payerTx);
+        Transaction savedPayeeTx = saveTransaction(payeeTx);
         log.info("Saved payment transactions. Payer Tx ID: {}, Payee Tx ID: {}", savedPayerTx.getTransactionId(), savedPayeeTx.getTransactionId());
+        paymentOutbox.paymentSucceeded(savedPayerTx);
 
         return savedPayerTx;
     }
 
+    // Saves a completed transaction and adds it to the user's monthly summary in the caller's transaction
+    private Transaction saveTransaction(Transaction transaction) {
+        return paymentPhaseMetrics.time(Phase.TRANSACTION_INSERT, () -> {
+            Transaction saved = transactionRepository.save(transaction);
+            LocalDateTime createdAt = saved.getCreatedAt() != null ? saved.getCreatedAt() : LocalDateTime.now();
+            transactionSummaryRepository.addToMonthlySummary(saved.getUserId(), createdAt.toLocalDate().withDayOfMonth(1),
+                    saved.getTransactionType(), saved.getAmount());
+            return saved;
+        });
+    }
+
+    // One summary statement per user, month and type for transactions saved together
+    private void addToMonthlySummaries(List<Transaction> saved) {
+        record SummaryKey(UUID userId, LocalDate month, TransactionType type) {}
+        Map<SummaryKey, List<Transaction>> groups = new LinkedHashMap<>();
+        for (Transaction transaction : saved) {
+            LocalDateTime createdAt = transaction.getCreatedAt() != null ? transaction.getCreatedAt() : LocalDateTime.now();
+            groups.computeIfAbsent(new SummaryKey(transaction.getUserId(), createdAt.toLocalDate().withDayOfMonth(1),
+                    transaction.getTransactionType()), key -> new ArrayList<>()).add(transaction);
+        }
+        groups.forEach((key, transactions) -> transactionSummaryRepository.addToMonthlySummary(key.userId(), key.month(),
+                key.type(), transactions.stream().map(Transaction::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add),
+                transactions.size()));
+    }
+
+    // Timed as balance.update, like creditBalance: the UPDATE waits for the row lock of a concurrent transfer
+    private void debitPayer(UUID payerId, BigDecimal amount) {
+        paymentPhaseMetrics.time(Phase.BALANCE_UPDATE, () -> debit(payerId, amount));
+    }
+
+    private void debit(UUID payerId, BigDecimal amount) {
+        if (userBalanceRepository.applyBalanceDelta(payerId, amount.negate()) == 1) {
+            return;
+        }
+        // Debits never create a balance row: a payer without one has never been credited and holds zero
+        BigDecimal available = userBalanceRepository.findByUserId(payerId).map(UserBalance::getBalance).orElse(BigDecimal.ZERO);
+        log.warn("Insufficient balance for payer {}. Required: {}, Available: {}", payerId, amount, available);
+        throw new InsufficientBalanceException("Insufficient balance for payment. Required: " + amount + ", Available: " + available);
+    }
+
+    private void creditPayee(UUID payeeId, BigDecimal amount) {
+        if (!creditBalance(payeeId, amount)) {
+            throw new PaymentProcessingException("Failed to establish balance for payee ID: " + payeeId);
+        }
+    }
+
+    // The first credit creates the balance row: the user is guaranteed to exist by the token, and a rental
+    // implies a valid owner. The upsert never fails on a concurrent first credit for the same user.
+    private boolean creditBalance(UUID userId, BigDecimal amount) {
+        return paymentPhaseMetrics.time(Phase.BALANCE_UPDATE, () -> {
+            if (userBalanceRepository.applyBalanceDelta(userId, amount) == 1) {
+                return true;
+            }
+            if (userBalanceRepository.insertIfAbsent(userId) == 1) {
+                log.info("Created balance record for userId: {} on first credit.", userId);
+            }
+            return userBalanceRepository.applyBalanceDelta(userId, amount) == 1;
+        });
+    }
+
     private Transaction createPaymentTransactionRecord(UUID userId, BigDecimal amount, TransactionStatus status, UUID rentalId, UUID payerId, UUID payeeId, String notes) {
         Transaction tx = new Transaction();
         tx.setUserId(userId);
@@ -251,7 +625,70 @@ public class PaymentServiceImpl implements PaymentService {
         return new BalanceDto(entity.getUserId(), entity.getBalance(), entity.getUpdatedAt());
     }
 
-    private TransactionDto mapToTransactionDto(Transaction entity) {
+    @Override
+    @Transactional(readOnly = true)
+    public long exportTransactionHistory(UUID userId, LocalDate startDate, LocalDate endDate, TransactionExportFormat format,
+                                         OutputStream out) throws IOException {
+        if (startDate == null || endDate == null || endDate.isBefore(startDate)) {
+            throw new InvalidOperationException("Export requires a start date on or before the end date.");
+        }
+        log.info("Exporting transaction history for userId: {} from {} to {} as {}", userId, startDate, endDate, format);
+        replicaLagGuard.routeReadsFor(userId);
+
+        LocalDateTime start = startDate.atStartOfDay();
+        LocalDateTime end = endDate.plusDays(1).atStartOfDay();
+        LocalDateTime databaseStart = start;
+        long rows = 0;
+        try (TransactionExportWriter writer = TransactionExportWriter.create(format, out)) {
+            // Archived months are read from cold storage; the database only holds the months after them
+            for (YearMonth month = YearMonth.from(startDate); !month.isAfter(YearMonth.from(endDate)); month = month.plusMonths(1)) {
+                if (!transactionArchive.isArchived(month)) {
+                    continue;
+                }
+                log.debug("Reading archived transactions of {} for userId: {}", month, userId);
+                try (Stream<TransactionDto> archived = transactionArchive.read(month)) {
+                    rows += writeAll(writer, archived.filter(tx -> userId.equals(tx.userId())
+                            && !tx.createdAt().isBefore(start) && tx.createdAt().isBefore(end)));
+                }
+                databaseStart = month.plusMonths(1).atDay(1).atStartOfDay();
+            }
+            if (databaseStart.isBefore(end)) {
+                try (Stream<TransactionDto> transactions = transactionRepository.streamUserTransactions(userId, databaseStart, end)) {
+                    rows += writeAll(writer, transactions);
+                }
+            }
+        }
+        log.info("Exported {} transactions for userId: {}", rows, userId);
+        return rows;
+    }
+
+    private static long writeAll(TransactionExportWriter writer, Stream<TransactionDto> transactions) throws IOException {
+        long rows = 0;
+        Iterator<TransactionDto> iterator = transactions.iterator();
+        while (iterator.hasNext()) {
+            writer.write(iterator.next());
+            rows++;
+        }
+        return rows;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<TransactionSummaryDto> getTransactionSummary(UUID userId, YearMonth fromMonth, YearMonth toMonth) {
+        YearMonth to = toMonth != null ? toMonth : YearMonth.now();
+        YearMonth from = fromMonth != null ? fromMonth : to.minusMonths(DEFAULT_SUMMARY_MONTHS - 1);
+        if (from.isAfter(to)) {
+            throw new InvalidOperationException("Summary start month must not be after its end month.");
+        }
+        log.info("Fetching transaction summary for userId: {} from {} to {}", userId, from, to);
+        replicaLagGuard.routeReadsFor(userId);
+        return transactionSummaryRepository.findUserSummaries(userId, from.atDay(1), to.atDay(1)).stream()
+                .map(summary -> new TransactionSummaryDto(YearMonth.from(summary.getId().getMonth()),
+                        summary.getId().getTransactionType(), summary.getTotalAmount(), summary.getTransactionCount()))
+                .toList();
+    }
+
+    TransactionDto mapToTransactionDto(Transaction entity) {
         if (entity == null) return null;
         return new TransactionDto(
                 entity.getTransactionId(),
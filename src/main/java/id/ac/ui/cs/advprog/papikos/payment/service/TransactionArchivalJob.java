@@ -0,0 +1,99 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.stream.Stream;
+
+/**
+ * Moves whole months older than {@code transaction.archive.retention-months} from {@code transactions} into the
+ * {@link TransactionArchive}, oldest first: each month is written to its archive file before its partition is
+ * dropped. Archived months stay readable through the transaction export. Monthly summaries are left untouched.
+ * Scheduled runs hold the {@link ClusterJobLock}, so only one instance archives at a time.
+ */
+@Component
+@ConditionalOnProperty(name = "transaction.archive.enabled", havingValue = "true")
+@Slf4j
+public class TransactionArchivalJob {
+
+    static final String JOB_NAME = "transaction-archival";
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionArchive transactionArchive;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterJobLock clusterJobLock;
+    private final int retentionMonths;
+
+    public TransactionArchivalJob(TransactionRepository transactionRepository,
+                                  TransactionArchive transactionArchive,
+                                  PlatformTransactionManager transactionManager,
+                                  ClusterJobLock clusterJobLock,
+                                  @Value("${transaction.archive.retention-months:24}") int retentionMonths) {
+        this.transactionRepository = transactionRepository;
+        this.transactionArchive = transactionArchive;
+        this.clusterJobLock = clusterJobLock;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retentionMonths = retentionMonths;
+    }
+
+    @Scheduled(cron = "${transaction.archive.cron:0 30 3 * * *}")
+    public void scheduledArchive() {
+        clusterJobLock.runExclusively(JOB_NAME, () -> archiveMonthsBefore(YearMonth.now().minusMonths(retentionMonths)));
+    }
+
+    /**
+     * Archives every month before {@code cutoff} that still has transactions and returns how many were archived.
+     * Stops at the first failure so the archive never has gaps; the next run resumes from there.
+     */
+    public int archiveMonthsBefore(YearMonth cutoff) {
+        LocalDateTime oldest = readOnlyTransactionTemplate.execute(status -> transactionRepository.findOldestCreatedAt());
+        if (oldest == null) {
+            return 0;
+        }
+        int archived = 0;
+        for (YearMonth month = YearMonth.from(oldest); month.isBefore(cutoff); month = month.plusMonths(1)) {
+            try {
+                archiveMonth(month);
+                archived++;
+            } catch (DataAccessException | UncheckedIOException e) {
+                log.error("Failed to archive transactions of {}; will retry on the next run", month, e);
+                break;
+            }
+        }
+        return archived;
+    }
+
+    private void archiveMonth(YearMonth month) {
+        LocalDateTime start = month.atDay(1).atStartOfDay();
+        LocalDateTime end = month.plusMonths(1).atDay(1).atStartOfDay();
+        Long written = readOnlyTransactionTemplate.execute(status -> {
+            try (Stream<TransactionDto> transactions = transactionRepository.streamTransactionsCreatedBetween(start, end)) {
+                return transactionArchive.write(month, transactions);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        // Rows of past months are never written again, so nothing can slip in between the two steps
+        Integer leftovers = transactionTemplate.execute(status -> {
+            transactionArchive.markArchived(month, written);
+            return transactionRepository.removeMonth(month);
+        });
+        log.info("Archived {} transactions of {} and removed them from the database ({} rows outside partitions)",
+                written, month, leftovers);
+    }
+}
@@ -0,0 +1,141 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionExportFormat;
+import id.ac.ui.cs.advprog.papikos.payment.entity.ArchivedTransactionMonth;
+import id.ac.ui.cs.advprog.papikos.payment.repository.ArchivedTransactionMonthRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cold storage for archived transactions: one gzip-compressed NDJSON file per month under
+ * {@code transaction.archive.directory}, rows in creation order. A file only appears once it is complete.
+ * Which months are archived is recorded in the database, so the directory must be storage shared by every
+ * instance (e.g. an NFS or EFS mount): an instance missing the file of an archived month fails to start, and
+ * an export that reaches such a month fails instead of silently leaving the month out.
+ */
+@Component
+@Slf4j
+public class TransactionArchive {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final ArchivedTransactionMonthRepository archivedMonthRepository;
+
+    public TransactionArchive(@Value("${transaction.archive.directory:archive/transactions}") Path directory,
+                              ArchivedTransactionMonthRepository archivedMonthRepository) {
+        this.directory = directory;
+        this.archivedMonthRepository = archivedMonthRepository;
+    }
+
+    /** Fails startup when the directory does not hold every archived month, i.e. it is not the shared archive. */
+    @PostConstruct
+    void verifyArchivedMonthsPresent() {
+        List<YearMonth> missing = archivedMonthRepository.findAll().stream()
+                .map(archived -> YearMonth.from(archived.getMonth()))
+                .filter(month -> !Files.isRegularFile(fileFor(month)))
+                .sorted()
+                .toList();
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Archive files of " + missing + " are missing from " + directory.toAbsolutePath()
+                    + "; transaction.archive.directory must point to storage shared by all instances");
+        }
+    }
+
+    public boolean isArchived(YearMonth month) {
+        return archivedMonthRepository.existsById(month.atDay(1));
+    }
+
+    /**
+     * Records {@code month} as archived. Must run in the transaction that removes the month from the database,
+     * after its file was written.
+     */
+    public void markArchived(YearMonth month, long rows) {
+        ArchivedTransactionMonth archived = new ArchivedTransactionMonth();
+        archived.setMonth(month.atDay(1));
+        archived.setRowCount(rows);
+        archived.setArchivedAt(LocalDateTime.now());
+        archivedMonthRepository.save(archived);
+    }
+
+    /**
+     * Writes {@code transactions} as the archive of {@code month}, replacing any previous archive of it.
+     * The file is written under a temporary name, synced and then renamed. Returns the number of rows written.
+     */
+    public long write(YearMonth month, Stream<TransactionDto> transactions) throws IOException {
+        Files.createDirectories(directory);
+        Path target = fileFor(month);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long rows = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            try (TransactionExportWriter writer = TransactionExportWriter.create(TransactionExportFormat.NDJSON, gzip)) {
+                Iterator<TransactionDto> iterator = transactions.iterator();
+                while (iterator.hasNext()) {
+                    writer.write(iterator.next());
+                    rows++;
+                }
+            }
+            gzip.finish();
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Archived {} transactions of {} to {}", rows, month, target);
+        return rows;
+    }
+
+    /** Lazily reads the archive of {@code month}; the stream must be closed. */
+    public Stream<TransactionDto> read(YearMonth month) throws IOException {
+        Path file = fileFor(month);
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException(file.toAbsolutePath().toString(), null,
+                    "archive of " + month + " is missing; transaction.archive.directory must be shared by all instances");
+        }
+        InputStream in = new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        MappingIterator<TransactionDto> rows;
+        try {
+            rows = TransactionExportWriter.NDJSON_MAPPER.readerFor(TransactionDto.class).readValues(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        rows.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+
+    Path fileFor(YearMonth month) {
+        return directory.resolve("transactions-" + month + ".ndjson.gz");
+    }
+}
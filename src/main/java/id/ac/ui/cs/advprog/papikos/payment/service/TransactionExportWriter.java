@@ -0,0 +1,127 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionExportFormat;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes exported transactions one row at a time through a fixed-size buffer, so memory use does not depend
+ * on the number of rows. {@link #close()} flushes the buffer but leaves the target stream open.
+ */
+public abstract class TransactionExportWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Same date rendering as the JSON API: ISO-8601 strings rather than numeric timestamps
+    static final ObjectMapper NDJSON_MAPPER = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+            .build();
+
+    protected final Writer out;
+
+    private TransactionExportWriter(OutputStream target) {
+        this.out = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public static TransactionExportWriter create(TransactionExportFormat format, OutputStream target) throws IOException {
+        return switch (format) {
+            case CSV -> new Csv(target);
+            case NDJSON -> new NdJson(target);
+        };
+    }
+
+    public abstract void write(TransactionDto transaction) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    private static final class Csv extends TransactionExportWriter {
+
+        private static final String HEADER = "transactionId,userId,transactionType,amount,status,relatedRentalId,"
+                + "payerUserId,payeeUserId,notes,createdAt,updatedAt\n";
+
+        private Csv(OutputStream target) throws IOException {
+            super(target);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(TransactionDto tx) throws IOException {
+            field(tx.transactionId());
+            field(tx.userId());
+            field(tx.transactionType());
+            field(tx.amount() != null ? tx.amount().toPlainString() : null);
+            field(tx.status());
+            field(tx.relatedRentalId());
+            field(tx.payerUserId());
+            field(tx.payeeUserId());
+            quoted(tx.notes());
+            out.write(',');
+            field(tx.createdAt());
+            if (tx.updatedAt() != null) {
+                out.write(tx.updatedAt().toString());
+            }
+            out.write('\n');
+        }
+
+        private void field(Object value) throws IOException {
+            if (value != null) {
+                out.write(value.toString());
+            }
+            out.write(',');
+        }
+
+        // RFC 4180: free text is quoted when it contains a delimiter, quote or line break; quotes are doubled
+        private void quoted(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+    }
+
+    private static final class NdJson extends TransactionExportWriter {
+
+        private final JsonGenerator generator;
+
+        private NdJson(OutputStream target) throws IOException {
+            super(target);
+            this.generator = NDJSON_MAPPER.getFactory().createGenerator(out);
+            // Rows are separated by the explicit newline below, not by the generator's default space
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void write(TransactionDto tx) throws IOException {
+            NDJSON_MAPPER.writeValue(generator, tx);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.flush();
+            super.close();
+        }
+    }
+}
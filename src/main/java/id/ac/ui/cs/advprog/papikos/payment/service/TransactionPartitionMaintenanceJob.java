@@ -0,0 +1,61 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+
+/**
+ * Keeps monthly partitions of {@code transactions} created for the current month and the next
+ * {@code transaction.partition.months-ahead}, so new rows never fall into the default partition.
+ * Does nothing where the table is not partitioned. Scheduled runs hold the {@link ClusterJobLock}, so instances
+ * do not issue the same DDL at once.
+ */
+@Component
+@Slf4j
+public class TransactionPartitionMaintenanceJob {
+
+    static final String JOB_NAME = "transaction-partition-maintenance";
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ClusterJobLock clusterJobLock;
+    private final int monthsAhead;
+
+    public TransactionPartitionMaintenanceJob(TransactionRepository transactionRepository,
+                                              TransactionTemplate transactionTemplate,
+                                              ClusterJobLock clusterJobLock,
+                                              @Value("${transaction.partition.months-ahead:3}") int monthsAhead) {
+        this.transactionRepository = transactionRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.clusterJobLock = clusterJobLock;
+        this.monthsAhead = monthsAhead;
+    }
+
+    @Scheduled(cron = "${transaction.partition.maintenance-cron:0 0 3 * * *}")
+    public void scheduledMaintenance() {
+        clusterJobLock.runExclusively(JOB_NAME, () -> createUpcomingPartitions(YearMonth.now()));
+    }
+
+    /** Ensures partitions from {@code currentMonth} to {@code monthsAhead} months later exist. */
+    public void createUpcomingPartitions(YearMonth currentMonth) {
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = currentMonth.plusMonths(i);
+            try {
+                Boolean partitioned = transactionTemplate.execute(status -> transactionRepository.createMonthlyPartition(month));
+                if (!Boolean.TRUE.equals(partitioned)) {
+                    return;
+                }
+            } catch (DataAccessException e) {
+                // e.g. rows for the month already sit in the default partition; they must be moved by hand
+                log.error("Failed to create transactions partition for {}", month, e);
+            }
+        }
+        log.debug("Transactions partitions exist up to {}", currentMonth.plusMonths(monthsAhead));
+    }
+}
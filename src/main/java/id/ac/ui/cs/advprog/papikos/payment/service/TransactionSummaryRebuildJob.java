@@ -0,0 +1,86 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Recomputes the monthly transaction summaries from {@code transactions}, for repairing drift or backfilling.
+ * Only months from the oldest transaction still in the database onwards are recomputed; summaries of archived
+ * months are kept as they are.
+ * Users are processed in batches of {@code transaction.summary.rebuild.batch-size}, each batch in its own short
+ * transaction, so neither locks nor memory grow with the number of users. A batch that fails (for example on a
+ * lock timeout) is logged and skipped; the next run picks it up again.
+ * Runs on {@code transaction.summary.rebuild.cron} (disabled by default) or when {@link #rebuild()} is called.
+ */
+@Component
+@Slf4j
+public class TransactionSummaryRebuildJob {
+
+    private final TransactionMonthlySummaryRepository transactionSummaryRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    public TransactionSummaryRebuildJob(TransactionMonthlySummaryRepository transactionSummaryRepository,
+                                        TransactionRepository transactionRepository,
+                                        TransactionTemplate transactionTemplate,
+                                        @Value("${transaction.summary.rebuild.batch-size:500}") int batchSize) {
+        this.transactionSummaryRepository = transactionSummaryRepository;
+        this.transactionRepository = transactionRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(cron = "${transaction.summary.rebuild.cron:-}")
+    public void scheduledRebuild() {
+        rebuild();
+    }
+
+    /** Rebuilds every user's summaries and returns the number of users whose batch succeeded. */
+    public long rebuild() {
+        LocalDateTime oldest = transactionTemplate.execute(status -> transactionRepository.findOldestCreatedAt());
+        if (oldest == null) {
+            log.info("No transactions to rebuild summaries from");
+            return 0;
+        }
+        LocalDate fromMonth = oldest.toLocalDate().withDayOfMonth(1);
+        log.info("Rebuilding transaction summaries from {} in batches of {} users", fromMonth, batchSize);
+        long rebuiltUsers = 0;
+        long failedBatches = 0;
+        UUID after = null;
+        while (true) {
+            UUID lastUserId = after;
+            List<UUID> userIds = transactionTemplate.execute(status ->
+                    transactionSummaryRepository.findTransactionUserIds(lastUserId, batchSize));
+            if (userIds == null || userIds.isEmpty()) {
+                break;
+            }
+            try {
+                Integer rows = transactionTemplate.execute(status -> transactionSummaryRepository.rebuildMonthlySummaries(userIds, fromMonth));
+                rebuiltUsers += userIds.size();
+                log.debug("Rebuilt {} summary rows for {} users up to userId: {}", rows, userIds.size(), userIds.get(userIds.size() - 1));
+            } catch (DataAccessException e) {
+                failedBatches++;
+                log.warn("Failed to rebuild transaction summaries for users {} to {}: {}",
+                        userIds.get(0), userIds.get(userIds.size() - 1), e.getMessage());
+            }
+            if (userIds.size() < batchSize) {
+                break;
+            }
+            after = userIds.get(userIds.size() - 1);
+        }
+        log.info("Rebuilt transaction summaries for {} users ({} failed batches)", rebuiltUsers, failedBatches);
+        return rebuiltUsers;
+    }
+}
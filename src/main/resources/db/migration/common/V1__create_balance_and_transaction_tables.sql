@@ -0,0 +1,24 @@
+-- Baseline schema, matching what ddl-auto=update used to create.
+-- Existing databases are baselined at V1 (spring.flyway.baseline-on-migrate), so this only runs on empty ones.
+
+CREATE TABLE IF NOT EXISTS user_balances (
+    user_id    UUID           NOT NULL,
+    balance    NUMERIC(12, 2) NOT NULL,
+    updated_at TIMESTAMP(6)   NOT NULL,
+    CONSTRAINT pk_user_balances PRIMARY KEY (user_id)
+);
+
+CREATE TABLE IF NOT EXISTS transactions (
+    transaction_id    UUID           NOT NULL,
+    user_id           UUID           NOT NULL,
+    transaction_type  VARCHAR(20)    NOT NULL,
+    amount            NUMERIC(12, 2) NOT NULL,
+    status            VARCHAR(20)    NOT NULL,
+    related_rental_id UUID,
+    payer_user_id     UUID,
+    payee_user_id     UUID,
+    notes             TEXT,
+    created_at        TIMESTAMP(6)   NOT NULL,
+    updated_at        TIMESTAMP(6)   NOT NULL,
+    CONSTRAINT pk_transactions PRIMARY KEY (transaction_id)
+);
@@ -0,0 +1,11 @@
+-- History listing (offset and keyset): WHERE user_id = ? [AND created_at range] ORDER BY created_at DESC, transaction_id DESC
+CREATE INDEX IF NOT EXISTS idx_transactions_user_created
+    ON transactions (user_id, created_at DESC, transaction_id DESC);
+
+-- History filtered by type: WHERE user_id = ? AND transaction_type = ? ORDER BY created_at DESC
+CREATE INDEX IF NOT EXISTS idx_transactions_user_type_created
+    ON transactions (user_id, transaction_type, created_at DESC);
+
+-- Lookups of the payment rows belonging to a rental
+CREATE INDEX IF NOT EXISTS idx_transactions_related_rental
+    ON transactions (related_rental_id);
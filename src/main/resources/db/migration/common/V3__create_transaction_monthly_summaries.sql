@@ -0,0 +1,11 @@
+-- Per user, month and type totals of completed transactions, maintained in the same transaction as the
+-- transactions themselves and rebuilt from them by TransactionSummaryRebuildJob.
+CREATE TABLE IF NOT EXISTS transaction_monthly_summaries (
+    user_id           UUID           NOT NULL,
+    summary_month     DATE           NOT NULL,
+    transaction_type  VARCHAR(20)    NOT NULL,
+    total_amount      NUMERIC(19, 2) NOT NULL,
+    transaction_count BIGINT         NOT NULL,
+    updated_at        TIMESTAMP(6)   NOT NULL,
+    CONSTRAINT pk_transaction_monthly_summaries PRIMARY KEY (user_id, summary_month, transaction_type)
+);
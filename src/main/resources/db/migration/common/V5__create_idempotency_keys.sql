@@ -0,0 +1,12 @@
+-- Idempotency-Key headers of top-ups and payments. The row is claimed in the same transaction as the balance
+-- change, so the primary key is what stops a retried request from being applied twice on any instance.
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    user_id             UUID         NOT NULL,
+    idempotency_key     VARCHAR(255) NOT NULL,
+    request_fingerprint VARCHAR(255) NOT NULL,
+    transaction_id      UUID,
+    created_at          TIMESTAMP(6) NOT NULL,
+    CONSTRAINT pk_idempotency_keys PRIMARY KEY (user_id, idempotency_key)
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_created ON idempotency_keys (created_at);
@@ -0,0 +1,13 @@
+-- Payment domain events written in the same transaction as the balance change and published to RabbitMQ by
+-- PaymentOutboxRelay. Rows are deleted once the broker has confirmed them, so the table only holds the backlog.
+CREATE SEQUENCE IF NOT EXISTS payment_outbox_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS payment_outbox (
+    id           BIGINT       NOT NULL,
+    event_id     UUID         NOT NULL,
+    event_type   VARCHAR(64)  NOT NULL,
+    aggregate_id UUID         NOT NULL,
+    payload      TEXT         NOT NULL,
+    created_at   TIMESTAMP(6) NOT NULL,
+    CONSTRAINT pk_payment_outbox PRIMARY KEY (id)
+);
@@ -0,0 +1,8 @@
+-- Months moved to the transaction archive. Written in the same transaction that removes the month from
+-- transactions, so every instance agrees on which months are served from archive files.
+CREATE TABLE IF NOT EXISTS transaction_archived_months (
+    archived_month DATE         NOT NULL,
+    row_count      BIGINT       NOT NULL,
+    archived_at    TIMESTAMP(6) NOT NULL,
+    CONSTRAINT pk_transaction_archived_months PRIMARY KEY (archived_month)
+);
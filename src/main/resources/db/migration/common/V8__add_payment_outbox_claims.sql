@@ -0,0 +1,3 @@
+-- The relay claims a batch for a while and publishes it outside any transaction; claimed rows are skipped by
+-- other relays until the claim is released or runs out (e.g. the instance died while publishing).
+ALTER TABLE payment_outbox ADD COLUMN IF NOT EXISTS claimed_until TIMESTAMP(6);
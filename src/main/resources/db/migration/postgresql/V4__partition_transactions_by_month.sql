@@ -0,0 +1,60 @@
+-- Monthly range partitions of transactions on created_at (PostgreSQL only; other databases keep the plain table).
+-- Date-bounded history and export queries only scan the months they ask for, and whole months can be
+-- detached and dropped once TransactionArchivalJob has written them to cold storage.
+-- A partitioned table's primary key must contain the partition key; transaction ids remain random UUIDs.
+
+ALTER TABLE transactions RENAME TO transactions_unpartitioned;
+ALTER TABLE transactions_unpartitioned RENAME CONSTRAINT pk_transactions TO pk_transactions_unpartitioned;
+DROP INDEX IF EXISTS idx_transactions_user_created;
+DROP INDEX IF EXISTS idx_transactions_user_type_created;
+DROP INDEX IF EXISTS idx_transactions_related_rental;
+
+CREATE TABLE transactions (
+    transaction_id    UUID           NOT NULL,
+    user_id           UUID           NOT NULL,
+    transaction_type  VARCHAR(20)    NOT NULL,
+    amount            NUMERIC(12, 2) NOT NULL,
+    status            VARCHAR(20)    NOT NULL,
+    related_rental_id UUID,
+    payer_user_id     UUID,
+    payee_user_id     UUID,
+    notes             TEXT,
+    created_at        TIMESTAMP(6)   NOT NULL,
+    updated_at        TIMESTAMP(6)   NOT NULL,
+    CONSTRAINT pk_transactions PRIMARY KEY (transaction_id, created_at)
+) PARTITION BY RANGE (created_at);
+
+-- Catches rows outside every monthly partition instead of failing the insert
+CREATE TABLE transactions_default PARTITION OF transactions DEFAULT;
+
+-- One partition per month from the oldest existing row up to three months ahead;
+-- TransactionPartitionMaintenanceJob keeps creating them from here on
+DO $$
+DECLARE
+    month_start DATE := date_trunc('month', LEAST(
+            COALESCE((SELECT MIN(created_at) FROM transactions_unpartitioned), LOCALTIMESTAMP), LOCALTIMESTAMP))::date;
+    last_month  DATE := (date_trunc('month', LOCALTIMESTAMP) + INTERVAL '3 months')::date;
+BEGIN
+    WHILE month_start <= last_month LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF transactions FOR VALUES FROM (%L) TO (%L)',
+                       'transactions_' || to_char(month_start, 'YYYY_MM'),
+                       month_start::timestamp, (month_start + INTERVAL '1 month')::timestamp);
+        month_start := (month_start + INTERVAL '1 month')::date;
+    END LOOP;
+END $$;
+
+INSERT INTO transactions (transaction_id, user_id, transaction_type, amount, status, related_rental_id,
+                          payer_user_id, payee_user_id, notes, created_at, updated_at)
+SELECT transaction_id, user_id, transaction_type, amount, status, related_rental_id,
+       payer_user_id, payee_user_id, notes, created_at, updated_at
+FROM transactions_unpartitioned;
+
+DROP TABLE transactions_unpartitioned;
+
+-- Same indexes as V2, created on every partition
+CREATE INDEX idx_transactions_user_created
+    ON transactions (user_id, created_at DESC, transaction_id DESC);
+CREATE INDEX idx_transactions_user_type_created
+    ON transactions (user_id, transaction_type, created_at DESC);
+CREATE INDEX idx_transactions_related_rental
+    ON transactions (related_rental_id);
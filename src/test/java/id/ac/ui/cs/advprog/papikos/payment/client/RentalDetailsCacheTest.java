@@ -0,0 +1,102 @@
+package id.ac.ui.cs.advprog.papikos.payment.client;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalDetailsDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalResponseWrapper;
+import id.ac.ui.cs.advprog.papikos.payment.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RentalDetailsCacheTest {
+
+    @Mock
+    private RentalServiceClient rentalServiceClient;
+
+    private SimpleMeterRegistry meterRegistry;
+    private RentalDetailsCache cache;
+    private UUID rentalId;
+    private RentalDetailsDto details;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new RentalDetailsCache(rentalServiceClient, Duration.ofMinutes(1), 100, meterRegistry);
+        rentalId = UUID.randomUUID();
+        details = new RentalDetailsDto();
+        details.setRentalId(rentalId);
+        details.setStatus("APPROVED");
+    }
+
+    private RentalResponseWrapper<RentalDetailsDto> wrap(RentalDetailsDto data) {
+        RentalResponseWrapper<RentalDetailsDto> wrapper = new RentalResponseWrapper<>();
+        wrapper.setData(data);
+        return wrapper;
+    }
+
+    @Test
+    void testGetRentalDetails_secondCallIsServedFromCache() {
+        when(rentalServiceClient.getRentalDetailsForPayment(rentalId.toString())).thenReturn(wrap(details));
+
+        assertSame(details, cache.getRentalDetails(rentalId));
+        assertSame(details, cache.getRentalDetails(rentalId));
+
+        verify(rentalServiceClient, times(1)).getRentalDetailsForPayment(rentalId.toString());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", RentalDetailsCache.CACHE_NAME)
+                .tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", RentalDetailsCache.CACHE_NAME)
+                .tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void testGetRentalDetails_withNullData_isNotCached() {
+        when(rentalServiceClient.getRentalDetailsForPayment(rentalId.toString())).thenReturn(wrap(null));
+
+        assertNull(cache.getRentalDetails(rentalId));
+        assertNull(cache.getRentalDetails(rentalId));
+
+        verify(rentalServiceClient, times(2)).getRentalDetailsForPayment(rentalId.toString());
+    }
+
+    @Test
+    void testGetRentalDetails_propagatesClientExceptions() {
+        when(rentalServiceClient.getRentalDetailsForPayment(rentalId.toString()))
+                .thenThrow(new ResourceNotFoundException("Rental not found"));
+
+        assertThrows(ResourceNotFoundException.class, () -> cache.getRentalDetails(rentalId));
+    }
+
+    @Test
+    void testInvalidate_forcesRefetch() {
+        when(rentalServiceClient.getRentalDetailsForPayment(rentalId.toString())).thenReturn(wrap(details));
+
+        cache.getRentalDetails(rentalId);
+        cache.invalidate(rentalId);
+        cache.getRentalDetails(rentalId);
+
+        verify(rentalServiceClient, times(2)).getRentalDetailsForPayment(rentalId.toString());
+    }
+
+    @Test
+    void testInvalidate_duringLoad_preventsStaleEntry() {
+        when(rentalServiceClient.getRentalDetailsForPayment(rentalId.toString())).thenAnswer(invocation -> {
+            // The rental is cancelled while its old state is still on the wire
+            cache.invalidate(rentalId);
+            return wrap(details);
+        }).thenReturn(wrap(details));
+
+        cache.getRentalDetails(rentalId);
+        cache.getRentalDetails(rentalId);
+
+        verify(rentalServiceClient, times(2)).getRentalDetailsForPayment(rentalId.toString());
+    }
+}
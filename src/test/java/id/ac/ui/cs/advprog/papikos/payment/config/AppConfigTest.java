@@ -1,28 +1,99 @@
 package id.ac.ui.cs.advprog.papikos.payment.config;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.client.RestTemplate;
 
-import static org.junit.jupiter.api.Assertions.assertInstanceOf;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class AppConfigTest {
 
     private AppConfig appConfig;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
 
     @BeforeEach
     void setUp() {
         appConfig = new AppConfig();
+        connectionManager = appConfig.httpClientConnectionManager(20, 5, Duration.ofMinutes(5));
+        httpClient = appConfig.pooledHttpClient(connectionManager, Duration.ofSeconds(30), Duration.ofSeconds(1));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClient.close();
+        connectionManager.close();
     }
 
     @Test
     void testRestTemplateBeanCreation() {
 
-        RestTemplate restTemplate = appConfig.restTemplate();
+        RestTemplate restTemplate = appConfig.restTemplate(appConfig.pooledClientHttpRequestFactory(httpClient));
 
         assertNotNull(restTemplate, "RestTemplate bean should not be null.");
 
         assertInstanceOf(RestTemplate.class, restTemplate, "Bean should be an instance of RestTemplate.");
+        assertInstanceOf(HttpComponentsClientHttpRequestFactory.class, restTemplate.getRequestFactory(),
+                "RestTemplate should use the pooled HttpComponents request factory.");
+    }
+
+    @Test
+    void testConnectionManager_appliesPoolLimits() {
+        assertEquals(20, connectionManager.getMaxTotal());
+        assertEquals(5, connectionManager.getDefaultMaxPerRoute());
+    }
+
+    @Test
+    void testPoolMetrics_exposeLeasedPendingAndAvailable() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        appConfig.httpClientPoolMetrics(connectionManager).bindTo(registry);
+
+        assertEquals(0.0, registry.get("http.client.pool.leased").gauge().value());
+        assertEquals(0.0, registry.get("http.client.pool.pending").gauge().value());
+        assertEquals(0.0, registry.get("http.client.pool.available").gauge().value());
+        assertEquals(20.0, registry.get("http.client.pool.max").gauge().value());
+    }
+
+    @Test
+    void testHttp2RequestFactory_usesJdkClient() {
+        ClientHttpRequestFactory factory = appConfig.http2ClientHttpRequestFactory();
+        assertInstanceOf(JdkClientHttpRequestFactory.class, factory);
+    }
+
+    @Test
+    void testHttp2RequestFactory_withVirtualThreads_runsClientWorkOnVirtualThreads() throws Exception {
+        ReflectionTestUtils.setField(appConfig, "virtualThreads", true);
+
+        ClientHttpRequestFactory factory = appConfig.http2ClientHttpRequestFactory();
+
+        HttpClient httpClient = (HttpClient) ReflectionTestUtils.getField(factory, "httpClient");
+        Executor executor = httpClient.executor().orElseThrow();
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+        executor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+        assertTrue(virtual.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testHttp2RequestFactory_withPlatformThreads_keepsDefaultExecutor() {
+        ClientHttpRequestFactory factory = appConfig.http2ClientHttpRequestFactory();
+
+        HttpClient httpClient = (HttpClient) ReflectionTestUtils.getField(factory, "httpClient");
+        assertTrue(httpClient.executor().isEmpty());
     }
-}
\ No newline at end of file
+}
@@ -3,13 +3,24 @@ package id.ac.ui.cs.advprog.papikos.payment.config;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -29,6 +40,13 @@ class PaymentRabbitMQConfigTest {
         assertEquals(PaymentRabbitMQConfig.TOPIC_EXCHANGE_NAME, exchange.getName(), "Exchange name should match the constant.");
     }
 
+    @Test
+    void testPaymentEventsExchangeBean() {
+        TopicExchange exchange = paymentRabbitMQConfig.paymentEventsExchange();
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_EVENTS_EXCHANGE_NAME, exchange.getName());
+        assertTrue(exchange.isDurable());
+    }
+
     @Test
     void testPaymentQueueBean() {
         Queue queue = paymentRabbitMQConfig.paymentQueue();
@@ -39,6 +57,95 @@ class PaymentRabbitMQConfigTest {
         // For Queue(name, durable), other properties default to false.
         assertFalse(queue.isAutoDelete(), "Queue should not be auto-delete by default.");
         assertFalse(queue.isExclusive(), "Queue should not be exclusive by default.");
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_DEAD_LETTER_EXCHANGE_NAME, queue.getArguments().get("x-dead-letter-exchange"));
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_DEAD_LETTER_QUEUE_NAME, queue.getArguments().get("x-dead-letter-routing-key"));
+    }
+
+    @Test
+    void testPaymentDeadLetterQueueBinding() {
+        DirectExchange exchange = paymentRabbitMQConfig.paymentDeadLetterExchange();
+        Queue queue = paymentRabbitMQConfig.paymentDeadLetterQueue();
+        assertTrue(exchange.isDurable());
+        assertTrue(queue.isDurable());
+
+        Binding binding = paymentRabbitMQConfig.paymentDeadLetterBinding(queue, exchange);
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_DEAD_LETTER_QUEUE_NAME, binding.getDestination());
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_DEAD_LETTER_EXCHANGE_NAME, binding.getExchange());
+        assertEquals(PaymentRabbitMQConfig.PAYMENT_DEAD_LETTER_QUEUE_NAME, binding.getRoutingKey());
+    }
+
+    @Test
+    void testRentalEventsContainerFactory_usesConcurrentConsumersWithManualAcks() {
+        SimpleRabbitListenerContainerFactory factory = paymentRabbitMQConfig.rentalEventsContainerFactory(
+                new SimpleRabbitListenerContainerFactoryConfigurer(new RabbitProperties()),
+                Mockito.mock(ConnectionFactory.class), 4, 8, 10);
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setQueueNames(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME);
+        endpoint.setMessageListener(message -> { });
+
+        SimpleMessageListenerContainer container = factory.createListenerContainer(endpoint);
+
+        assertEquals(AcknowledgeMode.MANUAL, container.getAcknowledgeMode());
+        assertEquals(4, ReflectionTestUtils.getField(container, "concurrentConsumers"));
+        assertEquals(8, ReflectionTestUtils.getField(container, "maxConcurrentConsumers"));
+        assertEquals(10, ReflectionTestUtils.getField(container, "prefetchCount"));
+        assertEquals(false, ReflectionTestUtils.getField(container, "defaultRequeueRejected"));
+        assertEquals(false, ReflectionTestUtils.getField(container, "consumerBatchEnabled"));
+    }
+
+    @Test
+    void testRentalEventsContainerFactory_maxConcurrencyNeverBelowConcurrency() {
+        SimpleRabbitListenerContainerFactory factory = paymentRabbitMQConfig.rentalEventsContainerFactory(
+                new SimpleRabbitListenerContainerFactoryConfigurer(new RabbitProperties()),
+                Mockito.mock(ConnectionFactory.class), 6, 2, 10);
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setQueueNames(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME);
+        endpoint.setMessageListener(message -> { });
+
+        SimpleMessageListenerContainer container = factory.createListenerContainer(endpoint);
+
+        assertEquals(6, ReflectionTestUtils.getField(container, "maxConcurrentConsumers"));
+    }
+
+    @Test
+    void testRentalEventsBatchContainerFactory_consumesBatchesWithManualAcks() {
+        SimpleRabbitListenerContainerFactory factory = paymentRabbitMQConfig.rentalEventsBatchContainerFactory(
+                new SimpleRabbitListenerContainerFactoryConfigurer(new RabbitProperties()),
+                Mockito.mock(ConnectionFactory.class), 4, 8, 100, Duration.ofMillis(500));
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setQueueNames(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME);
+        endpoint.setMessageListener(message -> { });
+
+        SimpleMessageListenerContainer container = factory.createListenerContainer(endpoint);
+
+        assertEquals(AcknowledgeMode.MANUAL, container.getAcknowledgeMode());
+        assertEquals(true, ReflectionTestUtils.getField(container, "consumerBatchEnabled"));
+        assertEquals(100, ReflectionTestUtils.getField(container, "batchSize"));
+        assertEquals(100, ReflectionTestUtils.getField(container, "prefetchCount"));
+        assertEquals(500L, ReflectionTestUtils.getField(container, "receiveTimeout"));
+    }
+
+    @Test
+    void testRentalEventsContainerFactories_keepTheConfigurersVirtualThreadExecutor() {
+        // With spring.threads.virtual.enabled Boot hands the configurer a virtual-thread executor
+        SimpleRabbitListenerContainerFactoryConfigurer configurer =
+                new SimpleRabbitListenerContainerFactoryConfigurer(new RabbitProperties());
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor("rabbit-simple-");
+        configurer.setTaskExecutor(executor);
+        ConnectionFactory connectionFactory = Mockito.mock(ConnectionFactory.class);
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setQueueNames(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME);
+        endpoint.setMessageListener(message -> { });
+
+        SimpleMessageListenerContainer container = paymentRabbitMQConfig
+                .rentalEventsContainerFactory(configurer, connectionFactory, 4, 8, 10)
+                .createListenerContainer(endpoint);
+        SimpleMessageListenerContainer batchContainer = paymentRabbitMQConfig
+                .rentalEventsBatchContainerFactory(configurer, connectionFactory, 4, 8, 100, Duration.ofMillis(500))
+                .createListenerContainer(endpoint);
+
+        assertSame(executor, ReflectionTestUtils.getField(container, "taskExecutor"));
+        assertSame(executor, ReflectionTestUtils.getField(batchContainer, "taskExecutor"));
     }
 
     @Test
@@ -54,6 +161,26 @@ class PaymentRabbitMQConfigTest {
         assertEquals(PaymentRabbitMQConfig.ROUTING_KEY_RENTAL_CREATED, binding.getRoutingKey(), "Binding routing key should match the constant.");
     }
 
+    @Test
+    void testRentalCacheInvalidationQueueBean() {
+        Queue queue = paymentRabbitMQConfig.rentalCacheInvalidationQueue();
+        assertNotNull(queue, "Invalidation queue bean should not be null.");
+        assertFalse(queue.isDurable(), "Per-instance invalidation queue should not be durable.");
+        assertTrue(queue.isAutoDelete(), "Per-instance invalidation queue should be auto-delete.");
+        assertTrue(queue.isExclusive(), "Per-instance invalidation queue should be exclusive.");
+    }
+
+    @Test
+    void testRentalCacheInvalidationBindingBean() {
+        Queue queue = paymentRabbitMQConfig.rentalCacheInvalidationQueue();
+        TopicExchange exchange = new TopicExchange(PaymentRabbitMQConfig.TOPIC_EXCHANGE_NAME);
+
+        Binding binding = paymentRabbitMQConfig.rentalCacheInvalidationBinding(queue, exchange);
+        assertEquals(queue.getName(), binding.getDestination(), "Binding destination should be the invalidation queue.");
+        assertEquals(PaymentRabbitMQConfig.TOPIC_EXCHANGE_NAME, binding.getExchange(), "Binding exchange should be the rental topic exchange name.");
+        assertEquals(PaymentRabbitMQConfig.ROUTING_KEY_RENTAL_ALL, binding.getRoutingKey(), "Invalidation queue should receive every rental event.");
+    }
+
     @Test
     void testJsonMessageConverterBean() {
         MessageConverter converter = paymentRabbitMQConfig.jsonMessageConverter();
@@ -0,0 +1,48 @@
+package id.ac.ui.cs.advprog.papikos.payment.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReadReplicaRoutingDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaDataSourceConfigTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class))
+            .withUserConfiguration(ReplicaDataSourceConfig.class)
+            .withBean(MeterRegistry.class, SimpleMeterRegistry::new)
+            .withPropertyValues(
+                    "spring.datasource.url=jdbc:h2:mem:replica-config-primary;DB_CLOSE_DELAY=-1",
+                    "spring.datasource.username=sa");
+
+    @Test
+    void withoutReplicaUrls_keepsSinglePool() {
+        contextRunner.withPropertyValues("datasource.replica.urls=").run(context -> {
+            assertInstanceOf(HikariDataSource.class, context.getBean(DataSource.class));
+            assertFalse(context.containsBean("readReplicaRoutingDataSource"));
+        });
+    }
+
+    @Test
+    void withReplicaUrls_routesThroughLazyProxy() {
+        contextRunner.withPropertyValues(
+                "datasource.replica.urls=jdbc:h2:mem:replica-config-a;DB_CLOSE_DELAY=-1, jdbc:h2:mem:replica-config-b;DB_CLOSE_DELAY=-1",
+                "datasource.replica.maximum-pool-size=2"
+        ).run(context -> {
+            DataSource dataSource = context.getBean(DataSource.class);
+            LazyConnectionDataSourceProxy proxy = assertInstanceOf(LazyConnectionDataSourceProxy.class, dataSource);
+            assertInstanceOf(ReadReplicaRoutingDataSource.class, proxy.getTargetDataSource());
+            assertEquals("primary", context.getBean("primaryDataSource", HikariDataSource.class).getPoolName());
+            assertEquals(2, ((ReadReplicaRoutingDataSource) proxy.getTargetDataSource()).getResolvedDataSources().size() - 1);
+        });
+    }
+}
@@ -0,0 +1,70 @@
+package id.ac.ui.cs.advprog.papikos.payment.config;
+
+import id.ac.ui.cs.advprog.papikos.payment.security.CoalescingTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.JwkSetProvider;
+import id.ac.ui.cs.advprog.papikos.payment.security.JwtTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.RemoteTokenVerifier;
+import id.ac.ui.cs.advprog.papikos.payment.security.TokenVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.web.client.RestTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TokenVerificationConfigTest {
+
+    private TokenVerificationConfig config;
+    private RemoteTokenVerifier remoteTokenVerifier;
+
+    @BeforeEach
+    void setUp() {
+        config = new TokenVerificationConfig();
+        remoteTokenVerifier = mock(RemoteTokenVerifier.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ObjectProvider<T> providerOf(T value) {
+        ObjectProvider<T> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(value);
+        return provider;
+    }
+
+    @Test
+    void testTokenVerifier_withoutJwtDecoder_usesCoalescedRemoteVerifier() throws Exception {
+        TokenVerifier verifier = config.tokenVerifier(remoteTokenVerifier, providerOf(null), new SimpleMeterRegistry());
+
+        assertInstanceOf(CoalescingTokenVerifier.class, verifier);
+        verifier.verify("token");
+        verify(remoteTokenVerifier).verify("token");
+    }
+
+    @Test
+    void testTokenVerifier_withJwtDecoder_usesJwtVerifier() {
+        TokenVerifier verifier = config.tokenVerifier(remoteTokenVerifier, providerOf(mock(JwtDecoder.class)), new SimpleMeterRegistry());
+        assertInstanceOf(JwtTokenVerifier.class, verifier);
+    }
+
+    @Test
+    void testJwtDecoder_withSecret_buildsDecoder() {
+        JwtDecoder decoder = config.authTokenJwtDecoder("a-test-secret-that-is-at-least-thirty-two-bytes-long", providerOf(null));
+        assertNotNull(decoder);
+    }
+
+    @Test
+    void testJwtDecoder_withJwkSet_buildsDecoder() {
+        JwkSetProvider jwkSetProvider = new JwkSetProvider(mock(RestTemplate.class), "http://auth/jwks");
+        JwtDecoder decoder = config.authTokenJwtDecoder("", providerOf(jwkSetProvider));
+        assertNotNull(decoder);
+    }
+
+    @Test
+    void testJwtDecoder_withoutSecretOrJwkSet_failsFast() {
+        assertThrows(IllegalStateException.class, () -> config.authTokenJwtDecoder("", providerOf(null)));
+    }
+}
@@ -0,0 +1,299 @@
+package id.ac.ui.cs.advprog.papikos.payment.config;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jdk.jfr.consumer.RecordingStream;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.web.embedded.TomcatVirtualThreadsWebServerFactoryCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test of the request path with platform threads (Tomcat's default pool of {@value #TOMCAT_MAX_THREADS})
+ * and with virtual threads ({@code spring.threads.virtual.enabled}). Every request makes the two blocking calls
+ * of a payment: the token check through the pooled {@link RestTemplate} and the rental lookup through Feign's
+ * default client, each against a stub answering after {@link #BACKEND_LATENCY}. Reports throughput, how many
+ * requests were in flight at once, peak platform threads, peak heap (where virtual thread stacks live) and peak
+ * committed platform thread stacks (from native memory tracking). It fails if virtual threads get pinned to their
+ * carriers: parking while pinned shows up as a JFR event, waiting on a monitor (as httpclient5 5.3 did for a pooled
+ * connection) as extra carrier threads the JDK starts to compensate. Run with {@code gradle benchmarkTest}.
+ */
+@Tag("benchmark")
+class VirtualThreadBenchmarkTest {
+
+    private static final int CLIENTS = 1_000;
+    private static final int REQUESTS_PER_CLIENT = 3;
+    private static final int WARMUP_REQUESTS_PER_CLIENT = 1;
+    private static final int TOMCAT_MAX_THREADS = 200;
+    // Larger than the Tomcat pool so it only becomes the limit with virtual threads
+    private static final int HTTP_POOL_SIZE = 500;
+    // Long enough that the Tomcat pool, not the CPU, limits the platform-thread run on a small machine
+    private static final Duration BACKEND_LATENCY = Duration.ofMillis(500);
+    private static final Pattern NMT_THREAD_STACKS = Pattern.compile("- +Thread \\(reserved=\\d+KB, committed=(\\d+)KB\\)");
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private WebServer backend;
+    private HttpClient loadClient;
+    private ExecutorService loadExecutor;
+
+    @BeforeEach
+    void setUp() {
+        TomcatServletWebServerFactory factory = newTomcat(true);
+        backend = factory.getWebServer(servletContext -> servletContext
+                .addServlet("backend", new BackendServlet(inFlight, maxInFlight))
+                .addMapping("/*"));
+        backend.start();
+        loadExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        loadClient = HttpClient.newBuilder().executor(loadExecutor).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        loadClient.close();
+        loadExecutor.close();
+        backend.stop();
+    }
+
+    private static TomcatServletWebServerFactory newTomcat(boolean virtualThreads) {
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        factory.addConnectorCustomizers(connector -> {
+            connector.setProperty("acceptCount", "4096");
+            connector.setProperty("maxKeepAliveRequests", "-1");
+        });
+        if (virtualThreads) {
+            new TomcatVirtualThreadsWebServerFactoryCustomizer().customize(factory);
+        }
+        return factory;
+    }
+
+    @Test
+    void virtualThreads_versusPlatformThreads() throws Exception {
+        Result platform = run(false);
+        Result virtual = run(true);
+
+        System.out.printf("%d clients x %d requests, each request making two %d ms calls%n",
+                CLIENTS, REQUESTS_PER_CLIENT, BACKEND_LATENCY.toMillis());
+        System.out.printf("  %-28s %12s %12s %12s %12s %12s %8s%n",
+                "", "requests/s", "in flight", "threads", "heap MB", "stacks MB", "pinned");
+        print("platform threads (max " + TOMCAT_MAX_THREADS + ")", platform);
+        print("virtual threads", virtual);
+
+        assertEquals(0, platform.failures());
+        assertEquals(0, virtual.failures());
+        assertTrue(platform.maxInFlight() <= TOMCAT_MAX_THREADS, "Platform threads cap concurrent requests");
+        assertTrue(virtual.maxInFlight() > TOMCAT_MAX_THREADS, "Virtual threads are capped by the HTTP pool instead");
+        assertTrue(virtual.maxInFlight() <= HTTP_POOL_SIZE);
+        assertTrue(virtual.peakThreads() < platform.peakThreads(),
+                "Virtual threads need far fewer platform threads, unless blocked carriers had to be replaced");
+        assertTrue(virtual.requestsPerSecond() > platform.requestsPerSecond());
+        assertEquals(List.of(), virtual.pinnedAt(), "Virtual threads were pinned to their carrier");
+    }
+
+    private static void print(String mode, Result result) {
+        System.out.printf("  %-28s %,12.0f %12d %12d %,12.0f %12s %8d%n", mode, result.requestsPerSecond(),
+                result.maxInFlight(), result.peakThreads(), result.peakHeapBytes() / (1024.0 * 1024.0),
+                result.peakThreadStackBytes() < 0 ? "n/a" : String.format("%,.0f", result.peakThreadStackBytes() / (1024.0 * 1024.0)),
+                result.pinnedAt().size());
+        result.pinnedAt().stream().distinct().limit(5).forEach(frame -> System.out.println("    pinned at " + frame));
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        AppConfig appConfig = new AppConfig();
+        PoolingHttpClientConnectionManager connectionManager =
+                appConfig.httpClientConnectionManager(HTTP_POOL_SIZE, HTTP_POOL_SIZE, Duration.ofMinutes(5));
+        CloseableHttpClient httpClient =
+                appConfig.pooledHttpClient(connectionManager, Duration.ofSeconds(30), Duration.ofSeconds(10));
+        RestTemplate restTemplate = appConfig.restTemplate(appConfig.pooledClientHttpRequestFactory(httpClient));
+        Client feignClient = new Client.Default(null, null);
+
+        String backendUrl = "http://127.0.0.1:" + backend.getPort();
+        WebServer server = newTomcat(virtualThreads).getWebServer(servletContext -> servletContext
+                .addServlet("payment", new PaymentPathServlet(restTemplate, feignClient, backendUrl))
+                .addMapping("/*"));
+        server.start();
+        ConcurrentLinkedQueue<String> pinnedAt = new ConcurrentLinkedQueue<>();
+        try (RecordingStream pinning = new RecordingStream()) {
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ofMillis(5)).withStackTrace();
+            pinning.onEvent("jdk.VirtualThreadPinned", event -> pinnedAt.add(event.getStackTrace() == null
+                    ? "unknown" : event.getStackTrace().getFrames().stream()
+                    .filter(frame -> frame.isJavaFrame() && !frame.getMethod().getType().getName().startsWith("java."))
+                    .findFirst().map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName())
+                    .orElse("java.*")));
+            pinning.startAsync();
+
+            URI uri = URI.create("http://127.0.0.1:" + server.getPort() + "/pay");
+            load(uri, WARMUP_REQUESTS_PER_CLIENT);
+            System.gc();
+            maxInFlight.set(0);
+            return measure(uri, pinnedAt);
+        } finally {
+            server.stop();
+            httpClient.close();
+            connectionManager.close();
+        }
+    }
+
+    private Result measure(URI uri, Collection<String> pinnedAt) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicLong peakHeap = new AtomicLong();
+        AtomicLong peakThreadStacks = new AtomicLong(threadStackBytes());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max), 0, 10, TimeUnit.MILLISECONDS);
+        if (peakThreadStacks.get() >= 0) {
+            sampler.scheduleAtFixedRate(() -> peakThreadStacks.accumulateAndGet(threadStackBytes(), Math::max),
+                    0, 100, TimeUnit.MILLISECONDS);
+        }
+        try {
+            long startedAt = System.nanoTime();
+            int failures = load(uri, REQUESTS_PER_CLIENT);
+            double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+            // Give late pinning events a moment to be delivered
+            Thread.sleep(1_500);
+            return new Result(CLIENTS * REQUESTS_PER_CLIENT / seconds, maxInFlight.get(), threads.getPeakThreadCount(),
+                    peakHeap.get(), peakThreadStacks.get(), failures, new ArrayList<>(pinnedAt));
+        } finally {
+            sampler.shutdownNow();
+        }
+    }
+
+    // Committed memory of platform thread stacks, or -1 without -XX:NativeMemoryTracking (set by benchmarkTest)
+    private static long threadStackBytes() {
+        try {
+            String summary = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+                    new Object[]{new String[]{"summary"}}, new String[]{String[].class.getName()});
+            Matcher matcher = NMT_THREAD_STACKS.matcher(summary);
+            return matcher.find() ? Long.parseLong(matcher.group(1)) * 1024 : -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // Every client sends its requests one after another; returns the number of failed requests
+    private int load(URI uri, int requestsPerClient) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+        List<Future<Integer>> clients = new ArrayList<>(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.add(loadExecutor.submit(() -> {
+                int failed = 0;
+                for (int r = 0; r < requestsPerClient; r++) {
+                    HttpResponse<String> response = loadClient.send(request, HttpResponse.BodyHandlers.ofString());
+                    if (response.statusCode() != 200) {
+                        failed++;
+                    }
+                }
+                return failed;
+            }));
+        }
+        int failures = 0;
+        for (Future<Integer> client : clients) {
+            failures += client.get();
+        }
+        return failures;
+    }
+
+    private record Result(double requestsPerSecond, int maxInFlight, int peakThreads, long peakHeapBytes,
+                          long peakThreadStackBytes, int failures, List<String> pinnedAt) {
+    }
+
+    /** Auth and rental service stub; counts the auth calls in flight, i.e. the requests being served at once. */
+    private static class BackendServlet extends HttpServlet {
+
+        private final transient AtomicInteger inFlight;
+        private final transient AtomicInteger maxInFlight;
+
+        BackendServlet(AtomicInteger inFlight, AtomicInteger maxInFlight) {
+            this.inFlight = inFlight;
+            this.maxInFlight = maxInFlight;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            boolean auth = request.getRequestURI().startsWith("/auth");
+            if (auth) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            }
+            try {
+                Thread.sleep(BACKEND_LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (auth) {
+                    inFlight.decrementAndGet();
+                }
+            }
+            response.setContentType("application/json");
+            response.getWriter().write(auth ? "{\"status\":\"success\"}" : "{\"data\":{}}");
+        }
+    }
+
+    /** The blocking part of a payment request: verify the token, then look up the rental. */
+    private static class PaymentPathServlet extends HttpServlet {
+
+        private final transient RestTemplate restTemplate;
+        private final transient Client feignClient;
+        private final String backendUrl;
+
+        PaymentPathServlet(RestTemplate restTemplate, Client feignClient, String backendUrl) {
+            this.restTemplate = restTemplate;
+            this.feignClient = feignClient;
+            this.backendUrl = backendUrl;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            restTemplate.getForObject(backendUrl + "/auth", String.class);
+            Request rentalRequest = Request.create(Request.HttpMethod.GET, backendUrl + "/rentals/1", Map.of(), null,
+                    StandardCharsets.UTF_8, null);
+            try (Response rental = feignClient.execute(rentalRequest, new Request.Options());
+                 InputStream body = rental.body().asInputStream()) {
+                body.readAllBytes();
+            }
+            response.setContentType("text/plain");
+            response.getWriter().write("ok");
+        }
+    }
+}
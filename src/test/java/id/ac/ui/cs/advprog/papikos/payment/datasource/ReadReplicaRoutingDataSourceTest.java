@@ -0,0 +1,114 @@
+package id.ac.ui.cs.advprog.papikos.payment.datasource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routes against two (or three) separate in-memory H2 databases, each holding a marker row naming itself.
+ */
+class ReadReplicaRoutingDataSourceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+    private ReplicaLagGuard replicaLagGuard;
+
+    private static DataSource h2(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + name + "-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE marker (name VARCHAR(20))");
+        jdbc.update("INSERT INTO marker VALUES (?)", name);
+        return dataSource;
+    }
+
+    private void route(DataSource primary, List<DataSource> replicas) {
+        DataSource dataSource = new LazyConnectionDataSourceProxy(new ReadReplicaRoutingDataSource(primary, replicas));
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    private String marker() {
+        return jdbcTemplate.queryForObject("SELECT name FROM marker", String.class);
+    }
+
+    @BeforeEach
+    void setUp() {
+        route(h2("primary"), List.of(h2("replica")));
+        replicaLagGuard = new ReplicaLagGuard(Duration.ofMinutes(1), 100);
+    }
+
+    @Test
+    void readWriteTransaction_usesPrimary() {
+        assertEquals("primary", readWrite.execute(status -> marker()));
+    }
+
+    @Test
+    void readOnlyTransaction_usesReplica() {
+        assertEquals("replica", readOnly.execute(status -> marker()));
+    }
+
+    @Test
+    void withoutTransaction_usesPrimary() {
+        assertEquals("primary", marker());
+    }
+
+    @Test
+    void readOnlyTransaction_afterUsersOwnWrite_isPinnedToPrimary() {
+        UUID writer = UUID.randomUUID();
+        readWrite.executeWithoutResult(status -> replicaLagGuard.recordWrite(writer));
+
+        assertEquals("primary", readOnly.execute(status -> {
+            replicaLagGuard.routeReadsFor(writer);
+            return marker();
+        }));
+        // The pin ends with the transaction and does not apply to other users
+        assertEquals("replica", readOnly.execute(status -> {
+            replicaLagGuard.routeReadsFor(UUID.randomUUID());
+            return marker();
+        }));
+    }
+
+    @Test
+    void readOnlyTransaction_afterRolledBackWrite_usesReplica() {
+        UUID writer = UUID.randomUUID();
+        readWrite.executeWithoutResult(status -> {
+            replicaLagGuard.recordWrite(writer);
+            status.setRollbackOnly();
+        });
+
+        assertEquals("replica", readOnly.execute(status -> {
+            replicaLagGuard.routeReadsFor(writer);
+            return marker();
+        }));
+    }
+
+    @Test
+    void readOnlyTransactions_roundRobinAcrossReplicas() {
+        route(h2("primary"), List.of(h2("replica-a"), h2("replica-b")));
+
+        assertEquals("replica-a", readOnly.execute(status -> marker()));
+        assertEquals("replica-b", readOnly.execute(status -> marker()));
+        assertEquals("replica-a", readOnly.execute(status -> marker()));
+    }
+
+    @Test
+    void constructor_withoutReplicas_isRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ReadReplicaRoutingDataSource(h2("primary"), List.of()));
+    }
+}
@@ -0,0 +1,102 @@
+package id.ac.ui.cs.advprog.papikos.payment.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaLagGuardTest {
+
+    private final UUID userId = UUID.randomUUID();
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private void completeTransaction(boolean committed) {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (committed) {
+                synchronization.afterCommit();
+            }
+            synchronization.afterCompletion(committed
+                    ? TransactionSynchronization.STATUS_COMMITTED
+                    : TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void routeReadsFor_recentWriter_pinsUntilTransactionCompletes() {
+        ReplicaLagGuard guard = new ReplicaLagGuard(Duration.ofMinutes(1), 100);
+        guard.recordWrite(userId);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.routeReadsFor(userId);
+        assertTrue(ReplicaLagGuard.isPinnedToPrimary());
+
+        completeTransaction(true);
+        assertFalse(ReplicaLagGuard.isPinnedToPrimary());
+    }
+
+    @Test
+    void routeReadsFor_unknownUser_doesNotPin() {
+        ReplicaLagGuard guard = new ReplicaLagGuard(Duration.ofMinutes(1), 100);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.routeReadsFor(userId);
+
+        assertFalse(ReplicaLagGuard.isPinnedToPrimary());
+    }
+
+    @Test
+    void routeReadsFor_outsideTransaction_doesNotPin() {
+        ReplicaLagGuard guard = new ReplicaLagGuard(Duration.ofMinutes(1), 100);
+        guard.recordWrite(userId);
+
+        guard.routeReadsFor(userId);
+
+        assertFalse(ReplicaLagGuard.isPinnedToPrimary());
+    }
+
+    @Test
+    void recordWrite_insideTransaction_takesEffectOnCommitOnly() {
+        ReplicaLagGuard guard = new ReplicaLagGuard(Duration.ofMinutes(1), 100);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.recordWrite(userId);
+        completeTransaction(false);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.routeReadsFor(userId);
+        assertFalse(ReplicaLagGuard.isPinnedToPrimary());
+        completeTransaction(true);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.recordWrite(userId);
+        completeTransaction(true);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.routeReadsFor(userId);
+        assertTrue(ReplicaLagGuard.isPinnedToPrimary());
+        completeTransaction(true);
+    }
+
+    @Test
+    void zeroWindow_neverPins() {
+        ReplicaLagGuard guard = new ReplicaLagGuard(Duration.ZERO, 100);
+        guard.recordWrite(userId);
+
+        TransactionSynchronizationManager.initSynchronization();
+        guard.routeReadsFor(userId);
+
+        assertFalse(ReplicaLagGuard.isPinnedToPrimary());
+    }
+}
@@ -0,0 +1,45 @@
+package id.ac.ui.cs.advprog.papikos.payment.dto;
+
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionCursorTest {
+
+    @Test
+    void encodeThenDecode_roundTrips() {
+        TransactionCursor cursor = new TransactionCursor(LocalDateTime.of(2024, 5, 1, 10, 15, 30, 123456000), UUID.randomUUID());
+
+        assertEquals(cursor, TransactionCursor.decode(cursor.encode()));
+    }
+
+    @Test
+    void encode_isUrlSafe() {
+        String encoded = new TransactionCursor(LocalDateTime.now(), UUID.randomUUID()).encode();
+
+        assertTrue(encoded.matches("[A-Za-z0-9_-]+"), encoded);
+    }
+
+    @Test
+    void decode_missingCursor_returnsNull() {
+        assertNull(TransactionCursor.decode(null));
+        assertNull(TransactionCursor.decode(" "));
+    }
+
+    @Test
+    void decode_garbage_throwsInvalidOperationException() {
+        assertThrows(InvalidOperationException.class, () -> TransactionCursor.decode("not a cursor!"));
+        String noSeparator = Base64.getUrlEncoder().encodeToString("2024-05-01T10:15:30".getBytes(StandardCharsets.UTF_8));
+        assertThrows(InvalidOperationException.class, () -> TransactionCursor.decode(noSeparator));
+        String badUuid = Base64.getUrlEncoder().encodeToString("2024-05-01T10:15:30|nope".getBytes(StandardCharsets.UTF_8));
+        assertThrows(InvalidOperationException.class, () -> TransactionCursor.decode(badUuid));
+        String badDate = Base64.getUrlEncoder().encodeToString(("yesterday|" + UUID.randomUUID()).getBytes(StandardCharsets.UTF_8));
+        assertThrows(InvalidOperationException.class, () -> TransactionCursor.decode(badDate));
+    }
+}
@@ -0,0 +1,27 @@
+package id.ac.ui.cs.advprog.papikos.payment.exception;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyKeyConflictExceptionTest {
+
+    @Test
+    void testExceptionCreationWithMessage() {
+        IdempotencyKeyConflictException exception = new IdempotencyKeyConflictException("Key reused.");
+
+        assertEquals("Key reused.", exception.getMessage());
+        assertInstanceOf(RuntimeException.class, exception);
+    }
+
+    @Test
+    void testExceptionMapsToConflictStatus() {
+        ResponseStatus status = AnnotatedElementUtils.findMergedAnnotation(IdempotencyKeyConflictException.class, ResponseStatus.class);
+
+        assertNotNull(status);
+        assertEquals(HttpStatus.CONFLICT, status.code());
+    }
+}
@@ -0,0 +1,65 @@
+package id.ac.ui.cs.advprog.papikos.payment.listener;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.apache.qpid.server.SystemLauncher;
+import org.apache.qpid.server.model.SystemConfig;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory Qpid Broker-J speaking AMQP 0-9-1 on a free local port, standing in for RabbitMQ in listener tests
+ * and the load-test harness.
+ * Qpid does not implement RabbitMQ's {@code x-dead-letter-*} queue arguments; they are accepted and ignored, and a
+ * message rejected without requeue is dropped instead of being routed to the dead-letter queue.
+ */
+public class EmbeddedAmqpBroker implements AutoCloseable {
+
+    private final SystemLauncher launcher = new SystemLauncher();
+    private final int port;
+
+    public EmbeddedAmqpBroker() throws Exception {
+        ((Logger) LoggerFactory.getLogger("org.apache.qpid")).setLevel(Level.WARN);
+        port = freePort();
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(SystemConfig.TYPE, "Memory");
+        attributes.put(SystemConfig.INITIAL_CONFIGURATION_LOCATION,
+                Objects.requireNonNull(getClass().getResource("/qpid/embedded-broker.json")).toExternalForm());
+        attributes.put(SystemConfig.STARTUP_LOGGED_TO_SYSTEM_OUT, false);
+        attributes.put(SystemConfig.CONTEXT, Map.of("qpid.amqp_port", String.valueOf(port),
+                "qpid.work_dir", System.getProperty("java.io.tmpdir") + "/qpid-" + port,
+                "queue.behaviourOnUnknownDeclareArgument", "IGNORE",
+                // Without a delivery limit Qpid keeps rejected messages for other consumers; with a limit of one,
+                // basic.reject(requeue=false) removes them as RabbitMQ does (basic.nack with requeue still requeues)
+                "queue.maximumDeliveryAttempts", "1"));
+        launcher.startup(attributes);
+    }
+
+    public int port() {
+        return port;
+    }
+
+    CachingConnectionFactory connectionFactory() {
+        CachingConnectionFactory connectionFactory = new CachingConnectionFactory("localhost", port);
+        connectionFactory.setUsername("guest");
+        connectionFactory.setPassword("guest");
+        return connectionFactory;
+    }
+
+    @Override
+    public void close() {
+        launcher.shutdown();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package id.ac.ui.cs.advprog.papikos.payment.listener;
+
+import id.ac.ui.cs.advprog.papikos.payment.config.PaymentRabbitMQConfig;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.EnableRabbit;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs {@link PaymentEventListener} in the container from {@link PaymentRabbitMQConfig} against an embedded
+ * AMQP broker, with a stand-in {@link PaymentService}. The throughput comparison is tagged "benchmark"; run it
+ * with {@code gradle benchmarkTest}.
+ */
+class PaymentEventListenerBrokerTest {
+
+    private static EmbeddedAmqpBroker broker;
+
+    private CachingConnectionFactory connectionFactory;
+    private RabbitTemplate rabbitTemplate;
+    private RabbitAdmin rabbitAdmin;
+    private PaymentService paymentService;
+    private AnnotationConfigApplicationContext listenerContext;
+
+    @Configuration
+    @EnableRabbit
+    @Import({PaymentRabbitMQConfig.class, PaymentEventListener.class})
+    static class ListenerConfig {
+
+        @Bean
+        SimpleRabbitListenerContainerFactoryConfigurer simpleRabbitListenerContainerFactoryConfigurer() {
+            return new SimpleRabbitListenerContainerFactoryConfigurer(new RabbitProperties());
+        }
+
+        @Bean
+        RabbitAdmin rabbitAdmin(ConnectionFactory connectionFactory) {
+            return new RabbitAdmin(connectionFactory);
+        }
+    }
+
+    @BeforeAll
+    static void startBroker() throws Exception {
+        broker = new EmbeddedAmqpBroker();
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        broker.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        connectionFactory = broker.connectionFactory();
+        rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
+        rabbitAdmin = new RabbitAdmin(connectionFactory);
+        PaymentRabbitMQConfig config = new PaymentRabbitMQConfig();
+        rabbitAdmin.declareQueue(config.paymentQueue());
+        rabbitAdmin.purgeQueue(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME, false);
+        paymentService = mock(PaymentService.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (listenerContext != null) {
+            listenerContext.close();
+        }
+        connectionFactory.destroy();
+    }
+
+    private void startListener(int concurrency, int prefetch) {
+        startListener(Map.of(
+                "rental.events.listener.concurrency", concurrency,
+                "rental.events.listener.max-concurrency", concurrency,
+                "rental.events.listener.prefetch", prefetch));
+    }
+
+    private void startBatchListener(int batchSize) {
+        startListener(Map.of(
+                "rental.events.listener.concurrency", 1,
+                "rental.events.listener.max-concurrency", 1,
+                "rental.events.listener.batch.enabled", true,
+                "rental.events.listener.batch.size", batchSize,
+                "rental.events.listener.batch.receive-timeout", "PT0.2S"));
+    }
+
+    private void startListener(Map<String, Object> properties) {
+        listenerContext = new AnnotationConfigApplicationContext();
+        // As in the application, so that @Value can bind durations such as PT0.2S
+        listenerContext.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+        listenerContext.getEnvironment().getPropertySources().addFirst(new MapPropertySource("listener", properties));
+        listenerContext.registerBean(ConnectionFactory.class, broker::connectionFactory);
+        listenerContext.registerBean(PaymentService.class, () -> paymentService);
+        listenerContext.register(ListenerConfig.class);
+        listenerContext.refresh();
+    }
+
+    private RentalEvent rentalCreated() {
+        return new RentalEvent(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "kos-1",
+                UUID.randomUUID().toString(), LocalDate.now(), new BigDecimal("1500000.00"), "BOOKING_INITIATED");
+    }
+
+    private void publish(Object event) {
+        rabbitTemplate.convertAndSend(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME, event);
+    }
+
+    // Counts charges; each one takes chargeMillis, as a charge's database round-trips would
+    private CountDownLatch chargesTaking(long chargeMillis, int expected) {
+        CountDownLatch charged = new CountDownLatch(expected);
+        when(paymentService.chargeForRental(any(), any(), any(), any())).thenAnswer(invocation -> {
+            if (chargeMillis > 0) {
+                Thread.sleep(chargeMillis);
+            }
+            charged.countDown();
+            return charge(invocation);
+        });
+        return charged;
+    }
+
+    private static TransactionDto charge(InvocationOnMock chargeForRental) {
+        UUID rentalId = chargeForRental.getArgument(0);
+        UUID tenantId = chargeForRental.getArgument(1);
+        UUID ownerId = chargeForRental.getArgument(2);
+        return new TransactionDto(UUID.randomUUID(), tenantId, TransactionType.PAYMENT, chargeForRental.getArgument(3),
+                TransactionStatus.COMPLETED, rentalId, tenantId, ownerId, null, LocalDateTime.now(), LocalDateTime.now());
+    }
+
+    // Once the consumers are gone, unacknowledged messages are back in the queue, so an empty queue means every
+    // message was acked or rejected without requeue
+    private void assertQueueEmptyAfterStop() {
+        listenerContext.close();
+        listenerContext = null;
+        assertEquals(0, rabbitAdmin.getQueueInfo(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME).getMessageCount(),
+                "every message should have been acked or rejected");
+    }
+
+    @Test
+    void chargesEveryPublishedRentalAndAcksIt() throws Exception {
+        CountDownLatch charged = chargesTaking(0, 50);
+        startListener(4, 10);
+
+        for (int i = 0; i < 50; i++) {
+            publish(rentalCreated());
+        }
+
+        assertTrue(charged.await(10, TimeUnit.SECONDS), "all rentals should be charged");
+        assertQueueEmptyAfterStop();
+        verify(paymentService, times(50)).chargeForRental(any(), any(), any(), any());
+    }
+
+    @Test
+    void rejectsPoisonMessagesWithoutRequeueingThem() throws Exception {
+        CountDownLatch charged = chargesTaking(0, 1);
+        // One consumer takes the messages in order, so the poison ones are settled once the last one is charged
+        startListener(1, 10);
+
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        rabbitTemplate.send(PaymentRabbitMQConfig.PAYMENT_QUEUE_NAME,
+                new Message("{not json".getBytes(StandardCharsets.UTF_8), properties));
+        RentalEvent malformed = rentalCreated();
+        malformed.setUserId("not-a-uuid");
+        publish(malformed);
+        publish(rentalCreated());
+
+        assertTrue(charged.await(10, TimeUnit.SECONDS), "a valid rental behind poison messages should still be charged");
+        assertQueueEmptyAfterStop();
+        verify(paymentService, times(1)).chargeForRental(any(), any(), any(), any());
+    }
+
+    @Test
+    void retriesTransientFailureOnce() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch charged = new CountDownLatch(1);
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenAnswer(invocation -> {
+                    attempts.incrementAndGet();
+                    throw new QueryTimeoutException("lock timeout");
+                })
+                .thenAnswer(invocation -> {
+                    attempts.incrementAndGet();
+                    charged.countDown();
+                    return charge(invocation);
+                });
+        startListener(1, 1);
+
+        publish(rentalCreated());
+
+        assertTrue(charged.await(10, TimeUnit.SECONDS), "the requeued message should be charged on redelivery");
+        assertQueueEmptyAfterStop();
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void batchModeChargesEachBatchInOneCallAndSettlesEveryMessage() throws Exception {
+        AtomicInteger batches = new AtomicInteger();
+        CountDownLatch charged = new CountDownLatch(25);
+        when(paymentService.chargeForRentals(any())).thenAnswer(invocation -> {
+            List<RentalCharge> charges = invocation.getArgument(0);
+            batches.incrementAndGet();
+            charges.forEach(charge -> charged.countDown());
+            return charges.stream().map(charge -> RentalChargeResult.charged(new TransactionDto(UUID.randomUUID(),
+                    charge.tenantUserId(), TransactionType.PAYMENT, charge.amount(), TransactionStatus.COMPLETED,
+                    charge.rentalId(), charge.tenantUserId(), charge.ownerUserId(), null, LocalDateTime.now(),
+                    LocalDateTime.now()))).toList();
+        });
+        for (int i = 0; i < 25; i++) {
+            publish(rentalCreated());
+        }
+        RentalEvent malformed = rentalCreated();
+        malformed.setKosOwnerId("not-a-uuid");
+        publish(malformed);
+
+        startBatchListener(10);
+
+        assertTrue(charged.await(10, TimeUnit.SECONDS), "all rentals should be charged");
+        assertQueueEmptyAfterStop();
+        assertTrue(batches.get() <= 5, "25 messages should arrive in a few batches, not one by one: " + batches.get());
+        verify(paymentService, never()).chargeForRental(any(), any(), any(), any());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void throughputScalesWithConcurrentConsumers() throws Exception {
+        int messages = 500;
+        long chargeMillis = 10;
+
+        double single = drain(messages, chargeMillis, 1, 1);
+        double concurrent = drain(messages, chargeMillis, 8, 10);
+
+        System.out.printf("rental.created consumers (%d messages, %d ms per charge): 1 consumer %.0f msg/s, "
+                + "8 consumers (prefetch 10) %.0f msg/s%n", messages, chargeMillis, single, concurrent);
+        assertTrue(concurrent > single * 4, "8 consumers should drain the queue at least 4x faster than 1");
+    }
+
+    // Publishes the messages before the listener starts, then times draining the queue
+    private double drain(int messages, long chargeMillis, int concurrency, int prefetch) throws Exception {
+        reset(paymentService);
+        CountDownLatch charged = chargesTaking(chargeMillis, messages);
+        for (int i = 0; i < messages; i++) {
+            publish(rentalCreated());
+        }
+        long start = System.nanoTime();
+        startListener(concurrency, prefetch);
+        assertTrue(charged.await(2, TimeUnit.MINUTES), "queue should drain");
+        double seconds = (System.nanoTime() - start) / 1e9;
+        listenerContext.close();
+        listenerContext = null;
+        return messages / seconds;
+    }
+}
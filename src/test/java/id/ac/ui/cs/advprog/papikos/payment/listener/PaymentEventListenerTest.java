@@ -1,133 +1,249 @@
 package id.ac.ui.cs.advprog.papikos.payment.listener;
 
+import com.rabbitmq.client.Channel;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
 import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
-import org.junit.jupiter.api.AfterEach;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-// SLF4J Test (Optional, for asserting log messages if needed, requires additional setup)
-// import uk.org.lidalia.slf4jtest.TestLogger;
-// import uk.org.lidalia.slf4jtest.TestLoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.dao.QueryTimeoutException;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-// Note: RentalEvent uses String for IDs, not UUID, so adjust sample data.
-// If your RentalEvent was updated to use UUIDs, this test needs to match.
-// Based on your provided RentalEvent code, IDs are Strings.
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
 
-import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class PaymentEventListenerTest {
 
-    // To test logging more thoroughly, you'd use a test logger.
-    // Example (requires slf4j-test dependency and setup):
-    // TestLogger logger = TestLoggerFactory.getTestLogger(PaymentEventListener.class);
+    private static final long DELIVERY_TAG = 42L;
+
+    @Mock
+    private PaymentService paymentService;
+
+    @Mock
+    private Channel channel;
+
+    private final Jackson2JsonMessageConverter messageConverter = new Jackson2JsonMessageConverter();
 
-    @InjectMocks
     private PaymentEventListener paymentEventListener;
 
+    private UUID rentalId;
+    private UUID tenantId;
+    private UUID ownerId;
     private RentalEvent sampleEvent;
-    private String rentalIdStr;
-    private String userIdStr;
-    private String kosIdStr;
-    private String kosOwnerIdStr;
 
     @BeforeEach
     void setUp() {
-        rentalIdStr = "rental-event-id-123";
-        userIdStr = "user-event-id-456";
-        kosIdStr = "kos-event-id-789";
-        kosOwnerIdStr = "owner-event-id-000";
+        paymentEventListener = new PaymentEventListener(paymentService, messageConverter);
+        rentalId = UUID.randomUUID();
+        tenantId = UUID.randomUUID();
+        ownerId = UUID.randomUUID();
+        sampleEvent = new RentalEvent(rentalId.toString(), tenantId.toString(), "kos-event-id-789", ownerId.toString(),
+                LocalDate.now(), new BigDecimal("100.00"), "BOOKING_INITIATED");
+    }
+
+    private TransactionDto charge() {
+        return new TransactionDto(UUID.randomUUID(), tenantId, TransactionType.PAYMENT, new BigDecimal("100.00"),
+                TransactionStatus.COMPLETED, rentalId, tenantId, ownerId, null, LocalDateTime.now(), LocalDateTime.now());
+    }
+
+    @Test
+    void testHandleRentalCreatedEvent_chargesTenantAndAcks() throws IOException {
+        when(paymentService.chargeForRental(rentalId, tenantId, ownerId, new BigDecimal("100.00"))).thenReturn(charge());
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
+
+        verify(paymentService).chargeForRental(rentalId, tenantId, ownerId, new BigDecimal("100.00"));
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    void testHandleRentalCreatedEvent_insufficientBalance_acksBecauseFailureWasRecorded() throws IOException {
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenThrow(new InsufficientBalanceException("Insufficient balance"));
 
-        sampleEvent = new RentalEvent(
-                rentalIdStr,
-                userIdStr,
-                kosIdStr,
-                kosOwnerIdStr,
-                LocalDate.now(),
-                new BigDecimal("100.00"),
-                "BOOKING_INITIATED"
-        );
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
 
-        // Clear any static state from previous tests if using TestLoggerFactory
-        // TestLoggerFactory.clear();
+        verify(channel).basicAck(DELIVERY_TAG, false);
+        verifyNoMoreInteractions(channel);
     }
 
-    @AfterEach
-    void tearDown() {
-        // TestLoggerFactory.clear();
+    @Test
+    void testHandleRentalCreatedEvent_invalidCharge_deadLetters() throws IOException {
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenThrow(new InvalidOperationException("Rental price must be positive."));
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
+
+        verify(channel).basicReject(DELIVERY_TAG, false);
+        verifyNoMoreInteractions(channel);
     }
 
+    @Test
+    void testHandleRentalCreatedEvent_conflictingCharge_deadLetters() throws IOException {
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenThrow(new IdempotencyKeyConflictException("Different request"));
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
+
+        verify(channel).basicReject(DELIVERY_TAG, false);
+    }
 
     @Test
-    void testHandleRentalCreatedEvent_executesWithoutError() {
-        // This test primarily ensures the method logic runs without unexpected exceptions.
-        assertDoesNotThrow(() -> paymentEventListener.handleRentalCreatedEvent(sampleEvent),
-                "handleRentalCreatedEvent should process a valid event without throwing an error.");
+    void testHandleRentalCreatedEvent_malformedIds_deadLettersWithoutCharging() throws IOException {
+        sampleEvent.setKosOwnerId("owner-event-id-000");
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
 
-        // If you were using a TestLogger, you could assert log messages here:
-        // List<LoggingEvent> events = logger.getLoggingEvents();
-        // assertTrue(events.stream().anyMatch(e -> e.getMessage().contains("Received rental.created event")));
-        // assertTrue(events.stream().anyMatch(e -> e.getMessage().contains("Processing payment for rentalId: " + rentalIdStr)));
-        // assertTrue(events.stream().anyMatch(e -> e.getMessage().contains("Payment successful for rentalId: " + rentalIdStr)));
+        verifyNoInteractions(paymentService);
+        verify(channel).basicReject(DELIVERY_TAG, false);
     }
 
     @Test
-    void testHandleRentalCreatedEvent_simulatesProcessingDelay() {
-        long startTime = System.currentTimeMillis();
-        paymentEventListener.handleRentalCreatedEvent(sampleEvent);
-        long endTime = System.currentTimeMillis();
-        long duration = endTime - startTime;
+    void testHandleRentalCreatedEvent_missingTenant_deadLettersWithoutCharging() throws IOException {
+        sampleEvent.setUserId(null);
 
-        // Check that Thread.sleep(200) had an effect.
-        // Allow some margin for overhead.
-        assertTrue(duration >= 190 && duration < 500, // Adjusted upper bound slightly
-                "Processing should take roughly 200ms due to Thread.sleep(200). Duration was: " + duration);
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
+
+        verifyNoInteractions(paymentService);
+        verify(channel).basicReject(DELIVERY_TAG, false);
     }
 
     @Test
-    void testHandleRentalCreatedEvent_whenInterrupted_reInterruptsThread() throws InterruptedException {
-        final Thread testThread = Thread.currentThread(); // The thread running this test method
-
-        Thread interruptingThread = new Thread(() -> {
-            try {
-                // Give the main logic a moment to enter the try block and potentially Thread.sleep()
-                Thread.sleep(50); // Shorter than the 200ms sleep in the listener
-                if (!testThread.isInterrupted()) { // Only interrupt if not already (e.g. by test framework)
-                    testThread.interrupt();
-                }
-            } catch (InterruptedException ignored) {
-                // This interrupting thread itself was interrupted, which is fine.
-            }
-        });
+    void testHandleRentalCreatedEvent_withNullEvent_deadLetters() throws IOException {
+        paymentEventListener.handleRentalCreatedEvent(null, channel, DELIVERY_TAG, false);
+
+        verifyNoInteractions(paymentService);
+        verify(channel).basicReject(DELIVERY_TAG, false);
+    }
+
+    @Test
+    void testHandleRentalCreatedEvent_transientFailure_requeuesFirstDelivery() throws IOException {
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenThrow(new QueryTimeoutException("lock timeout"));
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, false);
+
+        verify(channel).basicNack(DELIVERY_TAG, false, true);
+        verifyNoMoreInteractions(channel);
+    }
+
+    @Test
+    void testHandleRentalCreatedEvent_transientFailureOnRedelivery_deadLetters() throws IOException {
+        when(paymentService.chargeForRental(any(), any(), any(), any()))
+                .thenThrow(new QueryTimeoutException("lock timeout"));
+
+        paymentEventListener.handleRentalCreatedEvent(sampleEvent, channel, DELIVERY_TAG, true);
+
+        verify(channel).basicReject(DELIVERY_TAG, false);
+        verifyNoMoreInteractions(channel);
+    }
+
+    private RentalEvent event() {
+        return new RentalEvent(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "kos-event-id-789",
+                UUID.randomUUID().toString(), LocalDate.now(), new BigDecimal("100.00"), "BOOKING_INITIATED");
+    }
+
+    private Message message(Object event, long deliveryTag, boolean redelivered) {
+        MessageProperties properties = new MessageProperties();
+        properties.setDeliveryTag(deliveryTag);
+        properties.setRedelivered(redelivered);
+        return messageConverter.toMessage(event, properties);
+    }
 
-        // Clear interrupted status before starting the test logic in case it's already set
-        Thread.interrupted();
+    @Test
+    void testHandleRentalCreatedEvents_chargesBatchInOneCallAndAcksItOnce() throws IOException {
+        when(paymentService.chargeForRentals(anyList())).thenAnswer(invocation -> {
+            List<RentalCharge> charges = invocation.getArgument(0);
+            return charges.stream().map(c -> RentalChargeResult.charged(charge())).toList();
+        });
 
-        interruptingThread.start();
-        paymentEventListener.handleRentalCreatedEvent(sampleEvent); // This call will be interrupted
+        paymentEventListener.handleRentalCreatedEvents(
+                List.of(message(sampleEvent, 1, false), message(event(), 2, false), message(event(), 3, false)), channel);
 
-        // Wait for the interrupting thread to complete its action
-        interruptingThread.join(500); // Join with a timeout
+        verify(paymentService).chargeForRentals(argThat(charges -> charges.size() == 3
+                && charges.get(0).equals(new RentalCharge(rentalId, tenantId, ownerId, new BigDecimal("100.00")))));
+        verify(paymentService, never()).chargeForRental(any(), any(), any(), any());
+        verify(channel).basicAck(3, true);
+        verifyNoMoreInteractions(channel);
+    }
 
-        // After the method handles InterruptedException, it calls Thread.currentThread().interrupt() again.
-        // So, the interrupted status of the testThread should now be true.
-        assertTrue(testThread.isInterrupted(),
-                "The current thread should be re-interrupted after handling InterruptedException.");
+    @Test
+    void testHandleRentalCreatedEvents_settlesEachMessageOnItsOwnOutcome() throws IOException {
+        when(paymentService.chargeForRentals(anyList())).thenReturn(List.of(
+                RentalChargeResult.charged(charge()),
+                RentalChargeResult.failed(new InsufficientBalanceException("Insufficient balance")),
+                RentalChargeResult.failed(new QueryTimeoutException("lock timeout")),
+                RentalChargeResult.failed(new QueryTimeoutException("lock timeout")),
+                RentalChargeResult.failed(new IdempotencyKeyConflictException("Different request")),
+                RentalChargeResult.charged(charge())));
+        RentalEvent malformed = event();
+        malformed.setUserId("not-a-uuid");
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setDeliveryTag(8);
+
+        paymentEventListener.handleRentalCreatedEvents(List.of(
+                message(event(), 1, false), message(event(), 2, false), message(event(), 3, false),
+                message(event(), 4, true), message(event(), 5, false), message(malformed, 6, false),
+                message(event(), 7, false), new Message("{not json".getBytes(StandardCharsets.UTF_8), properties)), channel);
+
+        verify(paymentService).chargeForRentals(argThat(charges -> charges.size() == 6));
+        verify(channel).basicNack(3, false, true);
+        verify(channel).basicReject(4, false);
+        verify(channel).basicReject(5, false);
+        verify(channel).basicReject(6, false);
+        verify(channel).basicReject(8, false);
+        verify(channel).basicAck(7, true);
+        verifyNoMoreInteractions(channel);
+    }
 
-        // Clear the interrupted status for subsequent tests if any run in the same thread context (though JUnit usually isolates)
-        Thread.interrupted();
+    @Test
+    void testHandleRentalCreatedEvents_failedBatch_chargesMessagesOneByOne() throws IOException {
+        RentalEvent other = event();
+        when(paymentService.chargeForRentals(anyList())).thenThrow(new QueryTimeoutException("deadlock detected"));
+        when(paymentService.chargeForRental(rentalId, tenantId, ownerId, new BigDecimal("100.00"))).thenReturn(charge());
+        when(paymentService.chargeForRental(eq(UUID.fromString(other.getRentalId())), any(), any(), any()))
+                .thenThrow(new InvalidOperationException("Tenant and owner of a rental must differ."));
+
+        paymentEventListener.handleRentalCreatedEvents(List.of(message(sampleEvent, 1, false), message(other, 2, false)), channel);
+
+        verify(paymentService, times(2)).chargeForRental(any(), any(), any(), any());
+        verify(channel).basicReject(2, false);
+        verify(channel).basicAck(1, true);
+        verifyNoMoreInteractions(channel);
     }
 
     @Test
-    void testHandleRentalCreatedEvent_withNullEvent_throwsNullPointerException() {
-        // The current RentalEvent listener method directly accesses event fields (e.g., event.getRentalId()).
-        // If 'event' is null, this will cause a NullPointerException.
-        assertThrows(NullPointerException.class, () -> {
-            paymentEventListener.handleRentalCreatedEvent(null);
-        }, "Handling a null event should result in NullPointerException when accessing its fields.");
-    }
-}
\ No newline at end of file
+    void testHandleRentalCreatedEvents_onlyPoisonMessages_rejectsWithoutCharging() throws IOException {
+        sampleEvent.setRentalId(null);
+
+        paymentEventListener.handleRentalCreatedEvents(List.of(message(sampleEvent, 1, false)), channel);
+
+        verifyNoInteractions(paymentService);
+        verify(channel).basicReject(1, false);
+        verifyNoMoreInteractions(channel);
+    }
+}
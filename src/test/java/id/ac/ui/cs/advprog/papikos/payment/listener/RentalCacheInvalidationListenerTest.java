@@ -0,0 +1,52 @@
+package id.ac.ui.cs.advprog.papikos.payment.listener;
+
+import id.ac.ui.cs.advprog.papikos.payment.client.RentalDetailsCache;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RentalCacheInvalidationListenerTest {
+
+    @Mock
+    private RentalDetailsCache rentalDetailsCache;
+
+    @InjectMocks
+    private RentalCacheInvalidationListener listener;
+
+    private RentalEvent eventFor(String rentalId) {
+        return new RentalEvent(rentalId, "user-1", "kos-1", "owner-1", LocalDate.now(), new BigDecimal("100.00"), "CANCELLED");
+    }
+
+    @Test
+    void testHandleRentalEvent_invalidatesCachedRental() {
+        UUID rentalId = UUID.randomUUID();
+
+        listener.handleRentalEvent(eventFor(rentalId.toString()));
+
+        verify(rentalDetailsCache).invalidate(rentalId);
+    }
+
+    @Test
+    void testHandleRentalEvent_withNonUuidRentalId_isIgnored() {
+        assertDoesNotThrow(() -> listener.handleRentalEvent(eventFor("not-a-uuid")));
+        verifyNoInteractions(rentalDetailsCache);
+    }
+
+    @Test
+    void testHandleRentalEvent_withNullEventOrId_isIgnored() {
+        listener.handleRentalEvent(null);
+        listener.handleRentalEvent(eventFor(null));
+        verifyNoInteractions(rentalDetailsCache);
+    }
+}
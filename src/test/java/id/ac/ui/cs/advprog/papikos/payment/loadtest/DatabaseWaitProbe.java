@@ -0,0 +1,160 @@
+package id.ac.ui.cs.advprog.papikos.payment.loadtest;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Attributes database waits to the endpoint a request thread is serving: the time spent getting a connection from
+ * the pool, and the time spent in row-locking statements ({@code UPDATE}, {@code DELETE}, {@code MERGE},
+ * {@code INSERT ... ON CONFLICT}, {@code SELECT ... FOR UPDATE}). The latter is where a request waits for the row
+ * locks of concurrent transactions, so it is lock wait plus (usually short) execution time.
+ * <p>
+ * Registered as a bean it wraps the {@code dataSource} bean; {@link #endpointFilter()} tags request threads.
+ */
+public class DatabaseWaitProbe implements BeanPostProcessor {
+
+    private static final String API_PREFIX = "/api/v1/payment/";
+
+    private final ThreadLocal<String> currentEndpoint = new ThreadLocal<>();
+    private final Map<String, Waits> waits = new ConcurrentHashMap<>();
+
+    /** Accumulated waits of one endpoint. */
+    public static class Waits {
+        private final LongAdder poolWaitNanos = new LongAdder();
+        private final LongAdder lockingNanos = new LongAdder();
+        private final LongAdder lockingStatements = new LongAdder();
+
+        public long poolWaitNanos() {
+            return poolWaitNanos.sum();
+        }
+
+        public long lockingNanos() {
+            return lockingNanos.sum();
+        }
+
+        public long lockingStatements() {
+            return lockingStatements.sum();
+        }
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource && "dataSource".equals(beanName)) {
+            return new DelegatingDataSource(dataSource) {
+                @Override
+                public Connection getConnection() throws SQLException {
+                    long startedAt = System.nanoTime();
+                    Connection connection = super.getConnection();
+                    Waits current = current();
+                    if (current != null) {
+                        current.poolWaitNanos.add(System.nanoTime() - startedAt);
+                    }
+                    return probe(connection);
+                }
+            };
+        }
+        return bean;
+    }
+
+    /** Tags the request thread with the endpoint, the path below {@code /api/v1/payment/}. */
+    public Filter endpointFilter() {
+        return (request, response, chain) -> {
+            String path = ((HttpServletRequest) request).getRequestURI();
+            currentEndpoint.set(path.startsWith(API_PREFIX) ? path.substring(API_PREFIX.length()) : path);
+            try {
+                chain.doFilter(request, response);
+            } finally {
+                currentEndpoint.remove();
+            }
+        };
+    }
+
+    public Waits waitsOf(String endpoint) {
+        return waits.computeIfAbsent(endpoint, key -> new Waits());
+    }
+
+    public void reset() {
+        waits.clear();
+    }
+
+    private Waits current() {
+        String endpoint = currentEndpoint.get();
+        return endpoint != null ? waitsOf(endpoint) : null;
+    }
+
+    private Connection probe(Connection connection) {
+        return proxy(Connection.class, (method, args) -> {
+            Object result = invoke(connection, method, args);
+            if (result instanceof PreparedStatement statement && "prepareStatement".equals(method.getName())) {
+                return probe(statement, (String) args[0]);
+            }
+            if (result instanceof Statement statement && "createStatement".equals(method.getName())) {
+                return probe(statement, null);
+            }
+            return result;
+        });
+    }
+
+    private <S extends Statement> S probe(S statement, String preparedSql) {
+        @SuppressWarnings("unchecked")
+        Class<S> type = (Class<S>) (statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class);
+        return proxy(type, (method, args) -> {
+            String sql = preparedSql != null ? preparedSql
+                    : args != null && args.length > 0 && args[0] instanceof String s ? s : null;
+            Waits current = current();
+            if (current == null || !method.getName().startsWith("execute") || !isLocking(sql)) {
+                return invoke(statement, method, args);
+            }
+            long startedAt = System.nanoTime();
+            try {
+                return invoke(statement, method, args);
+            } finally {
+                current.lockingNanos.add(System.nanoTime() - startedAt);
+                current.lockingStatements.increment();
+            }
+        });
+    }
+
+    static boolean isLocking(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        String normalized = sql.strip().toLowerCase(Locale.ROOT);
+        return normalized.startsWith("update") || normalized.startsWith("delete") || normalized.startsWith("merge")
+                || normalized.contains(" on conflict") || normalized.contains(" for update")
+                || normalized.contains(" for no key update");
+    }
+
+    @FunctionalInterface
+    private interface Invocation {
+        Object proceed(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Invocation invocation) {
+        return type.cast(Proxy.newProxyInstance(DatabaseWaitProbe.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> invocation.proceed(method, args)));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package id.ac.ui.cs.advprog.papikos.payment.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import id.ac.ui.cs.advprog.papikos.payment.listener.EmbeddedAmqpBroker;
+import jakarta.servlet.Filter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * End-to-end load test of the HTTP API. Boots the service on a random port against an in-memory H2 database (or
+ * the PostgreSQL database in {@code loadtest.datasource.url}), with {@link StubServices} standing in for the auth and rental
+ * services and {@link EmbeddedAmqpBroker} for RabbitMQ, then lets {@code loadtest.concurrency} clients send a
+ * weighted mix of top-ups, payments, balance reads and history reads for {@code loadtest.duration}.
+ * <p>
+ * Reports per endpoint the throughput, latency percentiles and the database waits seen by
+ * {@link DatabaseWaitProbe}, and writes them to {@code build/reports/loadtest/results.json}. Run with
+ * {@code gradle loadTest}, e.g.
+ * {@code gradle loadTest -Dloadtest.mix=topup:1,pay:4,balance:4,transactions:1 -Dloadtest.concurrency=64}.
+ * Other {@code -Dspring.*} properties (such as {@code spring.threads.virtual.enabled}) are passed to the service.
+ */
+@Tag("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.root=WARN",
+        "logging.level.qpid=WARN"
+})
+class PaymentLoadTest {
+
+    private static final String MIX = setting("loadtest.mix", "topup:20,pay:30,balance:30,transactions:20");
+    private static final int CONCURRENCY = Integer.parseInt(setting("loadtest.concurrency", "32"));
+    private static final Duration DURATION = Duration.parse(setting("loadtest.duration", "PT30S"));
+    private static final Duration WARMUP = Duration.parse(setting("loadtest.warmup", "PT5S"));
+    private static final int TENANTS = Integer.parseInt(setting("loadtest.tenants", "500"));
+    // Few owners means many payments crediting the same balance rows
+    private static final int OWNERS = Integer.parseInt(setting("loadtest.owners", "20"));
+    private static final int RENTALS_PER_TENANT = 3;
+    private static final Duration STUB_LATENCY = Duration.parse(setting("loadtest.stub-latency", "PT0.005S"));
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000.00");
+
+    private static StubServices stubServices;
+    private static EmbeddedAmqpBroker broker;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private DatabaseWaitProbe databaseWaitProbe;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final List<UUID> tenants = new ArrayList<>();
+    private final Map<UUID, List<Rental>> rentalsByTenant = new LinkedHashMap<>();
+
+    private record Rental(UUID rentalId, BigDecimal price) {
+    }
+
+    enum Endpoint {
+        TOPUP("topup"), PAY("pay"), BALANCE("balance"), TRANSACTIONS("transactions");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+    }
+
+    @TestConfiguration
+    static class LoadTestConfiguration {
+
+        @Bean
+        static DatabaseWaitProbe databaseWaitProbe() {
+            return new DatabaseWaitProbe();
+        }
+
+        @Bean
+        FilterRegistrationBean<Filter> databaseWaitProbeFilter(DatabaseWaitProbe databaseWaitProbe) {
+            FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(databaseWaitProbe.endpointFilter());
+            registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+            return registration;
+        }
+
+        @Bean(destroyMethod = "close")
+        StubServices stubServices() {
+            return stubServices;
+        }
+
+        @Bean(destroyMethod = "close")
+        EmbeddedAmqpBroker embeddedAmqpBroker() {
+            return broker;
+        }
+    }
+
+    @DynamicPropertySource
+    static void loadTestProperties(DynamicPropertyRegistry registry) throws Exception {
+        stubServices = new StubServices(STUB_LATENCY);
+        broker = new EmbeddedAmqpBroker();
+        registry.add("auth.service.url", stubServices::url);
+        registry.add("rental.service.url", stubServices::url);
+        registry.add("spring.rabbitmq.port", broker::port);
+        String url = setting("loadtest.datasource.url", "");
+        if (url.isEmpty()) {
+            // Row locks are waited for instead of failing after H2's default of one second
+            registry.add("spring.datasource.url", () -> "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+        } else {
+            registry.add("spring.datasource.url", () -> url);
+            registry.add("spring.datasource.username", () -> setting("loadtest.datasource.username", ""));
+            registry.add("spring.datasource.password", () -> setting("loadtest.datasource.password", ""));
+            registry.add("spring.datasource.driver-class-name", () -> "org.postgresql.Driver");
+            registry.add("spring.jpa.database-platform", () -> "org.hibernate.dialect.PostgreSQLDialect");
+        }
+    }
+
+    private static String setting(String name, String defaultValue) {
+        return System.getProperty(name, defaultValue);
+    }
+
+    @Test
+    void endpointMix() throws Exception {
+        Map<Endpoint, Integer> mix = parseMix(MIX);
+        seed();
+
+        run(mix, WARMUP);
+        databaseWaitProbe.reset();
+        Map<Endpoint, EndpointResult> results = run(mix, DURATION);
+
+        report(results);
+        for (Endpoint endpoint : mix.keySet()) {
+            assertTrue(results.get(endpoint).requests() > 0, "No " + endpoint.path + " requests completed");
+        }
+    }
+
+    static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                weights.put(Endpoint.valueOf(parts[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix has no positive weight: " + mix);
+        }
+        return weights;
+    }
+
+    // Every tenant gets a large balance and a few rentals, each paid to one of a small set of owners
+    private void seed() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<UUID> owners = new ArrayList<>();
+        for (int i = 0; i < OWNERS; i++) {
+            owners.add(UUID.randomUUID());
+        }
+        for (int i = 0; i < TENANTS; i++) {
+            UUID tenant = UUID.randomUUID();
+            tenants.add(tenant);
+            List<Rental> rentals = new ArrayList<>();
+            for (int r = 0; r < RENTALS_PER_TENANT; r++) {
+                Rental rental = new Rental(UUID.randomUUID(), BigDecimal.valueOf(random.nextInt(500, 1_500) * 1_000L));
+                stubServices.addRental(rental.rentalId(), tenant, owners.get(random.nextInt(OWNERS)), rental.price());
+                rentals.add(rental);
+            }
+            rentalsByTenant.put(tenant, rentals);
+        }
+        try (ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY)) {
+            List<Future<Integer>> topUps = new ArrayList<>();
+            for (UUID tenant : tenants) {
+                topUps.add(executor.submit(() -> send(post(tenant, Endpoint.TOPUP,
+                        "{\"amount\":" + INITIAL_BALANCE + "}")).statusCode()));
+            }
+            for (Future<Integer> topUp : topUps) {
+                assertEquals(200, topUp.get(), "Seeding a tenant balance failed");
+            }
+        }
+    }
+
+    private Map<Endpoint, EndpointResult> run(Map<Endpoint, Integer> mix, Duration duration) throws Exception {
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Map<Endpoint, Recording>>> clients = new ArrayList<>();
+        long startedAt = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY)) {
+            for (int i = 0; i < CONCURRENCY; i++) {
+                clients.add(executor.submit(() -> {
+                    Map<Endpoint, Recording> recordings = new EnumMap<>(Endpoint.class);
+                    while (System.nanoTime() < deadline) {
+                        Endpoint endpoint = pick(mix, totalWeight);
+                        HttpRequest request = request(endpoint);
+                        long sentAt = System.nanoTime();
+                        HttpResponse<String> response = send(request);
+                        recordings.computeIfAbsent(endpoint, e -> new Recording())
+                                .record(System.nanoTime() - sentAt, response);
+                    }
+                    return recordings;
+                }));
+            }
+        }
+        double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+
+        Map<Endpoint, Recording> merged = new EnumMap<>(Endpoint.class);
+        for (Future<Map<Endpoint, Recording>> client : clients) {
+            client.get().forEach((endpoint, recording) ->
+                    merged.computeIfAbsent(endpoint, e -> new Recording()).add(recording));
+        }
+        Map<Endpoint, EndpointResult> results = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : mix.keySet()) {
+            Recording recording = merged.getOrDefault(endpoint, new Recording());
+            results.put(endpoint, recording.result(seconds, databaseWaitProbe.waitsOf(endpoint.path)));
+        }
+        return results;
+    }
+
+    private static Endpoint pick(Map<Endpoint, Integer> mix, int totalWeight) {
+        int ticket = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Endpoint, Integer> entry : mix.entrySet()) {
+            ticket -= entry.getValue();
+            if (ticket < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    private HttpRequest request(Endpoint endpoint) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UUID tenant = tenants.get(random.nextInt(tenants.size()));
+        return switch (endpoint) {
+            case TOPUP -> post(tenant, endpoint, "{\"amount\":" + random.nextInt(100, 1_000) * 1_000 + "}");
+            case PAY -> {
+                List<Rental> rentals = rentalsByTenant.get(tenant);
+                Rental rental = rentals.get(random.nextInt(rentals.size()));
+                yield post(tenant, endpoint, "{\"rentalId\":\"" + rental.rentalId() + "\",\"amount\":" + rental.price() + "}");
+            }
+            case BALANCE -> get(tenant, endpoint.path);
+            case TRANSACTIONS -> get(tenant, endpoint.path + "?page=0&size=20");
+        };
+    }
+
+    private HttpRequest post(UUID user, Endpoint endpoint, String body) {
+        return HttpRequest.newBuilder(uri(endpoint.path))
+                .header("Authorization", "Bearer " + user)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest get(UUID user, String path) {
+        return HttpRequest.newBuilder(uri(path)).header("Authorization", "Bearer " + user).GET().build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + "/api/v1/payment/" + path);
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /** Latencies and failures one client saw for one endpoint. */
+    private static class Recording {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int failures;
+        private String firstFailure;
+
+        void record(long latencyNanos, HttpResponse<String> response) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            if (response.statusCode() != 200) {
+                failures++;
+                if (firstFailure == null) {
+                    firstFailure = response.statusCode() + " " + response.body();
+                }
+            }
+        }
+
+        void add(Recording other) {
+            for (int i = 0; i < other.count; i++) {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = other.latencies[i];
+            }
+            failures += other.failures;
+            if (firstFailure == null) {
+                firstFailure = other.firstFailure;
+            }
+        }
+
+        EndpointResult result(double seconds, DatabaseWaitProbe.Waits waits) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return new EndpointResult(count, failures, count / seconds,
+                    percentileMillis(sorted, 50), percentileMillis(sorted, 95), percentileMillis(sorted, 99),
+                    count > 0 ? sorted[count - 1] / 1_000_000.0 : 0,
+                    count > 0 ? waits.poolWaitNanos() / 1_000_000.0 / count : 0,
+                    count > 0 ? waits.lockingNanos() / 1_000_000.0 / count : 0,
+                    waits.lockingNanos() / 1_000_000.0, firstFailure);
+        }
+
+        private static double percentileMillis(long[] sorted, int percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1_000_000.0;
+        }
+    }
+
+    record EndpointResult(int requests, int failures, double requestsPerSecond, double p50Millis, double p95Millis,
+                          double p99Millis, double maxMillis, double poolWaitMillisPerRequest,
+                          double lockingMillisPerRequest, double lockingMillisTotal, String firstFailure) {
+    }
+
+    private void report(Map<Endpoint, EndpointResult> results) throws IOException {
+        System.out.printf("%nLoad test: %d clients for %s, mix %s, %d tenants, %d owners, stub latency %d ms%n",
+                CONCURRENCY, DURATION, MIX, TENANTS, OWNERS, STUB_LATENCY.toMillis());
+        System.out.printf("  %-13s %9s %7s %9s %9s %9s %9s %9s %11s %11s%n", "endpoint", "requests", "errors",
+                "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "pool ms/req", "lock ms/req");
+        results.forEach((endpoint, result) -> System.out.printf(
+                "  %-13s %9d %7d %,9.0f %9.1f %9.1f %9.1f %9.1f %11.2f %11.2f%n", endpoint.path, result.requests(),
+                result.failures(), result.requestsPerSecond(), result.p50Millis(), result.p95Millis(),
+                result.p99Millis(), result.maxMillis(), result.poolWaitMillisPerRequest(),
+                result.lockingMillisPerRequest()));
+        results.forEach((endpoint, result) -> {
+            if (result.firstFailure() != null) {
+                System.out.printf("  first %s failure: %s%n", endpoint.path, result.firstFailure());
+            }
+        });
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("concurrency", CONCURRENCY);
+        report.put("duration", DURATION.toString());
+        report.put("mix", MIX);
+        report.put("tenants", TENANTS);
+        report.put("owners", OWNERS);
+        report.put("stubLatency", STUB_LATENCY.toString());
+        Map<String, EndpointResult> endpoints = new LinkedHashMap<>();
+        results.forEach((endpoint, result) -> endpoints.put(endpoint.path, result));
+        report.put("endpoints", endpoints);
+        File file = new File(setting("loadtest.report", "build/reports/loadtest/results.json"));
+        file.getParentFile().mkdirs();
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+        System.out.println("  written to " + file.getAbsolutePath());
+    }
+}
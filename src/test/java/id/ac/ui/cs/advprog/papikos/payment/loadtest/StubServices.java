@@ -0,0 +1,111 @@
+package id.ac.ui.cs.advprog.papikos.payment.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local stand-in for the auth and rental services on a free port. {@code POST /api/v1/verify} accepts any bearer
+ * token that is a user id and answers for that user; {@code GET /api/v1/rentals/{id}} serves the rentals registered
+ * with {@link #addRental}. Every answer comes after a fixed latency, as from a remote service.
+ */
+public class StubServices implements AutoCloseable {
+
+    private static final String RENTALS_PATH = "/api/v1/rentals/";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<UUID, Map<String, Object>> rentals = new ConcurrentHashMap<>();
+    private final Duration latency;
+    private final WebServer server;
+
+    public StubServices(Duration latency) {
+        this.latency = latency;
+        server = new TomcatServletWebServerFactory(0).getWebServer(servletContext -> servletContext
+                .addServlet("stubs", new StubServlet())
+                .addMapping("/*"));
+        server.start();
+    }
+
+    public String url() {
+        return "http://localhost:" + server.getPort();
+    }
+
+    public void addRental(UUID rentalId, UUID tenantUserId, UUID ownerUserId, BigDecimal price) {
+        rentals.put(rentalId, Map.of("rentalId", rentalId, "tenantUserId", tenantUserId, "ownerUserId", ownerUserId,
+                "status", "ACTIVE", "monthlyRentPrice", price));
+    }
+
+    @Override
+    public void close() {
+        server.stop();
+    }
+
+    private class StubServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String path = request.getRequestURI();
+            if ("POST".equals(request.getMethod()) && "/api/v1/verify".equals(path)) {
+                verify(request, response);
+            } else if ("GET".equals(request.getMethod()) && path.startsWith(RENTALS_PATH)) {
+                rental(path.substring(RENTALS_PATH.length()), response);
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+
+        private void verify(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String authorization = request.getHeader("Authorization");
+            UUID userId = authorization != null && authorization.startsWith("Bearer ")
+                    ? parse(authorization.substring(7)) : null;
+            if (userId == null) {
+                respond(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid token", null);
+                return;
+            }
+            respond(response, HttpServletResponse.SC_OK, "Token is valid", Map.of("userId", userId.toString(),
+                    "email", userId + "@loadtest.local", "role", "TENANT", "status", "ACTIVE"));
+        }
+
+        private void rental(String id, HttpServletResponse response) throws IOException {
+            UUID rentalId = parse(id);
+            Map<String, Object> rental = rentalId != null ? rentals.get(rentalId) : null;
+            if (rental == null) {
+                respond(response, HttpServletResponse.SC_NOT_FOUND, "Rental not found", null);
+                return;
+            }
+            respond(response, HttpServletResponse.SC_OK, "Rental found", rental);
+        }
+
+        private void respond(HttpServletResponse response, int status, String message, Object data) throws IOException {
+            response.setStatus(status);
+            response.setContentType("application/json");
+            Map<String, Object> body = data != null
+                    ? Map.of("status", status, "message", message, "data", data, "timestamp", System.currentTimeMillis())
+                    : Map.of("status", status, "message", message, "timestamp", System.currentTimeMillis());
+            objectMapper.writeValue(response.getOutputStream(), body);
+        }
+
+        private static UUID parse(String value) {
+            try {
+                return UUID.fromString(value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
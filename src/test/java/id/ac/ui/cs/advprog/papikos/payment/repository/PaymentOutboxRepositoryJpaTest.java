@@ -0,0 +1,68 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class PaymentOutboxRepositoryJpaTest {
+
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    private PaymentOutboxEvent save(LocalDateTime createdAt) {
+        PaymentOutboxEvent event = new PaymentOutboxEvent();
+        event.setEventId(UUID.randomUUID());
+        event.setEventType("payment.succeeded");
+        event.setAggregateId(UUID.randomUUID());
+        event.setPayload("{}");
+        event.setCreatedAt(createdAt);
+        return paymentOutboxRepository.saveAndFlush(event);
+    }
+
+    @Test
+    void lockOldestUnclaimed_returnsOldestEventsInInsertionOrder() {
+        LocalDateTime now = LocalDateTime.now();
+        PaymentOutboxEvent first = save(now.minusMinutes(3));
+        PaymentOutboxEvent second = save(now.minusMinutes(2));
+        save(now.minusMinutes(1));
+
+        List<PaymentOutboxEvent> batch = paymentOutboxRepository.lockOldestUnclaimed(now, Limit.of(2));
+
+        assertEquals(List.of(first.getId(), second.getId()), batch.stream().map(PaymentOutboxEvent::getId).toList());
+        assertTrue(first.getId() < second.getId());
+    }
+
+    @Test
+    void lockOldestUnclaimed_skipsClaimedEventsUntilClaimIsReleasedOrRunsOut() {
+        LocalDateTime now = LocalDateTime.now();
+        PaymentOutboxEvent first = save(now.minusMinutes(2));
+        PaymentOutboxEvent second = save(now.minusMinutes(1));
+
+        assertEquals(2, paymentOutboxRepository.claim(List.of(first.getId(), second.getId()), now.plusMinutes(1)));
+        assertEquals(List.of(), paymentOutboxRepository.lockOldestUnclaimed(now, Limit.of(10)));
+        assertEquals(2, paymentOutboxRepository.lockOldestUnclaimed(now.plusMinutes(2), Limit.of(10)).size());
+
+        assertEquals(1, paymentOutboxRepository.releaseClaims(List.of(second.getId())));
+        assertEquals(List.of(second.getId()), paymentOutboxRepository.lockOldestUnclaimed(now, Limit.of(10)).stream()
+                .map(PaymentOutboxEvent::getId).toList());
+    }
+
+    @Test
+    void findOldestCreatedAt_isNullWhenEmptyAndOldestOtherwise() {
+        assertNull(paymentOutboxRepository.findOldestCreatedAt());
+        LocalDateTime oldest = LocalDateTime.of(2024, 5, 1, 8, 0);
+        save(oldest.plusHours(1));
+        save(oldest);
+
+        assertEquals(oldest, paymentOutboxRepository.findOldestCreatedAt());
+    }
+}
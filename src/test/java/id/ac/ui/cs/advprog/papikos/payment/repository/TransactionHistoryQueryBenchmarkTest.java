@@ -0,0 +1,158 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the previous catch-all history query, which guarded every filter with {@code :param IS NULL OR ...},
+ * against the specification-built query that only emits the supplied predicates, for each filter combination.
+ * Seeds {@code benchmark.transactions.rows} rows (default 2,000,000). Run with {@code gradle benchmarkTest}.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:history-query-benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.jpa.show-sql=false"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class TransactionHistoryQueryBenchmarkTest {
+
+    private static final String CATCH_ALL_QUERY = "SELECT t FROM Transaction t WHERE t.userId = :userId " +
+            "AND (:startDate IS NULL OR t.createdAt >= :startDate) " +
+            "AND (:endDate IS NULL OR t.createdAt < :endDate) " +
+            "AND (:transactionType IS NULL OR t.transactionType = :transactionType) " +
+            "ORDER BY t.createdAt DESC";
+
+    private static final int USERS = 200;
+    private static final int PAGE_SIZE = 20;
+    private static final int QUERIES = 500;
+    private static final int WARMUP_QUERIES = 100;
+    private static final LocalDateTime NEWEST = LocalDateTime.of(2024, 6, 1, 0, 0);
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnly;
+    private long rows;
+
+    private record Filter(String name, LocalDateTime start, LocalDateTime end, TransactionType type) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        rows = Long.getLong("benchmark.transactions.rows", 2_000_000L);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            // One row per minute going back in time, spread round-robin over the users and the three types
+            entityManager.createNativeQuery("""
+                    INSERT INTO transactions (transaction_id, user_id, transaction_type, amount, status,
+                                              created_at, updated_at)
+                    SELECT RANDOM_UUID(),
+                           CAST(CONCAT('00000000-0000-0000-0000-', LPAD(CAST(MOD(X, :users) AS VARCHAR), 12, '0')) AS UUID),
+                           CASE MOD(X / :users, 3) WHEN 0 THEN 'TOPUP' WHEN 1 THEN 'PAYMENT' ELSE 'REFUND' END,
+                           10, 'COMPLETED',
+                           DATEADD('MINUTE', -X, TIMESTAMP '2024-06-01 00:00:00'),
+                           TIMESTAMP '2024-06-01 00:00:00'
+                    FROM SYSTEM_RANGE(1, :rows)
+                    """)
+                    .setParameter("users", USERS)
+                    .setParameter("rows", rows)
+                    .executeUpdate();
+            entityManager.createNativeQuery("ANALYZE").executeUpdate();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                entityManager.createNativeQuery("TRUNCATE TABLE transactions").executeUpdate());
+    }
+
+    @Test
+    void specificationQueries_versusCatchAllQuery() {
+        // The seeded history spans rows minutes; the date windows cover a slice in the older half of it
+        LocalDateTime windowStart = NEWEST.minusMinutes(rows * 3 / 4);
+        LocalDateTime windowEnd = NEWEST.minusMinutes(rows / 2);
+        List<Filter> filters = List.of(
+                new Filter("no filters", null, null, null),
+                new Filter("type", null, null, TransactionType.REFUND),
+                new Filter("start date", windowStart, null, null),
+                new Filter("end date", null, windowEnd, null),
+                new Filter("date range", windowStart, windowEnd, null),
+                new Filter("type + date range", windowStart, windowEnd, TransactionType.REFUND));
+
+        System.out.printf("History page of %d, %,d rows over %d users, mean latency of %d queries%n",
+                PAGE_SIZE, rows, USERS, QUERIES);
+        System.out.printf("  %-18s %14s %14s %9s%n", "filters", "catch-all", "specification", "speed-up");
+        for (Filter filter : filters) {
+            Function<UUID, List<Transaction>> catchAll = userId -> readOnly.execute(status ->
+                    entityManager.createQuery(CATCH_ALL_QUERY, Transaction.class)
+                            .setParameter("userId", userId)
+                            .setParameter("startDate", filter.start())
+                            .setParameter("endDate", filter.end())
+                            .setParameter("transactionType", filter.type())
+                            .setMaxResults(PAGE_SIZE)
+                            .getResultList());
+            Function<UUID, List<Transaction>> specification = userId -> readOnly.execute(status ->
+                    transactionRepository.findNewestFirst(
+                            TransactionSpecifications.history(userId, filter.start(), filter.end(), filter.type()),
+                            PAGE_SIZE));
+
+            UUID sample = user(7);
+            assertEquals(ids(catchAll.apply(sample)), ids(specification.apply(sample)), filter.name());
+
+            measure(catchAll, WARMUP_QUERIES);
+            measure(specification, WARMUP_QUERIES);
+            double catchAllMicros = measure(catchAll, QUERIES);
+            double specificationMicros = measure(specification, QUERIES);
+            System.out.printf("  %-18s %11.0f us %11.0f us %8.2fx%n",
+                    filter.name(), catchAllMicros, specificationMicros, catchAllMicros / specificationMicros);
+        }
+    }
+
+    private static UUID user(int index) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", index));
+    }
+
+    private static List<UUID> ids(List<Transaction> transactions) {
+        return transactions.stream().map(Transaction::getTransactionId).toList();
+    }
+
+    private double measure(Function<UUID, List<Transaction>> query, int queries) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            assertFalse(query.apply(user(random.nextInt(USERS))).isEmpty());
+        }
+        return (System.nanoTime() - startedAt) / 1_000.0 / queries;
+    }
+}
@@ -0,0 +1,146 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummary;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummaryId;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class TransactionMonthlySummaryRepositoryJpaTest {
+
+    private static final LocalDate MARCH = LocalDate.of(2024, 3, 1);
+    private static final LocalDate APRIL = LocalDate.of(2024, 4, 1);
+
+    @Autowired
+    private TransactionMonthlySummaryRepository summaryRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final UUID userId = UUID.randomUUID();
+
+    private TransactionMonthlySummary summaryOf(UUID owner, LocalDate month, TransactionType type) {
+        entityManager.clear();
+        return summaryRepository.findById(new TransactionMonthlySummaryId(owner, month, type)).orElse(null);
+    }
+
+    private void persistTransaction(UUID owner, TransactionType type, String amount, TransactionStatus status, LocalDateTime createdAt) {
+        Transaction tx = new Transaction();
+        tx.setUserId(owner);
+        tx.setTransactionType(type);
+        tx.setAmount(new BigDecimal(amount));
+        tx.setStatus(status);
+        transactionRepository.saveAndFlush(tx);
+        entityManager.createNativeQuery("UPDATE transactions SET created_at = :createdAt WHERE transaction_id = :id")
+                .setParameter("createdAt", createdAt)
+                .setParameter("id", tx.getTransactionId())
+                .executeUpdate();
+    }
+
+    @Test
+    void addToMonthlySummary_createsThenIncrementsRow() {
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.TOPUP, new BigDecimal("100.00"));
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.TOPUP, new BigDecimal("50.50"));
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.PAYMENT, new BigDecimal("20.00"));
+
+        TransactionMonthlySummary topUps = summaryOf(userId, MARCH, TransactionType.TOPUP);
+        assertEquals(0, new BigDecimal("150.50").compareTo(topUps.getTotalAmount()));
+        assertEquals(2, topUps.getTransactionCount());
+        assertEquals(1, summaryOf(userId, MARCH, TransactionType.PAYMENT).getTransactionCount());
+    }
+
+    @Test
+    void addToMonthlySummary_withCount_addsSeveralTransactionsAtOnce() {
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.PAYMENT, new BigDecimal("300.00"), 3);
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.PAYMENT, new BigDecimal("20.00"));
+
+        TransactionMonthlySummary payments = summaryOf(userId, MARCH, TransactionType.PAYMENT);
+        assertEquals(0, new BigDecimal("320.00").compareTo(payments.getTotalAmount()));
+        assertEquals(4, payments.getTransactionCount());
+    }
+
+    @Test
+    void findUserSummaries_returnsRequestedMonthsNewestFirst() {
+        summaryRepository.addToMonthlySummary(userId, LocalDate.of(2024, 2, 1), TransactionType.TOPUP, BigDecimal.TEN);
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.TOPUP, BigDecimal.TEN);
+        summaryRepository.addToMonthlySummary(userId, APRIL, TransactionType.PAYMENT, BigDecimal.TEN);
+        summaryRepository.addToMonthlySummary(userId, APRIL, TransactionType.TOPUP, BigDecimal.TEN);
+        summaryRepository.addToMonthlySummary(UUID.randomUUID(), MARCH, TransactionType.TOPUP, BigDecimal.TEN);
+        entityManager.clear();
+
+        List<TransactionMonthlySummary> summaries = summaryRepository.findUserSummaries(userId, MARCH, APRIL);
+
+        assertEquals(3, summaries.size());
+        assertEquals(APRIL, summaries.get(0).getId().getMonth());
+        assertEquals(APRIL, summaries.get(1).getId().getMonth());
+        assertEquals(MARCH, summaries.get(2).getId().getMonth());
+    }
+
+    @Test
+    void rebuildMonthlySummaries_replacesSummariesWithTotalsOfCompletedTransactions() {
+        userBalanceRepository.saveAndFlush(new UserBalance(userId, BigDecimal.TEN));
+        persistTransaction(userId, TransactionType.TOPUP, "100.00", TransactionStatus.COMPLETED, MARCH.atTime(9, 0));
+        persistTransaction(userId, TransactionType.TOPUP, "25.00", TransactionStatus.COMPLETED, MARCH.plusDays(30).atTime(23, 59));
+        persistTransaction(userId, TransactionType.TOPUP, "999.00", TransactionStatus.FAILED, MARCH.atTime(10, 0));
+        persistTransaction(userId, TransactionType.PAYMENT, "40.00", TransactionStatus.COMPLETED, APRIL.atStartOfDay());
+        // Drifted row that the rebuild must overwrite, a stale month that must disappear and an archived month to keep
+        summaryRepository.addToMonthlySummary(userId, MARCH, TransactionType.TOPUP, new BigDecimal("1.00"));
+        summaryRepository.addToMonthlySummary(userId, LocalDate.of(2024, 2, 1), TransactionType.REFUND, BigDecimal.ONE);
+        summaryRepository.addToMonthlySummary(userId, LocalDate.of(2023, 1, 1), TransactionType.TOPUP, BigDecimal.ONE);
+
+        assertEquals(2, summaryRepository.rebuildMonthlySummaries(List.of(userId), LocalDate.of(2024, 2, 1)));
+
+        TransactionMonthlySummary march = summaryOf(userId, MARCH, TransactionType.TOPUP);
+        assertEquals(0, new BigDecimal("125.00").compareTo(march.getTotalAmount()));
+        assertEquals(2, march.getTransactionCount());
+        assertEquals(1, summaryOf(userId, APRIL, TransactionType.PAYMENT).getTransactionCount());
+        assertNull(summaryOf(userId, LocalDate.of(2024, 2, 1), TransactionType.REFUND));
+        assertEquals(1, summaryOf(userId, LocalDate.of(2023, 1, 1), TransactionType.TOPUP).getTransactionCount());
+    }
+
+    @Test
+    void findTransactionUserIds_pagesThroughDistinctUsersInOrder() {
+        List<UUID> owners = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            UUID owner = UUID.randomUUID();
+            owners.add(owner);
+            persistTransaction(owner, TransactionType.TOPUP, "1.00", TransactionStatus.COMPLETED, MARCH.atStartOfDay());
+            persistTransaction(owner, TransactionType.TOPUP, "1.00", TransactionStatus.COMPLETED, APRIL.atStartOfDay());
+        }
+
+        List<UUID> seen = new ArrayList<>();
+        UUID after = null;
+        while (true) {
+            List<UUID> batch = summaryRepository.findTransactionUserIds(after, 2);
+            seen.addAll(batch);
+            if (batch.size() < 2) {
+                break;
+            }
+            after = batch.get(batch.size() - 1);
+        }
+
+        assertEquals(5, seen.size());
+        assertTrue(seen.containsAll(owners));
+    }
+}
@@ -0,0 +1,101 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query-plan regression test: runs H2's EXPLAIN on the SQL shapes the history queries generate against the
+ * Flyway schema and checks that the intended index is chosen instead of a table scan.
+ */
+@DataJpaTest
+class TransactionQueryPlanTest {
+
+    private static final String USER_ID = "00000000-0000-0000-0000-000000000007";
+    private static final String RENTAL_ID = "00000000-0000-0000-0000-0000000000aa";
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void seed() {
+        // Enough rows across users, types and rentals for the optimizer's selectivity estimates to matter
+        entityManager.createNativeQuery("""
+                INSERT INTO transactions (transaction_id, user_id, transaction_type, amount, status,
+                                          related_rental_id, created_at, updated_at)
+                SELECT RANDOM_UUID(),
+                       CAST(CONCAT('00000000-0000-0000-0000-', LPAD(CAST(MOD(X, 50) AS VARCHAR), 12, '0')) AS UUID),
+                       CASE MOD(X, 3) WHEN 0 THEN 'TOPUP' WHEN 1 THEN 'PAYMENT' ELSE 'REFUND' END,
+                       10, 'COMPLETED',
+                       CAST(CONCAT('00000000-0000-0000-0000-', LPAD(CAST(MOD(X, 400) AS VARCHAR), 12, '0')) AS UUID),
+                       DATEADD('MINUTE', -X, TIMESTAMP '2024-06-01 00:00:00'),
+                       TIMESTAMP '2024-06-01 00:00:00'
+                FROM SYSTEM_RANGE(1, 5000)
+                """).executeUpdate();
+        entityManager.createNativeQuery("ANALYZE").executeUpdate();
+    }
+
+    private String explain(String sql) {
+        return String.valueOf(entityManager.createNativeQuery("EXPLAIN " + sql).getSingleResult()).toLowerCase();
+    }
+
+    private void assertUsesIndex(String index, String sql) {
+        String plan = explain(sql);
+        assertTrue(plan.contains(index), () -> "Expected " + index + " in plan:\n" + plan);
+        assertFalse(plan.contains("tablescan"), () -> "Unexpected table scan in plan:\n" + plan);
+    }
+
+    @Test
+    void historyWithoutFilters_usesUserCreatedIndex() {
+        assertUsesIndex("idx_transactions_user_created", """
+                SELECT * FROM transactions t
+                WHERE t.user_id = '%s'
+                ORDER BY t.created_at DESC
+                OFFSET 40 ROWS FETCH FIRST 20 ROWS ONLY
+                """.formatted(USER_ID));
+    }
+
+    @Test
+    void historyWithDateRange_usesUserCreatedIndex() {
+        assertUsesIndex("idx_transactions_user_created", """
+                SELECT * FROM transactions t
+                WHERE t.user_id = '%s'
+                  AND t.created_at >= TIMESTAMP '2024-05-30 00:00:00'
+                  AND t.created_at < TIMESTAMP '2024-05-31 00:00:00'
+                ORDER BY t.created_at DESC
+                """.formatted(USER_ID));
+    }
+
+    @Test
+    void historyByType_usesUserTypeCreatedIndex() {
+        assertUsesIndex("idx_transactions_user_type_created", """
+                SELECT * FROM transactions t
+                WHERE t.user_id = '%s' AND t.transaction_type = 'PAYMENT'
+                ORDER BY t.created_at DESC
+                """.formatted(USER_ID));
+    }
+
+    @Test
+    void keysetPage_usesUserCreatedIndex() {
+        assertUsesIndex("idx_transactions_user_created", """
+                SELECT * FROM transactions t
+                WHERE t.user_id = '%s'
+                  AND (t.created_at, t.transaction_id) < (TIMESTAMP '2024-05-30 00:00:00', '%s')
+                ORDER BY t.created_at DESC, t.transaction_id DESC
+                FETCH FIRST 21 ROWS ONLY
+                """.formatted(USER_ID, UUID.randomUUID()));
+    }
+
+    @Test
+    void paymentsOfRental_useRelatedRentalIndex() {
+        assertUsesIndex("idx_transactions_related_rental", """
+                SELECT * FROM transactions t WHERE t.related_rental_id = '%s'
+                """.formatted(RENTAL_ID));
+    }
+}
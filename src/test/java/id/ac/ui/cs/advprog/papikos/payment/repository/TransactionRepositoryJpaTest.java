@@ -0,0 +1,175 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionCursor;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class TransactionRepositoryJpaTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 12, 0);
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final UUID userId = UUID.randomUUID();
+
+    private void persist(UUID owner, TransactionType type, LocalDateTime createdAt) {
+        Transaction tx = new Transaction();
+        tx.setUserId(owner);
+        tx.setTransactionType(type);
+        tx.setAmount(BigDecimal.TEN);
+        tx.setStatus(TransactionStatus.COMPLETED);
+        transactionRepository.saveAndFlush(tx);
+        // created_at is set by @CreationTimestamp and not updatable through the entity
+        entityManager.createNativeQuery("UPDATE transactions SET created_at = :createdAt WHERE transaction_id = :id")
+                .setParameter("createdAt", createdAt)
+                .setParameter("id", tx.getTransactionId())
+                .executeUpdate();
+    }
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < 23; i++) {
+            // Groups of three rows share a timestamp, so paging must break ties on the id
+            persist(userId, i % 2 == 0 ? TransactionType.TOPUP : TransactionType.PAYMENT, BASE.plusMinutes(i / 3));
+        }
+        persist(UUID.randomUUID(), TransactionType.TOPUP, BASE);
+        entityManager.clear();
+    }
+
+    private List<Transaction> walk(TransactionType type, int pageSize) {
+        List<Transaction> seen = new ArrayList<>();
+        TransactionCursor cursor = null;
+        while (true) {
+            Specification<Transaction> spec = TransactionSpecifications.history(userId, null, null, type);
+            if (cursor != null) {
+                spec = spec.and(TransactionSpecifications.olderThan(cursor.createdAt(), cursor.transactionId()));
+            }
+            List<Transaction> rows = transactionRepository.findNewestFirst(spec, pageSize);
+            seen.addAll(rows);
+            if (rows.size() < pageSize) {
+                return seen;
+            }
+            Transaction last = rows.get(rows.size() - 1);
+            cursor = TransactionCursor.decode(new TransactionCursor(last.getCreatedAt(), last.getTransactionId()).encode());
+        }
+    }
+
+    @Test
+    void findNewestFirst_walksEveryRowOnceNewestFirst() {
+        List<Transaction> all = walk(null, 5);
+
+        assertEquals(23, all.size());
+        Set<UUID> ids = new HashSet<>();
+        all.forEach(tx -> ids.add(tx.getTransactionId()));
+        assertEquals(23, ids.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertFalse(all.get(i).getCreatedAt().isAfter(all.get(i - 1).getCreatedAt()));
+        }
+        assertTrue(all.stream().allMatch(tx -> tx.getUserId().equals(userId)));
+    }
+
+    @Test
+    void findNewestFirst_matchesFullOrderingForEveryPageSize() {
+        List<UUID> expected = walk(null, 100).stream().map(Transaction::getTransactionId).toList();
+        for (int pageSize = 1; pageSize <= 7; pageSize++) {
+            assertEquals(expected, walk(null, pageSize).stream().map(Transaction::getTransactionId).toList(),
+                    "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void findNewestFirst_appliesTypeFilter() {
+        List<Transaction> topUps = walk(TransactionType.TOPUP, 4);
+
+        assertEquals(12, topUps.size());
+        assertTrue(topUps.stream().allMatch(tx -> tx.getTransactionType() == TransactionType.TOPUP));
+    }
+
+    @Test
+    void findNewestFirst_appliesDateRange() {
+        List<Transaction> rows = transactionRepository.findNewestFirst(
+                TransactionSpecifications.history(userId, BASE.plusMinutes(2), BASE.plusMinutes(4), null), 50);
+
+        assertEquals(6, rows.size());
+        assertEquals(BASE.plusMinutes(3), rows.stream().map(Transaction::getCreatedAt).max(Comparator.naturalOrder()).orElseThrow());
+    }
+
+    @Test
+    void findAllWithHistorySpecification_appliesEveryFilterCombination() {
+        LocalDateTime from = BASE.plusMinutes(2);
+        LocalDateTime before = BASE.plusMinutes(5);
+        Sort newestFirst = Sort.by(Sort.Direction.DESC, "createdAt");
+
+        assertEquals(23, transactionRepository.findAll(
+                TransactionSpecifications.history(userId, null, null, null), newestFirst).size());
+        assertEquals(11, transactionRepository.findAll(
+                TransactionSpecifications.history(userId, null, null, TransactionType.PAYMENT), newestFirst).size());
+        assertEquals(17, transactionRepository.findAll(
+                TransactionSpecifications.history(userId, from, null, null), newestFirst).size());
+        assertEquals(15, transactionRepository.findAll(
+                TransactionSpecifications.history(userId, null, before, null), newestFirst).size());
+        List<Transaction> ranged = transactionRepository.findAll(
+                TransactionSpecifications.history(userId, from, before, TransactionType.TOPUP), newestFirst);
+        assertEquals(5, ranged.size());
+        assertTrue(ranged.stream().allMatch(tx -> tx.getTransactionType() == TransactionType.TOPUP
+                && !tx.getCreatedAt().isBefore(from) && tx.getCreatedAt().isBefore(before)));
+    }
+
+    @Test
+    void findAllWithHistorySpecification_pagesWithTotals() {
+        Page<Transaction> page = transactionRepository.findAll(
+                TransactionSpecifications.history(userId, null, null, TransactionType.TOPUP),
+                PageRequest.of(1, 5, Sort.by(Sort.Direction.DESC, "createdAt")));
+
+        assertEquals(12, page.getTotalElements());
+        assertEquals(5, page.getContent().size());
+        assertEquals(3, page.getTotalPages());
+    }
+
+    @Test
+    void streamUserTransactions_returnsRangeOldestFirstWithoutManagingEntities() {
+        List<TransactionDto> rows;
+        try (Stream<TransactionDto> stream = transactionRepository.streamUserTransactions(
+                userId, BASE.plusMinutes(1), BASE.plusMinutes(5))) {
+            rows = stream.toList();
+        }
+
+        assertEquals(12, rows.size());
+        assertTrue(rows.stream().allMatch(tx -> tx.userId().equals(userId)));
+        for (int i = 1; i < rows.size(); i++) {
+            assertFalse(rows.get(i).createdAt().isBefore(rows.get(i - 1).createdAt()));
+        }
+        assertEquals(BASE.plusMinutes(1), rows.get(0).createdAt());
+        assertEquals(BASE.plusMinutes(4), rows.get(rows.size() - 1).createdAt());
+        assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+}
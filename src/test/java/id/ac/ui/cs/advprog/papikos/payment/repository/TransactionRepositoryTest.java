@@ -4,12 +4,14 @@ import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
 import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
 
 import java.time.LocalDateTime;
 import java.util.Collections;
@@ -18,7 +20,6 @@ import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -47,7 +48,7 @@ class TransactionRepositoryTest {
     }
 
     @Test
-    void testFindUserTransactionsByFilter_whenMocked() {
+    void testFindAllWithHistorySpecification_whenMocked() {
         UUID userId = UUID.randomUUID();
         LocalDateTime startDate = LocalDateTime.now().minusDays(1);
         LocalDateTime endDate = LocalDateTime.now();
@@ -56,17 +57,12 @@ class TransactionRepositoryTest {
         Page<Transaction> expectedPage = new PageImpl<>(Collections.singletonList(new Transaction()), pageable, 1);
 
         // Define behavior for the mocked repository method
-        when(transactionRepository.findUserTransactionsByFilter(
-                eq(userId),
-                eq(startDate),
-                eq(endDate),
-                eq(type),
-                eq(pageable)))
+        when(transactionRepository.findAll(ArgumentMatchers.<Specification<Transaction>>any(), eq(pageable)))
                 .thenReturn(expectedPage);
 
         // Call the mocked method
-        Page<Transaction> actualPage = transactionRepository.findUserTransactionsByFilter(
-                userId, startDate, endDate, type, pageable);
+        Page<Transaction> actualPage = transactionRepository.findAll(
+                TransactionSpecifications.history(userId, startDate, endDate, type), pageable);
 
         // Assert (this tests the mock setup, not the actual query)
         assertNotNull(actualPage);
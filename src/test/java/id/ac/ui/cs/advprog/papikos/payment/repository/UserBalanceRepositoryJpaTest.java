@@ -0,0 +1,113 @@
+package id.ac.ui.cs.advprog.papikos.payment.repository;
+
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class UserBalanceRepositoryJpaTest {
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private UUID persistBalance(String amount) {
+        UUID userId = UUID.randomUUID();
+        userBalanceRepository.saveAndFlush(new UserBalance(userId, new BigDecimal(amount)));
+        entityManager.clear();
+        return userId;
+    }
+
+    private BigDecimal balanceOf(UUID userId) {
+        entityManager.clear();
+        return userBalanceRepository.findByUserId(userId).orElseThrow().getBalance();
+    }
+
+    @Test
+    void applyBalanceDelta_credit_addsToBalance() {
+        UUID userId = persistBalance("100.00");
+
+        assertEquals(1, userBalanceRepository.applyBalanceDelta(userId, new BigDecimal("25.50")));
+        assertEquals(0, new BigDecimal("125.50").compareTo(balanceOf(userId)));
+    }
+
+    @Test
+    void applyBalanceDelta_debitWithinBalance_subtracts() {
+        UUID userId = persistBalance("100.00");
+
+        assertEquals(1, userBalanceRepository.applyBalanceDelta(userId, new BigDecimal("-100.00")));
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceOf(userId)));
+    }
+
+    @Test
+    void applyBalanceDelta_debitBeyondBalance_changesNothing() {
+        UUID userId = persistBalance("100.00");
+
+        assertEquals(0, userBalanceRepository.applyBalanceDelta(userId, new BigDecimal("-100.01")));
+        assertEquals(0, new BigDecimal("100.00").compareTo(balanceOf(userId)));
+    }
+
+    @Test
+    void applyBalanceDelta_missingRow_changesNothing() {
+        assertEquals(0, userBalanceRepository.applyBalanceDelta(UUID.randomUUID(), BigDecimal.TEN));
+    }
+
+    @Test
+    void applyBalanceDelta_setsUpdatedAt() {
+        UUID userId = persistBalance("100.00");
+        entityManager.createQuery("UPDATE UserBalance ub SET ub.updatedAt = :old WHERE ub.userId = :userId")
+                .setParameter("old", LocalDateTime.of(2000, 1, 1, 0, 0))
+                .setParameter("userId", userId)
+                .executeUpdate();
+
+        userBalanceRepository.applyBalanceDelta(userId, BigDecimal.ONE);
+
+        entityManager.clear();
+        assertTrue(userBalanceRepository.findByUserId(userId).orElseThrow().getUpdatedAt().getYear() > 2000);
+    }
+
+    @Test
+    void insertIfAbsent_missingRow_createsZeroBalance() {
+        UUID userId = UUID.randomUUID();
+
+        assertEquals(1, userBalanceRepository.insertIfAbsent(userId));
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceOf(userId)));
+        assertNotNull(userBalanceRepository.findByUserId(userId).orElseThrow().getUpdatedAt());
+    }
+
+    @Test
+    void insertIfAbsent_existingRow_leavesItUntouched() {
+        UUID userId = persistBalance("42.00");
+
+        assertEquals(0, userBalanceRepository.insertIfAbsent(userId));
+        assertEquals(0, new BigDecimal("42.00").compareTo(balanceOf(userId)));
+    }
+
+    @Test
+    void lockOrder_matchesTheDatabaseOrderOfUserIds() {
+        // High bits set in either half: UUID.compareTo would put these first, the database puts them last
+        List<UUID> userIds = List.of(new UUID(0, 1), new UUID(0, Long.MIN_VALUE), new UUID(Long.MAX_VALUE, 0),
+                new UUID(Long.MIN_VALUE, 0), new UUID(-1, -1), UUID.randomUUID(), UUID.randomUUID());
+        userIds.forEach(userId -> userBalanceRepository.save(new UserBalance(userId, BigDecimal.ZERO)));
+        userBalanceRepository.flush();
+
+        @SuppressWarnings("unchecked")
+        List<UUID> databaseOrder = entityManager.createNativeQuery(
+                        "SELECT user_id FROM user_balances WHERE user_id IN (:userIds) ORDER BY user_id", UUID.class)
+                .setParameter("userIds", userIds)
+                .getResultList();
+
+        assertEquals(databaseOrder, userIds.stream().sorted(UserBalanceRepository.LOCK_ORDER).toList());
+    }
+}
@@ -39,25 +39,6 @@ class UserBalanceRepositoryTest {
         assertEquals(userId, actualOptional.get().getUserId());
     }
 
-    @Test
-    void testFindByUserIdWithLock_whenMocked() {
-        UUID userId = UUID.randomUUID();
-        UserBalance mockBalance = new UserBalance(userId, new BigDecimal("200.00"));
-        Optional<UserBalance> expectedOptional = Optional.of(mockBalance);
-
-        // Define behavior for the mocked repository method
-        when(userBalanceRepository.findByUserIdWithLock(eq(userId))).thenReturn(expectedOptional);
-
-        // Call the mocked method
-        Optional<UserBalance> actualOptional = userBalanceRepository.findByUserIdWithLock(userId);
-
-        // Assert (this tests the mock setup, not the actual query or lock)
-        assertNotNull(actualOptional);
-        assertEquals(expectedOptional, actualOptional);
-        assertTrue(actualOptional.isPresent());
-        assertEquals(userId, actualOptional.get().getUserId());
-    }
-
     @Test
     void testRepositoryCanBeMocked() {
         assertNotNull(userBalanceRepository, "UserBalanceRepository mock should not be null.");
@@ -0,0 +1,138 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoalescingTokenVerifierTest {
+
+    private static final int CALLERS = 8;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private AtomicInteger delegateCalls;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        executor = Executors.newFixedThreadPool(CALLERS);
+        delegateCalls = new AtomicInteger();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private double coalescedCount() {
+        return meterRegistry.get(CoalescingTokenVerifier.COALESCED_METRIC).counter().count();
+    }
+
+    private List<Future<VerifyTokenResponse.Data>> submitConcurrently(CoalescingTokenVerifier verifier, String token)
+            throws InterruptedException {
+        List<Future<VerifyTokenResponse.Data>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(executor.submit(() -> verifier.verify(token)));
+        }
+        // Give every caller the chance to join before the single delegate call completes
+        long deadline = System.currentTimeMillis() + 2000;
+        while (coalescedCount() < CALLERS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        return futures;
+    }
+
+    @Test
+    void testConcurrentCallsForSameToken_shareOneDelegateCall() throws Exception {
+        VerifyTokenResponse.Data data = new VerifyTokenResponse.Data("user-123", null, "TENANT", "ACTIVE");
+        CoalescingTokenVerifier verifier = new CoalescingTokenVerifier(token -> {
+            delegateCalls.incrementAndGet();
+            awaitRelease();
+            return data;
+        }, meterRegistry);
+
+        List<Future<VerifyTokenResponse.Data>> futures = submitConcurrently(verifier, "shared-token");
+
+        for (Future<VerifyTokenResponse.Data> future : futures) {
+            assertSame(data, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, delegateCalls.get());
+        assertEquals(CALLERS - 1, coalescedCount());
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    @Test
+    void testConcurrentCallsForSameToken_allReceiveTheFailure() throws Exception {
+        CoalescingTokenVerifier verifier = new CoalescingTokenVerifier(token -> {
+            delegateCalls.incrementAndGet();
+            awaitRelease();
+            throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+        }, meterRegistry);
+
+        List<Future<VerifyTokenResponse.Data>> futures = submitConcurrently(verifier, "bad-token");
+
+        for (Future<VerifyTokenResponse.Data> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(HttpClientErrorException.class, e.getCause());
+        }
+        assertEquals(1, delegateCalls.get());
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    @Test
+    void testConcurrentCallsForSameToken_whenDelegateThrowsError_releaseEveryWaiter() throws Exception {
+        CoalescingTokenVerifier verifier = new CoalescingTokenVerifier(token -> {
+            delegateCalls.incrementAndGet();
+            awaitRelease();
+            throw new StackOverflowError("parsing the auth response");
+        }, meterRegistry);
+
+        List<Future<VerifyTokenResponse.Data>> futures = submitConcurrently(verifier, "shared-token");
+
+        assertEquals(CALLERS - 1, coalescedCount());
+        for (Future<VerifyTokenResponse.Data> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(StackOverflowError.class, e.getCause());
+        }
+        assertEquals(1, delegateCalls.get());
+        assertEquals(0, verifier.inFlightCount());
+    }
+
+    @Test
+    void testSequentialCalls_areNotCoalesced() throws Exception {
+        release.countDown();
+        CoalescingTokenVerifier verifier = new CoalescingTokenVerifier(token -> {
+            delegateCalls.incrementAndGet();
+            return new VerifyTokenResponse.Data(token, null, "TENANT", "ACTIVE");
+        }, meterRegistry);
+
+        verifier.verify("token-a");
+        verifier.verify("token-a");
+        verifier.verify("token-b");
+
+        assertEquals(3, delegateCalls.get());
+        assertEquals(0, coalescedCount());
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JwkSetProviderTest {
+
+    private static final String JWKS_URI = "http://auth-service/.well-known/jwks.json";
+
+    private RestTemplate restTemplate;
+    private JwkSetProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        restTemplate = mock(RestTemplate.class);
+        provider = new JwkSetProvider(restTemplate, JWKS_URI);
+    }
+
+    @Test
+    void testCurrent_beforeRefresh_isEmpty() {
+        assertTrue(provider.current().getKeys().isEmpty());
+    }
+
+    @Test
+    void testRefresh_loadsPublicKeys() throws Exception {
+        RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        when(restTemplate.getForObject(JWKS_URI, String.class))
+                .thenReturn(new JWKSet(rsaKey.toPublicJWK()).toString());
+
+        provider.refresh();
+
+        assertEquals(1, provider.current().getKeys().size());
+        assertEquals(1, provider.get(new JWKSelector(new JWKMatcher.Builder().keyID("key-1").build()), null).size());
+    }
+
+    @Test
+    void testRefresh_whenFetchFails_keepsLastKnownKeys() throws Exception {
+        RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        when(restTemplate.getForObject(JWKS_URI, String.class))
+                .thenReturn(new JWKSet(rsaKey.toPublicJWK()).toString())
+                .thenThrow(new ResourceAccessException("connection refused"));
+
+        provider.refresh();
+        provider.refresh();
+
+        assertEquals(1, provider.current().getKeys().size());
+    }
+
+    @Test
+    void testRefresh_withUnparseableBody_keepsLastKnownKeys() {
+        when(restTemplate.getForObject(JWKS_URI, String.class)).thenReturn("not json");
+
+        assertDoesNotThrow(() -> provider.refresh());
+        assertTrue(provider.current().getKeys().isEmpty());
+    }
+}
@@ -0,0 +1,112 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JwtTokenVerifierTest {
+
+    private static final String SECRET = "a-test-secret-that-is-at-least-thirty-two-bytes-long";
+    private static final String OTHER_SECRET = "another-secret-that-is-at-least-thirty-two-bytes-long";
+
+    private TokenVerifier fallback;
+    private JwtTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        fallback = mock(TokenVerifier.class);
+        SecretKeySpec key = new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        verifier = new JwtTokenVerifier(
+                NimbusJwtDecoder.withSecretKey(key).macAlgorithm(MacAlgorithm.HS256).build(), fallback);
+    }
+
+    private String sign(String secret, JWTClaimsSet claims) throws Exception {
+        SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+        jwt.sign(new MACSigner(secret.getBytes(StandardCharsets.UTF_8)));
+        return jwt.serialize();
+    }
+
+    private JWTClaimsSet.Builder validClaims() {
+        return new JWTClaimsSet.Builder()
+                .subject("user-123")
+                .claim("email", "user@example.com")
+                .claim("role", "TENANT")
+                .claim("status", "ACTIVE")
+                .expirationTime(Date.from(Instant.now().plusSeconds(600)));
+    }
+
+    @Test
+    void testVerify_withValidToken_fillsDataFromClaimsWithoutFallback() throws Exception {
+        String token = sign(SECRET, validClaims().build());
+
+        VerifyTokenResponse.Data data = verifier.verify(token);
+
+        assertEquals("user-123", data.userId);
+        assertEquals("user@example.com", data.email);
+        assertEquals("TENANT", data.role);
+        assertEquals("ACTIVE", data.status);
+        verifyNoInteractions(fallback);
+    }
+
+    @Test
+    void testVerify_prefersUserIdClaimOverSubject() throws Exception {
+        String token = sign(SECRET, validClaims().claim("userId", "explicit-id").build());
+
+        assertEquals("explicit-id", verifier.verify(token).userId);
+    }
+
+    @Test
+    void testVerify_withExpiredToken_rejectsWithoutFallback() throws Exception {
+        String token = sign(SECRET, validClaims()
+                .expirationTime(Date.from(Instant.now().minusSeconds(3600)))
+                .build());
+
+        assertThrows(BadCredentialsException.class, () -> verifier.verify(token));
+        verifyNoInteractions(fallback);
+    }
+
+    @Test
+    void testVerify_withUnknownSigningKey_fallsBackToAuthService() throws Exception {
+        String token = sign(OTHER_SECRET, validClaims().build());
+        VerifyTokenResponse.Data remote = new VerifyTokenResponse.Data("user-123", null, "TENANT", "ACTIVE");
+        when(fallback.verify(token)).thenReturn(remote);
+
+        assertSame(remote, verifier.verify(token));
+    }
+
+    @Test
+    void testVerify_withMalformedToken_fallsBackToAuthService() throws Exception {
+        VerifyTokenResponse.Data remote = new VerifyTokenResponse.Data("user-123", null, "TENANT", "ACTIVE");
+        when(fallback.verify("not-a-jwt")).thenReturn(remote);
+
+        assertSame(remote, verifier.verify("not-a-jwt"));
+    }
+
+    @Test
+    void testVerify_withMissingRoleClaim_fallsBackToAuthService() throws Exception {
+        String token = sign(SECRET, new JWTClaimsSet.Builder()
+                .subject("user-123")
+                .expirationTime(Date.from(Instant.now().plusSeconds(600)))
+                .build());
+        VerifyTokenResponse.Data remote = new VerifyTokenResponse.Data("user-123", null, "TENANT", "ACTIVE");
+        when(fallback.verify(token)).thenReturn(remote);
+
+        assertSame(remote, verifier.verify(token));
+    }
+}
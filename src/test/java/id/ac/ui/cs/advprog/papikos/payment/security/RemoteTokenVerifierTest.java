@@ -0,0 +1,72 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RemoteTokenVerifierTest {
+
+    private RestTemplate restTemplate;
+    private ObjectMapper objectMapper;
+    private RemoteTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        restTemplate = mock(RestTemplate.class);
+        objectMapper = new ObjectMapper();
+        verifier = new RemoteTokenVerifier(restTemplate, objectMapper, "http://auth-service");
+    }
+
+    @Test
+    void testVerify_whenAuthServiceAccepts_returnsData() throws Exception {
+        VerifyTokenResponse body = VerifyTokenResponse.builder()
+                .status(200)
+                .data(new VerifyTokenResponse.Data("user-123", "user@example.com", "TENANT", "ACTIVE"))
+                .build();
+        when(restTemplate.exchange(eq("http://auth-service/api/v1/verify"), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(new ResponseEntity<>(objectMapper.writeValueAsString(body), HttpStatus.OK));
+
+        VerifyTokenResponse.Data data = verifier.verify("valid-token");
+
+        assertEquals("user-123", data.userId);
+        assertEquals("TENANT", data.role);
+    }
+
+    @Test
+    void testVerify_sendsTokenAsBearer() throws Exception {
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), argThat((HttpEntity<?> entity) ->
+                "Bearer valid-token".equals(entity.getHeaders().getFirst("Authorization"))), eq(String.class)))
+                .thenReturn(new ResponseEntity<>("{\"data\":{\"userId\":\"u\",\"role\":\"R\"}}", HttpStatus.OK));
+
+        assertNotNull(verifier.verify("valid-token"));
+    }
+
+    @Test
+    void testVerify_whenNon2xx_throwsBadCredentials() {
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
+                .thenReturn(new ResponseEntity<>("{}", HttpStatus.FOUND));
+
+        assertThrows(BadCredentialsException.class, () -> verifier.verify("token"));
+    }
+
+    @Test
+    void testVerify_whenUnauthorized_propagatesClientError() {
+        when(restTemplate.exchange(anyString(), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED));
+
+        assertThrows(HttpClientErrorException.class, () -> verifier.verify("token"));
+    }
+}
@@ -0,0 +1,142 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TokenAuthenticationFilterTest {
+
+    private static final String TOKEN = "token-a";
+
+    @Mock
+    private TokenVerifier tokenVerifier;
+
+    private TokenVerificationCache cache;
+    private TokenAuthenticationFilter filter;
+    private VerifyTokenResponse.Data data;
+
+    @BeforeEach
+    void setUp() {
+        cache = new TokenVerificationCache(Duration.ofMinutes(1), 100, new SimpleMeterRegistry());
+        filter = new TokenAuthenticationFilter(tokenVerifier, cache);
+        ReflectionTestUtils.setField(filter, "internalTokenSecret", "internal-secret");
+        data = new VerifyTokenResponse.Data("user-123", "user@example.com", "TENANT", "ACTIVE");
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private static MockHttpServletRequest bearer(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/balance");
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, FilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    @Test
+    void cachedToken_isAuthenticatedWithoutCallingTheVerifier() throws Exception {
+        cache.put(TOKEN, data);
+        MockFilterChain chain = new MockFilterChain();
+
+        MockHttpServletResponse response = filter(bearer(TOKEN), chain);
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertNotNull(chain.getRequest());
+        assertEquals("user-123", SecurityContextHolder.getContext().getAuthentication().getPrincipal());
+        verifyNoInteractions(tokenVerifier);
+    }
+
+    @Test
+    void uncachedToken_isVerifiedOnceAndCached() throws Exception {
+        when(tokenVerifier.verify(TOKEN)).thenReturn(data);
+
+        filter(bearer(TOKEN), new MockFilterChain());
+        filter(bearer(TOKEN), new MockFilterChain());
+
+        assertSame(data, cache.get(TOKEN));
+        verify(tokenVerifier, times(1)).verify(TOKEN);
+    }
+
+    @Test
+    void unauthorizedFromAuthService_invalidatesTheCachedEntry() throws Exception {
+        // Another request cached the token while this one was asking the auth service, which now rejects it
+        when(tokenVerifier.verify(TOKEN)).thenAnswer(invocation -> {
+            cache.put(TOKEN, data);
+            throw new HttpClientErrorException(HttpStatus.UNAUTHORIZED);
+        });
+        MockFilterChain chain = new MockFilterChain();
+
+        MockHttpServletResponse response = filter(bearer(TOKEN), chain);
+
+        assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+        assertNull(chain.getRequest());
+        assertNull(cache.get(TOKEN));
+    }
+
+    @Test
+    void unauthorizedFurtherDownTheChain_evictsTheCachedToken() throws Exception {
+        cache.put(TOKEN, data);
+        FilterChain rejectingChain = (request, response) ->
+                ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+
+        filter(bearer(TOKEN), rejectingChain);
+
+        assertNull(cache.get(TOKEN));
+    }
+
+    @Test
+    void successfulRequest_keepsTheCachedToken() throws Exception {
+        cache.put(TOKEN, data);
+        FilterChain forbiddingChain = (request, response) ->
+                ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_FORBIDDEN);
+
+        filter(bearer(TOKEN), forbiddingChain);
+
+        assertSame(data, cache.get(TOKEN));
+    }
+
+    @Test
+    void invalidOrExpiredToken_isRejectedAndNeverCached() throws Exception {
+        when(tokenVerifier.verify("expired")).thenThrow(new BadCredentialsException("Token expired"));
+        when(tokenVerifier.verify("forged")).thenThrow(new HttpClientErrorException(HttpStatus.UNAUTHORIZED));
+
+        for (String token : new String[] {"expired", "forged"}) {
+            MockFilterChain chain = new MockFilterChain();
+
+            MockHttpServletResponse response = filter(bearer(token), chain);
+
+            assertEquals(HttpServletResponse.SC_UNAUTHORIZED, response.getStatus());
+            assertNull(chain.getRequest());
+            assertNull(cache.get(token));
+            assertNull(SecurityContextHolder.getContext().getAuthentication());
+        }
+    }
+}
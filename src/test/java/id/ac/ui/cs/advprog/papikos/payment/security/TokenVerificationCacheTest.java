@@ -0,0 +1,90 @@
+package id.ac.ui.cs.advprog.papikos.payment.security;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.VerifyTokenResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenVerificationCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private TokenVerificationCache cache;
+    private VerifyTokenResponse.Data data;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new TokenVerificationCache(Duration.ofMinutes(1), 100, meterRegistry);
+        data = new VerifyTokenResponse.Data("user-123", "user@example.com", "TENANT", "ACTIVE");
+    }
+
+    @Test
+    void testGet_whenNotCached_returnsNull() {
+        assertNull(cache.get("unknown-token"));
+    }
+
+    @Test
+    void testPutThenGet_returnsCachedData() {
+        cache.put("token-a", data);
+
+        VerifyTokenResponse.Data cached = cache.get("token-a");
+
+        assertNotNull(cached);
+        assertEquals("user-123", cached.userId);
+        assertEquals("TENANT", cached.role);
+        assertEquals("ACTIVE", cached.status);
+    }
+
+    @Test
+    void testPut_withNullData_isIgnored() {
+        cache.put("token-a", null);
+        assertNull(cache.get("token-a"));
+    }
+
+    @Test
+    void testInvalidate_removesEntry() {
+        cache.put("token-a", data);
+        cache.invalidate("token-a");
+        assertNull(cache.get("token-a"));
+    }
+
+    @Test
+    void testKeyFor_isStableHashAndNotTheRawToken() {
+        String key = TokenVerificationCache.keyFor("token-a");
+
+        assertEquals(key, TokenVerificationCache.keyFor("token-a"));
+        assertNotEquals(key, TokenVerificationCache.keyFor("token-b"));
+        assertEquals(64, key.length(), "SHA-256 hex digest should be 64 characters long.");
+        assertFalse(key.contains("token-a"));
+    }
+
+    @Test
+    void testExpiredEntry_isNotReturned() throws InterruptedException {
+        TokenVerificationCache shortLived = new TokenVerificationCache(Duration.ofMillis(20), 100, new SimpleMeterRegistry());
+        shortLived.put("token-a", data);
+
+        Thread.sleep(50);
+
+        assertNull(shortLived.get("token-a"));
+    }
+
+    @Test
+    void testHitAndMissCounters_arePublished() {
+        cache.put("token-a", data);
+        cache.get("token-a");
+        cache.get("token-b");
+
+        assertEquals(1.0, meterRegistry.get("cache.gets")
+                .tag("cache", TokenVerificationCache.CACHE_NAME).tag("result", "hit")
+                .functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets")
+                .tag("cache", TokenVerificationCache.CACHE_NAME).tag("result", "miss")
+                .functionCounter().count());
+        assertNotNull(meterRegistry.get("cache.evictions")
+                .tag("cache", TokenVerificationCache.CACHE_NAME).functionCounter());
+    }
+}
@@ -0,0 +1,234 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummary;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs thousands of concurrent transfers (and batched rental charges) in both directions between a handful of
+ * users against a real database and checks that none of them fails on a deadlock and that money is neither
+ * created nor lost.
+ * Subclasses choose the database.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // every transfer commits on its own
+abstract class AbstractTransferDeadlockStressTest {
+
+    private static final int USERS = 4;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 250;
+    private static final int CHARGES_PER_BATCH = 5;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("100000.00");
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentServiceImpl paymentService;
+    private TransactionTemplate transactionTemplate;
+    private final List<UUID> userIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        paymentService = new PaymentServiceImpl(userBalanceRepository, transactionRepository, null, transactionTemplate,
+                new ReplicaLagGuard(Duration.ZERO, 1), transactionSummaryRepository, null,
+                new IdempotencyKeyStore(idempotencyKeyRepository, transactionRepository, Duration.ofDays(7),
+                        Duration.ofMinutes(10), 1000, new SimpleMeterRegistry()),
+                new PaymentOutbox(paymentOutboxRepository), new PaymentPhaseMetrics(new SimpleMeterRegistry()));
+        for (int i = 0; i < USERS; i++) {
+            userIds.add(userBalanceRepository.save(new UserBalance(UUID.randomUUID(), INITIAL_BALANCE)).getUserId());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        paymentOutboxRepository.deleteAll();
+        idempotencyKeyRepository.deleteAll();
+        transactionSummaryRepository.deleteAll();
+        transactionRepository.deleteAll();
+        userBalanceRepository.deleteAll();
+    }
+
+    @Test
+    void crossingTransfers_neverDeadlockAndConserveTotalBalance() throws Exception {
+        Queue<Throwable> failures = runConcurrently(thread -> runTransfers());
+
+        assertNoFailures(failures);
+        assertTotalBalanceConserved();
+        assertPaymentsRecorded((long) THREADS * TRANSFERS_PER_THREAD);
+    }
+
+    @Test
+    void batchedRentalChargesAndTransfers_neverDeadlockAndConserveTotalBalance() throws Exception {
+        // A batch touches tenants and owners of several charges at once, while transfers touch the same users in pairs
+        AtomicLong charged = new AtomicLong();
+        Queue<Throwable> failures = runConcurrently(thread ->
+                thread % 2 == 0 ? runTransfers() : runRentalChargeBatches(charged));
+
+        assertNoFailures(failures);
+        assertTotalBalanceConserved();
+        assertPaymentsRecorded((long) (THREADS / 2) * TRANSFERS_PER_THREAD + charged.get());
+    }
+
+    // Runs worker(thread) on THREADS threads at once and collects what they threw
+    private Queue<Throwable> runConcurrently(IntFunction<Queue<Throwable>> worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(executor.submit(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    failures.addAll(worker.apply(thread));
+                }));
+            }
+            start.countDown();
+            for (Future<?> running : workers) {
+                running.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failures;
+    }
+
+    private static void assertNoFailures(Queue<Throwable> failures) {
+        long deadlocks = failures.stream().filter(AbstractTransferDeadlockStressTest::isDeadlock).count();
+        assertEquals(0, deadlocks, "Transfers deadlocked");
+        assertTrue(failures.isEmpty(), () -> "Transfers failed: " + failures.peek());
+    }
+
+    private void assertTotalBalanceConserved() {
+        BigDecimal total = userBalanceRepository.findAllById(userIds).stream()
+                .map(UserBalance::getBalance)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(0, INITIAL_BALANCE.multiply(BigDecimal.valueOf(USERS)).compareTo(total));
+    }
+
+    private void assertPaymentsRecorded(long payments) {
+        assertEquals(2 * payments, transactionRepository.findAll().stream()
+                .filter(tx -> tx.getTransactionType() == TransactionType.PAYMENT)
+                .count());
+        // Every payment also bumped both users' monthly summaries exactly once
+        assertEquals(2 * payments, transactionSummaryRepository.findAll().stream()
+                .filter(summary -> summary.getId().getTransactionType() == TransactionType.PAYMENT)
+                .mapToLong(TransactionMonthlySummary::getTransactionCount)
+                .sum());
+        // ...and recorded exactly one payment.succeeded event
+        assertEquals(payments, paymentOutboxRepository.count());
+    }
+
+    // Two distinct users, picked at random
+    private UUID[] randomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UUID payer = userIds.get(random.nextInt(USERS));
+        UUID payee = userIds.get(random.nextInt(USERS - 1));
+        if (payee.equals(payer)) {
+            payee = userIds.get(USERS - 1);
+        }
+        return new UUID[] {payer, payee};
+    }
+
+    private Queue<Throwable> runTransfers() {
+        Queue<Throwable> failures = new ArrayDeque<>();
+        for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+            UUID[] pair = randomPair();
+            BigDecimal amount = BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100));
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        paymentService.performInternalTransfer(pair[0], pair[1], amount, UUID.randomUUID()));
+            } catch (RuntimeException e) {
+                failures.add(e);
+            }
+        }
+        return failures;
+    }
+
+    private Queue<Throwable> runRentalChargeBatches(AtomicLong charged) {
+        Queue<Throwable> failures = new ArrayDeque<>();
+        for (int i = 0; i < TRANSFERS_PER_THREAD / CHARGES_PER_BATCH; i++) {
+            List<RentalCharge> batch = new ArrayList<>();
+            for (int c = 0; c < CHARGES_PER_BATCH; c++) {
+                UUID[] pair = randomPair();
+                batch.add(new RentalCharge(UUID.randomUUID(), pair[0], pair[1],
+                        BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 100))));
+            }
+            try {
+                for (RentalChargeResult result : paymentService.chargeForRentals(batch)) {
+                    if (result.isCharged()) {
+                        charged.incrementAndGet();
+                    } else {
+                        failures.add(result.failure());
+                    }
+                }
+            } catch (RuntimeException e) {
+                failures.add(e);
+            }
+        }
+        return failures;
+    }
+
+    private static boolean isDeadlock(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().toLowerCase().contains("deadlock")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,142 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.BalanceDto;
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares GET /balance service throughput for the previous read-write path, which lazily created a zero
+ * balance, against the current read-only path, which reports a synthetic zero. Half of the reads are for users
+ * without a balance row. Run with {@code gradle benchmarkTest}.
+ */
+@Tag("benchmark")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:balance-read-benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "spring.jpa.show-sql=false"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class BalanceReadBenchmarkTest {
+
+    private static final int CREDITED_USERS = 500;
+    private static final int THREADS = 8;
+    private static final int READS_PER_THREAD = 5_000;
+    private static final int WARMUP_READS_PER_THREAD = 1_000;
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentServiceImpl paymentService;
+    private final List<UUID> creditedUsers = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        paymentService = new PaymentServiceImpl(userBalanceRepository, transactionRepository, null,
+                new TransactionTemplate(transactionManager), new ReplicaLagGuard(Duration.ZERO, 1), transactionSummaryRepository, null, null, null, null);
+        for (int i = 0; i < CREDITED_USERS; i++) {
+            creditedUsers.add(userBalanceRepository.save(new UserBalance(UUID.randomUUID(), BigDecimal.TEN)).getUserId());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        userBalanceRepository.deleteAll();
+    }
+
+    @Test
+    void readOnlyBalanceRead_versusLazyCreatingReadWriteRead() throws Exception {
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+
+        // Previous implementation: read-write transaction that creates a zero row for unknown users
+        Function<UUID, BalanceDto> before = userId -> readWrite.execute(status -> {
+            UserBalance balance = userBalanceRepository.findByUserId(userId).orElseGet(() -> {
+                userBalanceRepository.insertIfAbsent(userId);
+                return userBalanceRepository.findByUserId(userId).orElseThrow();
+            });
+            return new BalanceDto(balance.getUserId(), balance.getBalance(), balance.getUpdatedAt());
+        });
+        Function<UUID, BalanceDto> after = userId -> readOnly.execute(status -> paymentService.getUserBalance(userId));
+
+        run(before, WARMUP_READS_PER_THREAD);
+        run(after, WARMUP_READS_PER_THREAD);
+        long rowsBefore = userBalanceRepository.count();
+        double beforeOpsPerSecond = run(before, READS_PER_THREAD);
+        long rowsAfterBefore = userBalanceRepository.count();
+        double afterOpsPerSecond = run(after, READS_PER_THREAD);
+        long rowsAfterAfter = userBalanceRepository.count();
+
+        System.out.printf("GET /balance service path, %d threads x %d reads (50%% unknown users)%n", THREADS, READS_PER_THREAD);
+        System.out.printf("  read-write, lazy create : %,12.0f ops/s (%d rows created)%n", beforeOpsPerSecond, rowsAfterBefore - rowsBefore);
+        System.out.printf("  read-only, synthetic 0  : %,12.0f ops/s (%d rows created)%n", afterOpsPerSecond, rowsAfterAfter - rowsAfterBefore);
+        System.out.printf("  speed-up                : %12.2fx%n", afterOpsPerSecond / beforeOpsPerSecond);
+
+        assertEquals(rowsAfterBefore, rowsAfterAfter, "Read-only balance path must not create rows");
+    }
+
+    private double run(Function<UUID, BalanceDto> read, int readsPerThread) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    start.await();
+                    for (int i = 0; i < readsPerThread; i++) {
+                        UUID userId = random.nextBoolean()
+                                ? creditedUsers.get(random.nextInt(CREDITED_USERS))
+                                : UUID.randomUUID();
+                        assertNotNull(read.apply(userId));
+                    }
+                    return null;
+                }));
+            }
+            long startedAt = System.nanoTime();
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(5, TimeUnit.MINUTES);
+            }
+            long elapsedNanos = System.nanoTime() - startedAt;
+            return (double) THREADS * readsPerThread / (elapsedNanos / 1_000_000_000.0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ClusterJobLockTest {
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private DatabaseMetaData metaData;
+
+    @Mock
+    private PreparedStatement statement;
+
+    @Mock
+    private ResultSet resultSet;
+
+    private ClusterJobLock clusterJobLock;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metaData);
+        clusterJobLock = new ClusterJobLock(dataSource);
+    }
+
+    private void onPostgreSQL(boolean lockFree) throws SQLException {
+        when(metaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement("SELECT pg_try_advisory_xact_lock(?, ?)")).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        when(resultSet.next()).thenReturn(true);
+        when(resultSet.getBoolean(1)).thenReturn(lockFree);
+    }
+
+    @Test
+    void onPostgreSQL_runsJobInsideTheAdvisoryLockTransaction() throws SQLException {
+        onPostgreSQL(true);
+
+        assertTrue(clusterJobLock.runExclusively("archival", runs::incrementAndGet));
+
+        assertEquals(1, runs.get());
+        verify(statement).setInt(1, ClusterJobLock.LOCK_NAMESPACE);
+        verify(statement).setInt(2, "archival".hashCode());
+        InOrder inOrder = inOrder(connection);
+        inOrder.verify(connection).setAutoCommit(false);
+        inOrder.verify(connection).rollback();
+        inOrder.verify(connection).setAutoCommit(true);
+        inOrder.verify(connection).close();
+    }
+
+    @Test
+    void onPostgreSQL_whenAnotherInstanceHoldsTheLock_skipsJob() throws SQLException {
+        onPostgreSQL(false);
+
+        assertFalse(clusterJobLock.runExclusively("archival", runs::incrementAndGet));
+
+        assertEquals(0, runs.get());
+        verify(connection).rollback();
+    }
+
+    @Test
+    void onPostgreSQL_releasesLockWhenJobFails() throws SQLException {
+        onPostgreSQL(true);
+
+        assertThrows(IllegalStateException.class, () -> clusterJobLock.runExclusively("archival", () -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        verify(connection).rollback();
+        verify(connection, atLeastOnce()).close();
+    }
+
+    @Test
+    void onOtherDatabases_keepsJobToOneRunInThisInstance() throws SQLException {
+        when(metaData.getDatabaseProductName()).thenReturn("H2");
+
+        boolean ran = clusterJobLock.runExclusively("archival", () -> {
+            runs.incrementAndGet();
+            assertFalse(clusterJobLock.runExclusively("archival", runs::incrementAndGet));
+            assertTrue(clusterJobLock.runExclusively("partitions", runs::incrementAndGet));
+        });
+
+        assertTrue(ran);
+        assertEquals(2, runs.get());
+        assertTrue(clusterJobLock.runExclusively("archival", runs::incrementAndGet));
+        verify(connection, never()).prepareStatement(anyString());
+    }
+}
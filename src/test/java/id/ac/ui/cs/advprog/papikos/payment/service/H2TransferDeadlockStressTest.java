@@ -0,0 +1,7 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "spring.datasource.url=jdbc:h2:mem:transfer-stress;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;LOCK_TIMEOUT=10000")
+class H2TransferDeadlockStressTest extends AbstractTransferDeadlockStressTest {
+}
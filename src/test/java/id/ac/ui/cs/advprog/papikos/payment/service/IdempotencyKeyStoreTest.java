@@ -0,0 +1,208 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TopUpRequest;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.IdempotencyKeyId;
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Idempotent top-ups against a real database: every request commits on its own, as it would in production,
+ * so duplicates are detected by the {@code idempotency_keys} table and not by a shared test transaction.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotencyKeyStoreTest {
+
+    private static final TopUpRequest TOP_UP = new TopUpRequest(new BigDecimal("50.00"));
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private SimpleMeterRegistry meterRegistry;
+    private final UUID userId = UUID.randomUUID();
+
+    private IdempotencyKeyStore newStore(Duration retention) {
+        return new IdempotencyKeyStore(idempotencyKeyRepository, transactionRepository, retention,
+                Duration.ofMinutes(10), 1000, meterRegistry);
+    }
+
+    private PaymentServiceImpl newService(IdempotencyKeyStore store) {
+        return new PaymentServiceImpl(userBalanceRepository, transactionRepository, null,
+                new TransactionTemplate(transactionManager), new ReplicaLagGuard(Duration.ZERO, 1),
+                transactionSummaryRepository, null, store, null, new PaymentPhaseMetrics(meterRegistry));
+    }
+
+    private long transactionsOf(UUID owner) {
+        return transactionRepository.findByUserIdOrderByCreatedAtDesc(owner, Pageable.unpaged()).getTotalElements();
+    }
+
+    private BigDecimal balance() {
+        return userBalanceRepository.findByUserId(userId).orElseThrow().getBalance();
+    }
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        idempotencyKeyRepository.deleteAll();
+        transactionSummaryRepository.deleteAll();
+        transactionRepository.deleteAll();
+        userBalanceRepository.deleteAll();
+    }
+
+    @Test
+    void topUp_retriedWithSameKey_isAppliedOnceAndAnsweredFromCache() {
+        PaymentServiceImpl paymentService = newService(newStore(Duration.ofDays(7)));
+
+        TransactionDto first = paymentService.topUp(userId, TOP_UP, "retry-1");
+        TransactionDto retry = paymentService.topUp(userId, new TopUpRequest(new BigDecimal("50")), "retry-1");
+
+        assertEquals(first, retry);
+        assertEquals(0, new BigDecimal("50.00").compareTo(balance()));
+        assertEquals(1, transactionsOf(userId));
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", IdempotencyKeyStore.CACHE_NAME)
+                .tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void topUp_retriedOnAnotherInstance_returnsStoredTransactionFromTable() {
+        TransactionDto first = newService(newStore(Duration.ofDays(7))).topUp(userId, TOP_UP, "retry-2");
+
+        TransactionDto retry = newService(newStore(Duration.ofDays(7))).topUp(userId, TOP_UP, "retry-2");
+
+        assertEquals(first.transactionId(), retry.transactionId());
+        assertEquals(0, new BigDecimal("50.00").compareTo(balance()));
+        assertEquals(1, transactionsOf(userId));
+    }
+
+    @Test
+    void topUp_sameKeyForDifferentAmount_isRejected() {
+        newService(newStore(Duration.ofDays(7))).topUp(userId, TOP_UP, "retry-3");
+        PaymentServiceImpl otherInstance = newService(newStore(Duration.ofDays(7)));
+
+        assertThrows(IdempotencyKeyConflictException.class,
+                () -> otherInstance.topUp(userId, new TopUpRequest(new BigDecimal("60.00")), "retry-3"));
+        assertEquals(0, new BigDecimal("50.00").compareTo(balance()));
+    }
+
+    @Test
+    void topUp_sameKeyOfAnotherUser_isIndependent() {
+        PaymentServiceImpl paymentService = newService(newStore(Duration.ofDays(7)));
+        UUID otherUser = UUID.randomUUID();
+
+        TransactionDto mine = paymentService.topUp(userId, TOP_UP, "shared-key");
+        TransactionDto theirs = paymentService.topUp(otherUser, TOP_UP, "shared-key");
+
+        assertNotEquals(mine.transactionId(), theirs.transactionId());
+        assertEquals(1, transactionsOf(userId));
+        assertEquals(1, transactionsOf(otherUser));
+    }
+
+    @Test
+    void topUp_invalidKey_throwsInvalidOperationException() {
+        PaymentServiceImpl paymentService = newService(newStore(Duration.ofDays(7)));
+
+        assertThrows(InvalidOperationException.class, () -> paymentService.topUp(userId, TOP_UP, " "));
+        assertThrows(InvalidOperationException.class, () -> paymentService.topUp(userId, TOP_UP, "k".repeat(256)));
+        assertEquals(0, transactionsOf(userId));
+    }
+
+    @Test
+    void topUp_keyWithRentalChargePrefix_throwsInvalidOperationException() {
+        PaymentServiceImpl paymentService = newService(newStore(Duration.ofDays(7)));
+        String rentalChargeKey = IdempotencyKeyStore.RENTAL_CHARGE_KEY_PREFIX + UUID.randomUUID();
+
+        assertThrows(InvalidOperationException.class, () -> paymentService.topUp(userId, TOP_UP, rentalChargeKey));
+        assertEquals(0, transactionsOf(userId));
+        assertEquals(0, idempotencyKeyRepository.count());
+    }
+
+    @Test
+    void topUp_concurrentRetries_creditOnce() throws Exception {
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        Queue<TransactionDto> results = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                // Separate stores, as on separate instances, so only the table can detect the duplicates
+                PaymentServiceImpl instance = newService(newStore(Duration.ofDays(7)));
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    results.add(instance.topUp(userId, TOP_UP, "storm"));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(1, TimeUnit.MINUTES);
+                } catch (ExecutionException e) {
+                    // A caller may lose the race for the key and fail; it must never credit twice
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(results.isEmpty());
+        Set<UUID> transactionIds = results.stream().map(TransactionDto::transactionId).collect(Collectors.toSet());
+        assertEquals(1, transactionIds.size());
+        assertEquals(1, transactionsOf(userId));
+        assertEquals(0, new BigDecimal("50.00").compareTo(balance()));
+    }
+
+    @Test
+    void purgeExpired_removesKeysOlderThanRetention() {
+        newService(newStore(Duration.ofDays(7))).topUp(userId, TOP_UP, "old-key");
+
+        assertEquals(0, newStore(Duration.ofDays(7)).purgeExpired());
+        assertEquals(1, newStore(Duration.ofSeconds(-1)).purgeExpired());
+        assertTrue(idempotencyKeyRepository.findById(new IdempotencyKeyId(userId, "old-key")).isEmpty());
+    }
+}
@@ -0,0 +1,202 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.config.PaymentRabbitMQConfig;
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PaymentOutboxRelayTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    @Mock
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Mock
+    private RabbitTemplate rabbitTemplate;
+
+    @Mock
+    private ConnectionFactory connectionFactory;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private PaymentOutboxRelay relay;
+    private boolean inTransaction;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        when(rabbitTemplate.getConnectionFactory()).thenReturn(connectionFactory);
+        when(connectionFactory.isPublisherConfirms()).thenReturn(true);
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            inTransaction = true;
+            try {
+                return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+            } finally {
+                inTransaction = false;
+            }
+        });
+        relay = new PaymentOutboxRelay(paymentOutboxRepository, rabbitTemplate, transactionTemplate, meterRegistry,
+                BATCH_SIZE, Duration.ofMillis(100), Duration.ofSeconds(30));
+    }
+
+    private void outboxHolds(List<PaymentOutboxEvent> batch) {
+        when(paymentOutboxRepository.lockOldestUnclaimed(any(LocalDateTime.class), eq(Limit.of(BATCH_SIZE)))).thenReturn(batch);
+    }
+
+    private static PaymentOutboxEvent event(long id, String type, LocalDateTime createdAt) {
+        PaymentOutboxEvent event = new PaymentOutboxEvent();
+        event.setId(id);
+        event.setEventId(UUID.randomUUID());
+        event.setEventType(type);
+        event.setAggregateId(UUID.randomUUID());
+        event.setPayload("{\"id\":" + id + "}");
+        event.setCreatedAt(createdAt);
+        return event;
+    }
+
+    // Completes the confirm of every sent message whose event id is not listed as nacked or lost
+    private void confirmSends(Set<UUID> nacked, Set<UUID> lost) {
+        doAnswer(invocation -> {
+            assertFalse(inTransaction, "published while holding a database transaction");
+            CorrelationData correlation = invocation.getArgument(3);
+            UUID eventId = UUID.fromString(correlation.getId());
+            if (!lost.contains(eventId)) {
+                correlation.getFuture().complete(new CorrelationData.Confirm(!nacked.contains(eventId), nacked.contains(eventId) ? "nack" : null));
+            }
+            return null;
+        }).when(rabbitTemplate).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+
+    @Test
+    void relayBatch_publishesInOrderAndDeletesConfirmedEvents() {
+        PaymentOutboxEvent first = event(1, "payment.succeeded", LocalDateTime.now().minusSeconds(2));
+        PaymentOutboxEvent second = event(2, "payment.failed", LocalDateTime.now().minusSeconds(1));
+        outboxHolds(List.of(first, second));
+        confirmSends(Set.of(), Set.of());
+
+        assertEquals(2, relay.relayBatch());
+
+        InOrder inOrder = inOrder(paymentOutboxRepository, rabbitTemplate);
+        inOrder.verify(paymentOutboxRepository).claim(eq(List.of(1L, 2L)), any(LocalDateTime.class));
+        inOrder.verify(rabbitTemplate, times(2)).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+        inOrder.verify(paymentOutboxRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+        verify(paymentOutboxRepository, never()).releaseClaims(any());
+        verify(transactionTemplate, times(2)).execute(any());
+
+        ArgumentCaptor<Message> messages = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate).send(eq(PaymentRabbitMQConfig.PAYMENT_EVENTS_EXCHANGE_NAME), eq("payment.succeeded"), messages.capture(), any());
+        verify(rabbitTemplate).send(eq(PaymentRabbitMQConfig.PAYMENT_EVENTS_EXCHANGE_NAME), eq("payment.failed"), any(Message.class), any());
+        Message message = messages.getValue();
+        assertEquals(first.getEventId().toString(), message.getMessageProperties().getMessageId());
+        assertEquals("application/json", message.getMessageProperties().getContentType());
+        assertEquals(first.getPayload(), new String(message.getBody(), StandardCharsets.UTF_8));
+        assertEquals(2.0, counter(PaymentOutboxRelay.PUBLISHED_METRIC));
+        assertEquals(2, meterRegistry.get(PaymentOutboxRelay.DELIVERY_METRIC).timer().count());
+    }
+
+    @Test
+    void relayBatch_keepsNackedAndUnconfirmedEventsForNextPoll() {
+        PaymentOutboxEvent acked = event(1, "payment.succeeded", LocalDateTime.now());
+        PaymentOutboxEvent nacked = event(2, "payment.succeeded", LocalDateTime.now());
+        PaymentOutboxEvent lost = event(3, "payment.succeeded", LocalDateTime.now());
+        outboxHolds(List.of(acked, nacked, lost));
+        confirmSends(Set.of(nacked.getEventId()), Set.of(lost.getEventId()));
+
+        assertEquals(1, relay.relayBatch());
+
+        verify(paymentOutboxRepository).deleteAllByIdInBatch(List.of(1L));
+        verify(paymentOutboxRepository).releaseClaims(List.of(2L, 3L));
+        assertEquals(1.0, counter(PaymentOutboxRelay.PUBLISHED_METRIC));
+        assertEquals(2.0, counter(PaymentOutboxRelay.FAILED_METRIC));
+    }
+
+    @Test
+    void relayAll_drainsFullBatchesUntilOutboxIsEmpty() {
+        when(paymentOutboxRepository.lockOldestUnclaimed(any(LocalDateTime.class), eq(Limit.of(BATCH_SIZE))))
+                .thenReturn(List.of(event(1, "payment.succeeded", LocalDateTime.now()), event(2, "payment.succeeded", LocalDateTime.now())))
+                .thenReturn(List.of(event(3, "payment.succeeded", LocalDateTime.now())));
+        confirmSends(Set.of(), Set.of());
+
+        assertEquals(3, relay.relayAll());
+
+        verify(paymentOutboxRepository, times(2)).lockOldestUnclaimed(any(LocalDateTime.class), eq(Limit.of(BATCH_SIZE)));
+    }
+
+    @Test
+    void scheduledRelay_whenBrokerUnavailable_deletesNothingAndReportsLag() {
+        LocalDateTime oldest = LocalDateTime.now().minusSeconds(30);
+        outboxHolds(List.of(event(1, "payment.succeeded", oldest)));
+        doThrow(new AmqpConnectException(new ConnectException("refused")))
+                .when(rabbitTemplate).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+        when(paymentOutboxRepository.findOldestCreatedAt()).thenReturn(oldest);
+
+        relay.scheduledRelay();
+
+        verify(paymentOutboxRepository, never()).deleteAllByIdInBatch(any());
+        verify(paymentOutboxRepository).releaseClaims(List.of(1L));
+        assertEquals(1.0, counter(PaymentOutboxRelay.FAILED_METRIC));
+        assertTrue(meterRegistry.get(PaymentOutboxRelay.LAG_METRIC).gauge().value() >= 30.0);
+    }
+
+    @Test
+    void scheduledRelay_withEmptyOutbox_reportsNoLag() {
+        outboxHolds(List.of());
+
+        relay.scheduledRelay();
+
+        verify(rabbitTemplate, never()).send(anyString(), anyString(), any(Message.class), any(CorrelationData.class));
+        verify(paymentOutboxRepository, never()).claim(any(), any());
+        assertEquals(0.0, meterRegistry.get(PaymentOutboxRelay.LAG_METRIC).gauge().value());
+    }
+
+    @Test
+    void constructor_withoutPublisherConfirms_failsFast() {
+        when(connectionFactory.isPublisherConfirms()).thenReturn(false);
+
+        assertThrows(IllegalStateException.class, () -> new PaymentOutboxRelay(paymentOutboxRepository, rabbitTemplate,
+                transactionTemplate, new SimpleMeterRegistry(), BATCH_SIZE, Duration.ofSeconds(1), Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void constructor_withClaimNotOutlastingConfirms_failsFast() {
+        assertThrows(IllegalStateException.class, () -> new PaymentOutboxRelay(paymentOutboxRepository, rabbitTemplate,
+                transactionTemplate, new SimpleMeterRegistry(), BATCH_SIZE, Duration.ofSeconds(5), Duration.ofSeconds(5)));
+    }
+}
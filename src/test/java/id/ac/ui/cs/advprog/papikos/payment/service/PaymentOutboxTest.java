@@ -0,0 +1,79 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import id.ac.ui.cs.advprog.papikos.payment.dto.PaymentEvent;
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class PaymentOutboxTest {
+
+    @Mock
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @InjectMocks
+    private PaymentOutbox paymentOutbox;
+
+    private PaymentOutboxEvent savedEvent() {
+        ArgumentCaptor<PaymentOutboxEvent> captor = ArgumentCaptor.forClass(PaymentOutboxEvent.class);
+        verify(paymentOutboxRepository).save(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    void paymentSucceeded_recordsEventOfPayerTransaction() throws Exception {
+        Transaction tx = new Transaction();
+        tx.setTransactionId(UUID.randomUUID());
+        tx.setUserId(UUID.randomUUID());
+        tx.setTransactionType(TransactionType.PAYMENT);
+        tx.setStatus(TransactionStatus.COMPLETED);
+        tx.setAmount(new BigDecimal("750.00"));
+        tx.setRelatedRentalId(UUID.randomUUID());
+        tx.setPayerUserId(tx.getUserId());
+        tx.setPayeeUserId(UUID.randomUUID());
+
+        paymentOutbox.paymentSucceeded(tx);
+
+        PaymentOutboxEvent row = savedEvent();
+        assertEquals(PaymentEvent.PAYMENT_SUCCEEDED, row.getEventType());
+        assertEquals(tx.getTransactionId(), row.getAggregateId());
+        assertNotNull(row.getCreatedAt());
+        PaymentEvent event = PaymentOutbox.EVENT_MAPPER.readValue(row.getPayload(), PaymentEvent.class);
+        assertEquals(row.getEventId(), event.eventId());
+        assertEquals(tx.getTransactionId(), event.transactionId());
+        assertEquals(tx.getRelatedRentalId(), event.rentalId());
+        assertEquals(tx.getPayeeUserId(), event.payeeUserId());
+        assertEquals(0, tx.getAmount().compareTo(event.amount()));
+    }
+
+    @Test
+    void paymentFailed_recordsReasonWithoutTransaction() throws Exception {
+        UUID rentalId = UUID.randomUUID();
+
+        paymentOutbox.paymentFailed(rentalId, UUID.randomUUID(), UUID.randomUUID(), BigDecimal.TEN, "Insufficient balance");
+
+        PaymentOutboxEvent row = savedEvent();
+        assertEquals(PaymentEvent.PAYMENT_FAILED, row.getEventType());
+        assertEquals(rentalId, row.getAggregateId());
+        JsonNode payload = PaymentOutbox.EVENT_MAPPER.readTree(row.getPayload());
+        assertTrue(payload.get("transactionId").isNull());
+        assertEquals("Insufficient balance", payload.get("reason").asText());
+        // Dates are ISO-8601 strings, not epoch arrays
+        assertTrue(payload.get("occurredAt").isTextual());
+    }
+}
@@ -0,0 +1,119 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.exception.IdempotencyKeyConflictException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InvalidOperationException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.PaymentProcessingException;
+import id.ac.ui.cs.advprog.papikos.payment.exception.ResourceNotFoundException;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentPhaseMetrics.Operation;
+import id.ac.ui.cs.advprog.papikos.payment.service.PaymentPhaseMetrics.Phase;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentPhaseMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PaymentPhaseMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new PaymentPhaseMetrics(meterRegistry);
+    }
+
+    private Timer phaseTimer(String phase, String outcome) {
+        return meterRegistry.find(PaymentPhaseMetrics.PHASE_METRIC)
+                .tags("operation", "pay", "phase", phase, "outcome", outcome)
+                .timer();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void record_addsUpRepeatedPhaseStepsIntoOneSample() {
+        String result = metrics.record(Operation.PAY, new BigDecimal("250.00"), () -> {
+            metrics.time(Phase.BALANCE_UPDATE, () -> sleep(5));
+            metrics.time(Phase.BALANCE_UPDATE, () -> sleep(5));
+            return "done";
+        });
+
+        assertEquals("done", result);
+        Timer balanceUpdate = phaseTimer("balance.update", "success");
+        assertEquals(1, balanceUpdate.count());
+        assertTrue(balanceUpdate.totalTime(TimeUnit.MILLISECONDS) >= 10);
+        assertNull(phaseTimer("rental.fetch", "success"));
+        assertEquals(250.0, meterRegistry.get(PaymentPhaseMetrics.AMOUNT_METRIC).summary().totalAmount());
+    }
+
+    @Test
+    void record_tagsPhasesWithOutcomeOfTheOperationAndRethrows() {
+        InsufficientBalanceException failure = new InsufficientBalanceException("Insufficient balance");
+
+        InsufficientBalanceException thrown = assertThrows(InsufficientBalanceException.class, () ->
+                metrics.record(Operation.PAY, BigDecimal.TEN, () -> {
+                    metrics.time(Phase.RENTAL_FETCH, () -> sleep(1));
+                    throw failure;
+                }));
+
+        assertSame(failure, thrown);
+        assertEquals(1, phaseTimer("rental.fetch", "insufficient_balance").count());
+        assertEquals(1, meterRegistry.get(PaymentPhaseMetrics.OPERATION_METRIC)
+                .tags("operation", "pay", "outcome", "insufficient_balance").timer().count());
+    }
+
+    @Test
+    void commitPhase_runsFromCommittingToCommitted() {
+        metrics.record(Operation.TOPUP, BigDecimal.ONE, () -> {
+            metrics.committing();
+            sleep(5);
+            metrics.committed();
+            // A transaction that failed before committing() adds no commit time
+            metrics.committed();
+            return null;
+        });
+
+        Timer commit = meterRegistry.get(PaymentPhaseMetrics.PHASE_METRIC).tags("phase", "commit").timer();
+        assertEquals(1, commit.count());
+        assertTrue(commit.totalTime(TimeUnit.MILLISECONDS) >= 5);
+    }
+
+    @Test
+    void stepsOutsideAnOperation_areRunButNotRecorded() {
+        assertEquals(42, metrics.time(Phase.TRANSACTION_INSERT, () -> 42));
+        metrics.committing();
+        metrics.committed();
+
+        assertTrue(meterRegistry.getMeters().isEmpty());
+    }
+
+    @Test
+    void nullAmount_recordsNoAmount() {
+        metrics.record(Operation.TOPUP, null, () -> null);
+
+        assertNotNull(meterRegistry.find(PaymentPhaseMetrics.OPERATION_METRIC).timer());
+        assertNull(meterRegistry.find(PaymentPhaseMetrics.AMOUNT_METRIC).summary());
+    }
+
+    @Test
+    void outcomeOf_mapsServiceExceptions() {
+        assertEquals("insufficient_balance", PaymentPhaseMetrics.outcomeOf(new InsufficientBalanceException("x")));
+        assertEquals("invalid_operation", PaymentPhaseMetrics.outcomeOf(new InvalidOperationException("x")));
+        assertEquals("invalid_operation", PaymentPhaseMetrics.outcomeOf(new ResourceNotFoundException("x")));
+        assertEquals("invalid_operation", PaymentPhaseMetrics.outcomeOf(new IdempotencyKeyConflictException("x")));
+        assertEquals("error", PaymentPhaseMetrics.outcomeOf(new PaymentProcessingException("x")));
+        assertEquals("error", PaymentPhaseMetrics.outcomeOf(new IllegalStateException("x")));
+    }
+}
@@ -0,0 +1,142 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares charging a month-start wave of rental.created events one transaction per event against charging them
+ * in batches of {@value #BATCH_SIZE}, one transaction per batch. Run with {@code gradle benchmarkTest}.
+ */
+@Tag("benchmark")
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:rental-charge-benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+        "logging.level.id.ac.ui.cs.advprog.papikos.payment=WARN"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RentalChargeBatchBenchmarkTest {
+
+    private static final int TENANTS = 2_000;
+    private static final int OWNERS = 50;
+    private static final int CHARGES = 4_000;
+    private static final int WARMUP_CHARGES = 1_000;
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentServiceImpl paymentService;
+    private final List<UUID> tenants = new ArrayList<>();
+    private final List<UUID> owners = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        IdempotencyKeyStore store = new IdempotencyKeyStore(idempotencyKeyRepository, transactionRepository,
+                Duration.ofDays(7), Duration.ofMinutes(10), 100_000, new SimpleMeterRegistry());
+        paymentService = new PaymentServiceImpl(userBalanceRepository, transactionRepository, null,
+                new TransactionTemplate(transactionManager), new ReplicaLagGuard(Duration.ZERO, 1),
+                transactionSummaryRepository, null, store, new PaymentOutbox(paymentOutboxRepository),
+                new PaymentPhaseMetrics(new SimpleMeterRegistry()));
+        List<UserBalance> balances = new ArrayList<>();
+        for (int i = 0; i < TENANTS; i++) {
+            balances.add(new UserBalance(UUID.randomUUID(), new BigDecimal("100000000.00")));
+        }
+        userBalanceRepository.saveAll(balances).forEach(balance -> tenants.add(balance.getUserId()));
+        for (int i = 0; i < OWNERS; i++) {
+            owners.add(userBalanceRepository.save(new UserBalance(UUID.randomUUID(), BigDecimal.ZERO)).getUserId());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        paymentOutboxRepository.deleteAll();
+        idempotencyKeyRepository.deleteAll();
+        transactionSummaryRepository.deleteAll();
+        transactionRepository.deleteAll();
+        userBalanceRepository.deleteAll();
+    }
+
+    @Test
+    void batchedCharges_versusOneTransactionPerEvent() {
+        Consumer<List<RentalCharge>> perEvent = wave -> wave.forEach(charge -> assertNotNull(paymentService.chargeForRental(
+                charge.rentalId(), charge.tenantUserId(), charge.ownerUserId(), charge.amount())));
+        Consumer<List<RentalCharge>> batched = wave -> {
+            for (int from = 0; from < wave.size(); from += BATCH_SIZE) {
+                List<RentalChargeResult> results = paymentService.chargeForRentals(
+                        wave.subList(from, Math.min(from + BATCH_SIZE, wave.size())));
+                assertTrue(results.stream().allMatch(RentalChargeResult::isCharged));
+            }
+        };
+
+        run(perEvent, WARMUP_CHARGES);
+        run(batched, WARMUP_CHARGES);
+        double perEventPerSecond = run(perEvent, CHARGES);
+        double batchedPerSecond = run(batched, CHARGES);
+
+        System.out.printf("rental.created charges, %d events from %d tenants to %d owners%n", CHARGES, TENANTS, OWNERS);
+        System.out.printf("  one transaction per event  : %,10.0f charges/s%n", perEventPerSecond);
+        System.out.printf("  batches of %-4d            : %,10.0f charges/s%n", BATCH_SIZE, batchedPerSecond);
+        System.out.printf("  speed-up                   : %10.2fx%n", batchedPerSecond / perEventPerSecond);
+
+        assertEquals(2L * (2 * WARMUP_CHARGES + 2 * CHARGES), transactionRepository.count());
+        assertTrue(batchedPerSecond > perEventPerSecond, "Batched charges should be faster than one transaction per event");
+    }
+
+    private double run(Consumer<List<RentalCharge>> charge, int charges) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<RentalCharge> wave = new ArrayList<>(charges);
+        for (int i = 0; i < charges; i++) {
+            wave.add(new RentalCharge(UUID.randomUUID(), tenants.get(random.nextInt(TENANTS)),
+                    owners.get(random.nextInt(OWNERS)), BigDecimal.valueOf(random.nextInt(100, 1_000))));
+        }
+        long startedAt = System.nanoTime();
+        charge.accept(wave);
+        return charges / ((System.nanoTime() - startedAt) / 1_000_000_000.0);
+    }
+}
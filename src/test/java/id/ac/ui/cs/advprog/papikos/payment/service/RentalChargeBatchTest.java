@@ -0,0 +1,172 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.dto.PaymentEvent;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalCharge;
+import id.ac.ui.cs.advprog.papikos.payment.dto.RentalChargeResult;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TopUpRequest;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.PaymentOutboxEvent;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionMonthlySummary;
+import id.ac.ui.cs.advprog.papikos.payment.entity.UserBalance;
+import id.ac.ui.cs.advprog.papikos.payment.exception.InsufficientBalanceException;
+import id.ac.ui.cs.advprog.papikos.payment.repository.IdempotencyKeyRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.PaymentOutboxRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Batched rental charges against a real database: one transaction per batch, in which a declined charge fails
+ * alone.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RentalChargeBatchTest {
+
+    private static final BigDecimal PRICE = new BigDecimal("100.00");
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private PaymentOutboxRepository paymentOutboxRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentServiceImpl paymentService;
+    private final UUID owner = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        paymentService = newService();
+        userBalanceRepository.save(new UserBalance(owner, BigDecimal.ZERO));
+    }
+
+    private PaymentServiceImpl newService() {
+        return newService(newStore(Duration.ofDays(7)));
+    }
+
+    private IdempotencyKeyStore newStore(Duration retention) {
+        return new IdempotencyKeyStore(idempotencyKeyRepository, transactionRepository,
+                retention, Duration.ofMinutes(10), 1000, new SimpleMeterRegistry());
+    }
+
+    private PaymentServiceImpl newService(IdempotencyKeyStore store) {
+        return new PaymentServiceImpl(userBalanceRepository, transactionRepository, null,
+                new TransactionTemplate(transactionManager), new ReplicaLagGuard(Duration.ZERO, 1),
+                transactionSummaryRepository, null, store, new PaymentOutbox(paymentOutboxRepository),
+                new PaymentPhaseMetrics(new SimpleMeterRegistry()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        paymentOutboxRepository.deleteAll();
+        idempotencyKeyRepository.deleteAll();
+        transactionSummaryRepository.deleteAll();
+        transactionRepository.deleteAll();
+        userBalanceRepository.deleteAll();
+    }
+
+    private UUID tenantWith(String balance) {
+        return userBalanceRepository.save(new UserBalance(UUID.randomUUID(), new BigDecimal(balance))).getUserId();
+    }
+
+    private BigDecimal balanceOf(UUID userId) {
+        return userBalanceRepository.findByUserId(userId).orElseThrow().getBalance();
+    }
+
+    @Test
+    void chargeForRentals_declinedChargeDoesNotUndoTheRestOfTheBatch() {
+        UUID tenant = tenantWith("250.00");
+        UUID poorTenant = tenantWith("50.00");
+        List<RentalCharge> charges = List.of(
+                new RentalCharge(UUID.randomUUID(), tenant, owner, PRICE),
+                new RentalCharge(UUID.randomUUID(), poorTenant, owner, PRICE),
+                new RentalCharge(UUID.randomUUID(), tenant, owner, PRICE));
+
+        List<RentalChargeResult> results = paymentService.chargeForRentals(charges);
+
+        assertTrue(results.get(0).isCharged());
+        assertInstanceOf(InsufficientBalanceException.class, results.get(1).failure());
+        assertTrue(results.get(2).isCharged());
+        assertEquals(0, new BigDecimal("50.00").compareTo(balanceOf(tenant)));
+        assertEquals(0, new BigDecimal("50.00").compareTo(balanceOf(poorTenant)));
+        assertEquals(0, new BigDecimal("200.00").compareTo(balanceOf(owner)));
+        assertEquals(4, transactionRepository.count());
+        // The declined charge gave its key back, so a later delivery can try again
+        assertEquals(2, idempotencyKeyRepository.count());
+        assertEquals(Map.of(PaymentEvent.PAYMENT_SUCCEEDED, 2L, PaymentEvent.PAYMENT_FAILED, 1L),
+                paymentOutboxRepository.findAll().stream()
+                        .collect(Collectors.groupingBy(PaymentOutboxEvent::getEventType, Collectors.counting())));
+        TransactionMonthlySummary tenantSummary = transactionSummaryRepository.findAll().stream()
+                .filter(summary -> summary.getId().getUserId().equals(tenant))
+                .findFirst().orElseThrow();
+        assertEquals(2, tenantSummary.getTransactionCount());
+        assertEquals(0, new BigDecimal("200.00").compareTo(tenantSummary.getTotalAmount()));
+    }
+
+    @Test
+    void chargeForRentals_redeliveredBatch_isChargedOnce() {
+        UUID tenant = tenantWith("1000.00");
+        List<RentalCharge> charges = List.of(
+                new RentalCharge(UUID.randomUUID(), tenant, owner, PRICE),
+                new RentalCharge(UUID.randomUUID(), tenant, owner, PRICE));
+
+        List<RentalChargeResult> first = paymentService.chargeForRentals(charges);
+        // Another instance, without the first one's cache, receives the same batch again
+        List<RentalChargeResult> redelivered = newService().chargeForRentals(charges);
+
+        assertEquals(first.get(0).transaction().transactionId(), redelivered.get(0).transaction().transactionId());
+        assertEquals(first.get(1).transaction().transactionId(), redelivered.get(1).transaction().transactionId());
+        assertEquals(0, new BigDecimal("800.00").compareTo(balanceOf(tenant)));
+        assertEquals(4, transactionRepository.count());
+        assertEquals(2, paymentOutboxRepository.count());
+    }
+
+    @Test
+    void chargeForRental_replayedAfterKeyRetention_isChargedOnce() {
+        UUID tenant = tenantWith("1000.00");
+        UUID rentalId = UUID.randomUUID();
+        TransactionDto first = paymentService.chargeForRental(rentalId, tenant, owner, PRICE);
+        // A client key of the same age is purged; the rental charge key is not
+        newService().topUp(tenant, new TopUpRequest(BigDecimal.ONE), "client-key");
+
+        assertEquals(1, newStore(Duration.ofSeconds(-1)).purgeExpired());
+        // A message replayed from the dead-letter queue long after the charge, on another instance
+        TransactionDto replayed = newService().chargeForRental(rentalId, tenant, owner, PRICE);
+
+        assertEquals(first.transactionId(), replayed.transactionId());
+        assertEquals(0, new BigDecimal("901.00").compareTo(balanceOf(tenant)));
+        assertEquals(1, idempotencyKeyRepository.count());
+    }
+}
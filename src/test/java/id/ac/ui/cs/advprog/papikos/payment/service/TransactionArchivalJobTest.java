@@ -0,0 +1,156 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.datasource.ReplicaLagGuard;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionExportFormat;
+import id.ac.ui.cs.advprog.papikos.payment.entity.Transaction;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.repository.ArchivedTransactionMonthRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.UserBalanceRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class TransactionArchivalJobTest {
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private UserBalanceRepository userBalanceRepository;
+
+    @Autowired
+    private TransactionMonthlySummaryRepository transactionSummaryRepository;
+
+    @Autowired
+    private ArchivedTransactionMonthRepository archivedMonthRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @TempDir
+    Path directory;
+
+    private TransactionArchive archive;
+    private TransactionArchivalJob job;
+    private final UUID userId = UUID.randomUUID();
+
+    private void persist(UUID owner, LocalDateTime createdAt) {
+        Transaction tx = new Transaction();
+        tx.setUserId(owner);
+        tx.setTransactionType(TransactionType.TOPUP);
+        tx.setAmount(BigDecimal.TEN);
+        tx.setStatus(TransactionStatus.COMPLETED);
+        transactionRepository.saveAndFlush(tx);
+        entityManager.createNativeQuery("UPDATE transactions SET created_at = :createdAt WHERE transaction_id = :id")
+                .setParameter("createdAt", createdAt)
+                .setParameter("id", tx.getTransactionId())
+                .executeUpdate();
+    }
+
+    @BeforeEach
+    void setUp() {
+        archive = new TransactionArchive(directory.resolve("shared"), archivedMonthRepository);
+        job = new TransactionArchivalJob(transactionRepository, archive, transactionManager, new ClusterJobLock(dataSource), 24);
+        persist(userId, LocalDateTime.of(2023, 1, 5, 10, 0));
+        persist(userId, LocalDateTime.of(2023, 1, 31, 23, 59));
+        persist(UUID.randomUUID(), LocalDateTime.of(2023, 1, 10, 8, 0));
+        persist(userId, LocalDateTime.of(2023, 3, 2, 12, 0));
+        persist(userId, LocalDateTime.of(2024, 6, 1, 0, 0));
+        entityManager.clear();
+    }
+
+    private long countCreatedIn(YearMonth month) {
+        try (Stream<?> rows = transactionRepository.streamTransactionsCreatedBetween(
+                month.atDay(1).atStartOfDay(), month.plusMonths(1).atDay(1).atStartOfDay())) {
+            return rows.count();
+        }
+    }
+
+    @Test
+    void archiveMonthsBefore_movesOldMonthsToArchiveOldestFirst() throws Exception {
+        assertEquals(3, job.archiveMonthsBefore(YearMonth.of(2023, 4)));
+
+        assertTrue(archive.isArchived(YearMonth.of(2023, 1)));
+        assertTrue(archive.isArchived(YearMonth.of(2023, 2)));
+        assertTrue(archive.isArchived(YearMonth.of(2023, 3)));
+        assertFalse(archive.isArchived(YearMonth.of(2024, 6)));
+        assertEquals(0, countCreatedIn(YearMonth.of(2023, 1)));
+        assertEquals(0, countCreatedIn(YearMonth.of(2023, 3)));
+        assertEquals(1, countCreatedIn(YearMonth.of(2024, 6)));
+        try (Stream<?> january = archive.read(YearMonth.of(2023, 1))) {
+            assertEquals(3, january.count());
+        }
+    }
+
+    @Test
+    void archiveMonthsBefore_withNothingOldEnough_archivesNothing() {
+        assertEquals(0, job.archiveMonthsBefore(YearMonth.of(2023, 1)));
+
+        assertFalse(archive.isArchived(YearMonth.of(2023, 1)));
+        assertEquals(3, countCreatedIn(YearMonth.of(2023, 1)));
+    }
+
+    private PaymentServiceImpl newPaymentService(TransactionArchive transactionArchive) {
+        return new PaymentServiceImpl(userBalanceRepository, transactionRepository, null,
+                new TransactionTemplate(transactionManager), new ReplicaLagGuard(Duration.ZERO, 1),
+                transactionSummaryRepository, transactionArchive, null, null, null);
+    }
+
+    @Test
+    void export_servesArchivedAndLiveMonthsTogether() throws Exception {
+        job.archiveMonthsBefore(YearMonth.of(2023, 2));
+        PaymentServiceImpl paymentService = newPaymentService(archive);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long rows = paymentService.exportTransactionHistory(userId, LocalDate.of(2023, 1, 6), LocalDate.of(2024, 12, 31),
+                TransactionExportFormat.CSV, out);
+
+        assertEquals(3, rows);
+        List<String> lines = out.toString(StandardCharsets.UTF_8).lines().skip(1).toList();
+        assertTrue(lines.get(0).contains("2023-01-31T23:59"), lines.get(0));
+        assertTrue(lines.get(1).contains("2023-03-02T12:00"), lines.get(1));
+        assertTrue(lines.get(2).contains("2024-06-01T00:00"), lines.get(2));
+    }
+
+    @Test
+    void instanceWithoutTheSharedArchiveDirectory_failsInsteadOfExportingWithoutArchivedMonths() throws Exception {
+        job.archiveMonthsBefore(YearMonth.of(2023, 2));
+        TransactionArchive localArchive = new TransactionArchive(directory.resolve("local"), archivedMonthRepository);
+
+        assertTrue(localArchive.isArchived(YearMonth.of(2023, 1)));
+        assertThrows(IllegalStateException.class, localArchive::verifyArchivedMonthsPresent);
+        assertThrows(NoSuchFileException.class, () -> newPaymentService(localArchive).exportTransactionHistory(userId,
+                LocalDate.of(2023, 1, 1), LocalDate.of(2023, 12, 31), TransactionExportFormat.CSV, new ByteArrayOutputStream()));
+    }
+}
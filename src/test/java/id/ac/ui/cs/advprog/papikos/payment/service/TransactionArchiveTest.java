@@ -0,0 +1,144 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.entity.ArchivedTransactionMonth;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import id.ac.ui.cs.advprog.papikos.payment.repository.ArchivedTransactionMonthRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionArchiveTest {
+
+    private static final YearMonth MONTH = YearMonth.of(2023, 7);
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private ArchivedTransactionMonthRepository archivedMonthRepository;
+
+    private TransactionArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        archive = new TransactionArchive(directory.resolve("archive"), archivedMonthRepository);
+    }
+
+    private static ArchivedTransactionMonth archived(YearMonth month) {
+        ArchivedTransactionMonth archived = new ArchivedTransactionMonth();
+        archived.setMonth(month.atDay(1));
+        return archived;
+    }
+
+    private static TransactionDto transaction(int minute) {
+        return new TransactionDto(UUID.randomUUID(), UUID.randomUUID(), TransactionType.PAYMENT, new BigDecimal("12.34"),
+                TransactionStatus.COMPLETED, UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "Rent \"July\"",
+                LocalDateTime.of(2023, 7, 1, 0, 0).plusMinutes(minute), LocalDateTime.of(2023, 7, 1, 0, 0).plusMinutes(minute));
+    }
+
+    @Test
+    void write_thenRead_roundTripsRowsInOrder() throws IOException {
+        List<TransactionDto> rows = IntStream.range(0, 500).mapToObj(TransactionArchiveTest::transaction).toList();
+
+        assertEquals(500, archive.write(MONTH, rows.stream()));
+
+        try (Stream<TransactionDto> read = archive.read(MONTH)) {
+            assertEquals(rows, read.toList());
+        }
+    }
+
+    @Test
+    void write_producesGzipNdjsonWithoutLeavingTemporaryFiles() throws IOException {
+        archive.write(MONTH, Stream.of(transaction(1), transaction(2)));
+
+        try (Stream<Path> files = Files.list(directory.resolve("archive"))) {
+            assertEquals(List.of("transactions-2023-07.ndjson.gz"), files.map(p -> p.getFileName().toString()).toList());
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archive.fileFor(MONTH)))) {
+            assertEquals(2, new String(in.readAllBytes()).lines().count());
+        }
+    }
+
+    @Test
+    void write_replacesPreviousArchiveOfMonth() throws IOException {
+        archive.write(MONTH, Stream.of(transaction(1), transaction(2)));
+        TransactionDto only = transaction(3);
+
+        archive.write(MONTH, Stream.of(only));
+
+        try (Stream<TransactionDto> read = archive.read(MONTH)) {
+            assertEquals(List.of(only), read.toList());
+        }
+    }
+
+    @Test
+    void write_emptyMonth_isStillReadable() throws IOException {
+        assertEquals(0, archive.write(MONTH, Stream.empty()));
+
+        try (Stream<TransactionDto> read = archive.read(MONTH)) {
+            assertEquals(0, read.count());
+        }
+    }
+
+    @Test
+    void markArchived_recordsMonthInDatabase() {
+        when(archivedMonthRepository.existsById(MONTH.atDay(1))).thenReturn(true);
+
+        archive.markArchived(MONTH, 42);
+
+        ArgumentCaptor<ArchivedTransactionMonth> saved = ArgumentCaptor.forClass(ArchivedTransactionMonth.class);
+        verify(archivedMonthRepository).save(saved.capture());
+        assertEquals(MONTH.atDay(1), saved.getValue().getMonth());
+        assertEquals(42, saved.getValue().getRowCount());
+        assertTrue(archive.isArchived(MONTH));
+    }
+
+    @Test
+    void read_whenFileOfMonthIsMissing_failsInsteadOfReturningNothing() {
+        NoSuchFileException e = assertThrows(NoSuchFileException.class, () -> archive.read(MONTH));
+
+        assertTrue(e.getMessage().contains("must be shared by all instances"), e.getMessage());
+    }
+
+    @Test
+    void verifyArchivedMonthsPresent_withAllFilesPresent_passes() throws IOException {
+        archive.write(MONTH, Stream.of(transaction(1)));
+        when(archivedMonthRepository.findAll()).thenReturn(List.of(archived(MONTH)));
+
+        assertDoesNotThrow(archive::verifyArchivedMonthsPresent);
+    }
+
+    @Test
+    void verifyArchivedMonthsPresent_withFileMissingFromDirectory_failsStartup() throws IOException {
+        archive.write(MONTH, Stream.of(transaction(1)));
+        when(archivedMonthRepository.findAll()).thenReturn(List.of(archived(MONTH), archived(MONTH.minusMonths(1))));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, archive::verifyArchivedMonthsPresent);
+
+        assertTrue(e.getMessage().contains("[2023-06]"), e.getMessage());
+    }
+}
@@ -0,0 +1,95 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionDto;
+import id.ac.ui.cs.advprog.papikos.payment.dto.TransactionExportFormat;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionStatus;
+import id.ac.ui.cs.advprog.papikos.payment.entity.TransactionType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionExportWriterTest {
+
+    private final UUID transactionId = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private final UUID userId = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private final LocalDateTime createdAt = LocalDateTime.of(2024, 5, 1, 8, 30, 15);
+
+    private TransactionDto transaction(String notes) {
+        return new TransactionDto(transactionId, userId, TransactionType.TOPUP, new BigDecimal("1500.50"),
+                TransactionStatus.COMPLETED, null, null, null, notes, createdAt, null);
+    }
+
+    private String export(TransactionExportFormat format, TransactionDto... transactions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TransactionExportWriter writer = TransactionExportWriter.create(format, out)) {
+            for (TransactionDto transaction : transactions) {
+                writer.write(transaction);
+            }
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void csv_writesHeaderAndOneLinePerTransaction() throws IOException {
+        List<String> lines = export(TransactionExportFormat.CSV, transaction("Top-up"), transaction(null)).lines().toList();
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).startsWith("transactionId,userId,transactionType,amount"));
+        assertEquals(transactionId + "," + userId + ",TOPUP,1500.50,COMPLETED,,,,Top-up,2024-05-01T08:30:15,", lines.get(1));
+        assertEquals(transactionId + "," + userId + ",TOPUP,1500.50,COMPLETED,,,,,2024-05-01T08:30:15,", lines.get(2));
+    }
+
+    @Test
+    void csv_quotesNotesWithDelimitersQuotesAndLineBreaks() throws IOException {
+        String csv = export(TransactionExportFormat.CSV, transaction("Rent, \"May\"\nsecond line"));
+
+        assertTrue(csv.contains(",\"Rent, \"\"May\"\"\nsecond line\","), csv);
+    }
+
+    @Test
+    void csv_withoutRows_writesOnlyHeader() throws IOException {
+        assertEquals(1, export(TransactionExportFormat.CSV).lines().count());
+    }
+
+    @Test
+    void ndjson_writesOneJsonObjectPerLine() throws IOException {
+        String ndjson = export(TransactionExportFormat.NDJSON, transaction("Top-up"), transaction("line\nbreak"));
+
+        List<String> lines = ndjson.lines().toList();
+        assertEquals(2, lines.size());
+        assertTrue(ndjson.endsWith("\n"));
+        JsonNode first = new ObjectMapper().readTree(lines.get(0));
+        assertEquals(transactionId.toString(), first.get("transactionId").asText());
+        assertEquals("TOPUP", first.get("transactionType").asText());
+        assertEquals("2024-05-01T08:30:15", first.get("createdAt").asText());
+        assertEquals(0, new BigDecimal("1500.50").compareTo(first.get("amount").decimalValue()));
+        assertEquals("line\nbreak", new ObjectMapper().readTree(lines.get(1)).get("notes").asText());
+    }
+
+    @Test
+    void close_flushesWithoutClosingTarget() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                fail("Target stream must stay open");
+            }
+        };
+        TransactionExportWriter writer = TransactionExportWriter.create(TransactionExportFormat.NDJSON, out);
+        writer.write(transaction(null));
+        assertEquals(0, out.size());
+
+        writer.close();
+
+        assertTrue(out.size() > 0);
+    }
+}
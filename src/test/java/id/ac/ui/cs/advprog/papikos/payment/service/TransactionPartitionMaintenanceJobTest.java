@@ -0,0 +1,84 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionPartitionMaintenanceJobTest {
+
+    private static final YearMonth NOW = YearMonth.of(2024, 11);
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private ClusterJobLock clusterJobLock;
+
+    private TransactionPartitionMaintenanceJob job;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        job = new TransactionPartitionMaintenanceJob(transactionRepository, transactionTemplate, clusterJobLock, 3);
+    }
+
+    @Test
+    void createUpcomingPartitions_createsCurrentAndNextMonths() {
+        when(transactionRepository.createMonthlyPartition(any())).thenReturn(true);
+
+        job.createUpcomingPartitions(NOW);
+
+        verify(transactionRepository).createMonthlyPartition(YearMonth.of(2024, 11));
+        verify(transactionRepository).createMonthlyPartition(YearMonth.of(2024, 12));
+        verify(transactionRepository).createMonthlyPartition(YearMonth.of(2025, 1));
+        verify(transactionRepository).createMonthlyPartition(YearMonth.of(2025, 2));
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    void createUpcomingPartitions_whenTableNotPartitioned_stopsAfterFirstCheck() {
+        when(transactionRepository.createMonthlyPartition(NOW)).thenReturn(false);
+
+        job.createUpcomingPartitions(NOW);
+
+        verify(transactionRepository).createMonthlyPartition(NOW);
+        verifyNoMoreInteractions(transactionRepository);
+    }
+
+    @Test
+    void createUpcomingPartitions_continuesAfterFailedMonth() {
+        when(transactionRepository.createMonthlyPartition(any())).thenReturn(true);
+        when(transactionRepository.createMonthlyPartition(YearMonth.of(2024, 12)))
+                .thenThrow(new DataIntegrityViolationException("default partition holds rows"));
+
+        job.createUpcomingPartitions(NOW);
+
+        verify(transactionRepository).createMonthlyPartition(YearMonth.of(2025, 2));
+    }
+
+    @Test
+    void scheduledMaintenance_whileAnotherInstanceHoldsTheLock_createsNothing() {
+        when(clusterJobLock.runExclusively(eq(TransactionPartitionMaintenanceJob.JOB_NAME), any())).thenReturn(false);
+
+        job.scheduledMaintenance();
+
+        verifyNoInteractions(transactionRepository);
+    }
+}
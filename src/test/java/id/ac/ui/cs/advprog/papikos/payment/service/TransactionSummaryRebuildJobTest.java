@@ -0,0 +1,82 @@
+package id.ac.ui.cs.advprog.papikos.payment.service;
+
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionMonthlySummaryRepository;
+import id.ac.ui.cs.advprog.papikos.payment.repository.TransactionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionSummaryRebuildJobTest {
+
+    @Mock
+    private TransactionMonthlySummaryRepository summaryRepository;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private static final LocalDate FROM_MONTH = LocalDate.of(2024, 1, 1);
+
+    private TransactionSummaryRebuildJob job;
+
+    private final UUID user1 = UUID.randomUUID();
+    private final UUID user2 = UUID.randomUUID();
+    private final UUID user3 = UUID.randomUUID();
+
+    @BeforeEach
+    void setUp() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        lenient().when(transactionRepository.findOldestCreatedAt()).thenReturn(FROM_MONTH.atTime(10, 0));
+        job = new TransactionSummaryRebuildJob(summaryRepository, transactionRepository, transactionTemplate, 2);
+    }
+
+    @Test
+    void rebuild_processesUsersInBoundedBatchesEachInItsOwnTransaction() {
+        when(summaryRepository.findTransactionUserIds(null, 2)).thenReturn(List.of(user1, user2));
+        when(summaryRepository.findTransactionUserIds(user2, 2)).thenReturn(List.of(user3));
+
+        assertEquals(3, job.rebuild());
+
+        verify(summaryRepository).rebuildMonthlySummaries(List.of(user1, user2), FROM_MONTH);
+        verify(summaryRepository).rebuildMonthlySummaries(List.of(user3), FROM_MONTH);
+        verify(transactionTemplate, times(5)).execute(any());
+    }
+
+    @Test
+    void rebuild_skipsFailedBatchAndContinues() {
+        when(summaryRepository.findTransactionUserIds(null, 2)).thenReturn(List.of(user1, user2));
+        when(summaryRepository.findTransactionUserIds(user2, 2)).thenReturn(List.of(user3));
+        when(summaryRepository.rebuildMonthlySummaries(List.of(user1, user2), FROM_MONTH)).thenThrow(new CannotAcquireLockException("lock timeout"));
+
+        assertEquals(1, job.rebuild());
+
+        verify(summaryRepository).rebuildMonthlySummaries(List.of(user3), FROM_MONTH);
+    }
+
+    @Test
+    void rebuild_withoutTransactions_doesNothing() {
+        when(transactionRepository.findOldestCreatedAt()).thenReturn(null);
+
+        assertEquals(0, job.rebuild());
+
+        verify(summaryRepository, never()).findTransactionUserIds(any(), anyInt());
+        verify(summaryRepository, never()).rebuildMonthlySummaries(any(), any());
+    }
+}